@@ -0,0 +1,131 @@
+/*
+ * Copyright 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.apps.common.imaging;
+
+import android.graphics.Bitmap;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps bitmaps nobody uses anymore so decodes can write into them (see
+ * {@link android.graphics.BitmapFactory.Options#inBitmap}) instead of allocating new ones.
+ *
+ * <p>The bitmaps are bucketed by their allocation size. A bitmap is only handed out for a decode
+ * needing at least half of its allocation, and the largest bitmaps are dropped first once the
+ * pool exceeds its byte budget. Only mutable software bitmaps can be reused, the others are
+ * ignored. Thread safe.
+ */
+class BitmapPool {
+
+    private final int mMaxBytes;
+    /** The bitmaps by allocation byte count. */
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBuckets = new TreeMap<>();
+    private int mSizeBytes;
+    private int mHitCount;
+    private int mMissCount;
+    private int mPutCount;
+    private int mEvictionCount;
+
+    BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /** Returns true if the bitmap can be given to {@link #put}. */
+    static boolean isReusable(@Nullable Bitmap bitmap) {
+        return bitmap != null && bitmap.isMutable() && !bitmap.isRecycled()
+                && bitmap.getConfig() != Bitmap.Config.HARDWARE;
+    }
+
+    /** Adds a bitmap nobody uses anymore to the pool, if it can be reused. */
+    synchronized void put(Bitmap bitmap) {
+        int size = bitmap.getAllocationByteCount();
+        if (!isReusable(bitmap) || size > mMaxBytes) {
+            return;
+        }
+        ArrayDeque<Bitmap> bucket = mBuckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>(2);
+            mBuckets.put(size, bucket);
+        }
+        bucket.push(bitmap);
+        mSizeBytes += size;
+        mPutCount++;
+
+        while (mSizeBytes > mMaxBytes) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> largest = mBuckets.lastEntry();
+            removeFrom(largest.getKey(), largest.getValue());
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Takes a bitmap whose allocation holds at least {@code minBytes} out of the pool, returns null
+     * if there is none.
+     */
+    @Nullable
+    synchronized Bitmap get(int minBytes) {
+        Map.Entry<Integer, ArrayDeque<Bitmap>> entry = mBuckets.ceilingEntry(minBytes);
+        // Don't waste a large bitmap on a small image.
+        if (entry == null || entry.getKey() / 2 > minBytes) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return removeFrom(entry.getKey(), entry.getValue());
+    }
+
+    /** Drops all the bitmaps. */
+    synchronized void clear() {
+        mBuckets.clear();
+        mSizeBytes = 0;
+    }
+
+    /** Returns the number of decodes which got a bitmap from the pool. */
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of decodes which had to allocate a new bitmap. */
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /** Returns the number of bytes held by the pooled bitmaps. */
+    synchronized int getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "BitmapPool{bytes=" + mSizeBytes + "/" + mMaxBytes + ", hits=" + mHitCount
+                + ", misses=" + mMissCount + ", puts=" + mPutCount + ", evictions="
+                + mEvictionCount + "}";
+    }
+
+    private Bitmap removeFrom(int size, ArrayDeque<Bitmap> bucket) {
+        Bitmap bitmap = bucket.pop();
+        if (bucket.isEmpty()) {
+            mBuckets.remove(size);
+        }
+        mSizeBytes -= size;
+        return bitmap;
+    }
+}
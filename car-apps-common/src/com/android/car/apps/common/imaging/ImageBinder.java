@@ -50,6 +50,19 @@ public class ImageBinder<T extends ImageBinder.ImageRef> {
         BACKGROUND
     }
 
+    /**
+     * The order in which the images are fetched. The most recent requests of a priority are
+     * fetched first.
+     */
+    public enum Priority {
+        /** For images which aren't displayed yet (like prefetched ones). */
+        LOW,
+        /** The default. */
+        NORMAL,
+        /** For images the user is waiting for (like the art of the playing media). */
+        HIGH
+    }
+
     /**
      * Interface to define keys for identifying images.
      */
@@ -74,11 +87,15 @@ public class ImageBinder<T extends ImageBinder.ImageRef> {
     private final Size mMaxImageSize;
     @Nullable
     private final Consumer<Drawable> mClient;
+    private Priority mPriority = Priority.NORMAL;
 
     private T mCurrentRef;
     private ImageKey mCurrentKey;
     private BiConsumer<ImageKey, Drawable> mFetchReceiver;
     private Drawable mLoadingDrawable;
+    /** The drawable received from the {@link LocalImageFetcher} for the current binding. */
+    @Nullable
+    private Drawable mFetchedDrawable;
 
 
     public ImageBinder(@NonNull PlaceholderType type, @NonNull Size maxImageSize,
@@ -94,6 +111,11 @@ public class ImageBinder<T extends ImageBinder.ImageRef> {
         mClient = null;
     }
 
+    /** Sets the priority of the next image fetches, {@link Priority#NORMAL} by default. */
+    public void setPriority(@NonNull Priority priority) {
+        mPriority = checkNotNull(priority, "Need a priority");
+    }
+
     protected void setDrawable(@Nullable Drawable drawable) {
         if (mClient != null) {
             mClient.accept(drawable);
@@ -121,6 +143,7 @@ public class ImageBinder<T extends ImageBinder.ImageRef> {
 
             mFetchReceiver = (key, drawable) -> {
                 if (Objects.equals(mCurrentKey, key)) {
+                    mFetchedDrawable = drawable;
                     Drawable displayed =
                             (drawable == null && mPlaceholderType != PlaceholderType.NONE)
                                     ? mCurrentRef.getPlaceholder(context, mPlaceholderType)
@@ -135,7 +158,8 @@ public class ImageBinder<T extends ImageBinder.ImageRef> {
                 mFetchReceiver.accept(null, null);
             } else {
                 mCurrentKey = new ImageKey(mCurrentRef.getImageURI(), mMaxImageSize);
-                getImageFetcher(context).getImage(context, mCurrentKey, mFetchReceiver);
+                getImageFetcher(context).getImage(context, mCurrentKey, mFetchReceiver,
+                        mPriority);
             }
         }
     }
@@ -159,9 +183,25 @@ public class ImageBinder<T extends ImageBinder.ImageRef> {
             getImageFetcher(context).cancelRequest(mCurrentKey, mFetchReceiver);
             onRequestFinished();
         }
+        if (mFetchedDrawable != null) {
+            if (releasesFetchedDrawables()) {
+                getImageFetcher(context).releaseImage(mFetchedDrawable);
+            }
+            mFetchedDrawable = null;
+        }
         setDrawable(mPlaceholderType != PlaceholderType.NONE ? getLoadingDrawable(context) : null);
     }
 
+    /**
+     * Returns whether the drawables given to {@link #setDrawable} are no longer used once
+     * {@link #prepareForNewBinding} returns, in which case their bitmaps are reused by later image
+     * fetches. False by default, as a client may keep displaying a drawable after it received a
+     * new one (for instance when cross fading).
+     */
+    protected boolean releasesFetchedDrawables() {
+        return false;
+    }
+
     private void onRequestFinished() {
         mCurrentKey = null;
         mFetchReceiver = null;
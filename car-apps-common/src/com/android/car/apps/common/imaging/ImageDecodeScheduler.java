@@ -0,0 +1,240 @@
+/*
+ * Copyright 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.apps.common.imaging;
+
+import androidx.annotation.UiThread;
+
+import com.android.car.apps.common.imaging.ImageBinder.Priority;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the image loading tasks of {@link LocalImageFetcher} on a pool of threads shared by all
+ * the applications, which caps the number of concurrent decodes.
+ *
+ * <p>The queued tasks run highest {@link Priority} first and, for the same priority, most recent
+ * request first, so the images the user is looking at now are decoded before those of rows which
+ * scrolled off screen. Cancelled tasks are taken out of the queue without running.
+ *
+ * <p>Every application has a lane holding its queued tasks. While several lanes have queued tasks,
+ * each only runs up to a quota of tasks at once, so one bad application can't starve the others.
+ * A lane alone with queued tasks may use all the threads. A lane is dropped as soon as it has no
+ * task left, and the threads stop after being idle for a while.
+ */
+class ImageDecodeScheduler {
+
+    private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    private final int mMaxConcurrentDecodes;
+    private final int mMaxConcurrentDecodesPerPackage;
+    private final ThreadPoolExecutor mExecutor;
+
+    /** The lanes by package name, only while they hold a queued or running task. */
+    private final Map<String, Lane> mLanes = new HashMap<>();
+    private int mRunningCount;
+
+    ImageDecodeScheduler(int maxConcurrentDecodes, int maxConcurrentDecodesPerPackage) {
+        mMaxConcurrentDecodes = maxConcurrentDecodes;
+        mMaxConcurrentDecodesPerPackage = maxConcurrentDecodesPerPackage;
+        // Never given more tasks than it has threads, the tasks wait in the lanes instead.
+        mExecutor = new ThreadPoolExecutor(maxConcurrentDecodes, maxConcurrentDecodes,
+                THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the command of a task.
+     *
+     * @param packageName the application the image is fetched from.
+     * @param generation  orders the requests of the same priority, the highest runs first.
+     * @return the queued request, to {@link #reschedule} or {@link #remove} it.
+     */
+    @UiThread
+    synchronized Request schedule(Runnable command, String packageName, Priority priority,
+            long generation) {
+        Lane lane = mLanes.get(packageName);
+        if (lane == null) {
+            lane = new Lane(packageName);
+            mLanes.put(packageName, lane);
+        }
+        Request request = new Request(command, lane, priority, generation);
+        lane.mQueue.add(request);
+        dispatch();
+        return request;
+    }
+
+    /**
+     * Moves a request which hasn't started yet to the given priority, or to a more recent
+     * generation. A request is never moved to a lower priority or to an older generation.
+     */
+    @UiThread
+    synchronized void reschedule(Request request, Priority priority, long generation) {
+        if (priority.compareTo(request.mPriority) < 0) {
+            priority = request.mPriority;
+        }
+        if (priority == request.mPriority && generation <= request.mGeneration) {
+            return;
+        }
+        // The request can only be updated while out of the queue, where it is sorted.
+        PriorityQueue<Request> queue = request.mLane.mQueue;
+        if (queue.remove(request)) {
+            request.mPriority = priority;
+            request.mGeneration = Math.max(generation, request.mGeneration);
+            queue.add(request);
+        }
+    }
+
+    /** Takes a request which hasn't started yet out of its lane. */
+    @UiThread
+    synchronized void remove(Request request) {
+        if (request.mLane.mQueue.remove(request)) {
+            removeIfIdle(request.mLane);
+        }
+    }
+
+    /** Returns the number of tasks running. */
+    synchronized int getRunningCount() {
+        return mRunningCount;
+    }
+
+    /** Returns the number of tasks waiting to run. */
+    synchronized int getQueueDepth() {
+        int depth = 0;
+        for (Lane lane : mLanes.values()) {
+            depth += lane.mQueue.size();
+        }
+        return depth;
+    }
+
+    /** Returns the number of tasks of an application waiting to run. */
+    synchronized int getQueueDepth(String packageName) {
+        Lane lane = mLanes.get(packageName);
+        return lane == null ? 0 : lane.mQueue.size();
+    }
+
+    /** Returns the number of threads alive, running a task or idle. */
+    int getThreadCount() {
+        return mExecutor.getPoolSize();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("ImageDecodeScheduler{running=")
+                .append(mRunningCount).append("/").append(mMaxConcurrentDecodes)
+                .append(", threads=").append(mExecutor.getPoolSize())
+                .append(", completed=").append(mExecutor.getCompletedTaskCount())
+                .append(", lanes={");
+        boolean isFirst = true;
+        for (Lane lane : mLanes.values()) {
+            if (!isFirst) {
+                builder.append(", ");
+            }
+            isFirst = false;
+            builder.append(lane.mPackageName).append("={queued=").append(lane.mQueue.size())
+                    .append(", running=").append(lane.mRunningCount).append("}");
+        }
+        return builder.append("}}").toString();
+    }
+
+    /**
+     * Starts the queued requests which come first, as long as the concurrent decodes allow it,
+     * and the quotas of their lanes too if other lanes have queued requests.
+     */
+    private void dispatch() {
+        while (mRunningCount < mMaxConcurrentDecodes) {
+            int queuedLaneCount = 0;
+            for (Lane lane : mLanes.values()) {
+                if (!lane.mQueue.isEmpty()) {
+                    queuedLaneCount++;
+                }
+            }
+            Request next = null;
+            for (Lane lane : mLanes.values()) {
+                Request head = lane.mQueue.peek();
+                if (head != null && (queuedLaneCount == 1
+                        || lane.mRunningCount < mMaxConcurrentDecodesPerPackage)
+                        && (next == null || head.compareTo(next) < 0)) {
+                    next = head;
+                }
+            }
+            if (next == null) {
+                return;
+            }
+            Request request = next;
+            request.mLane.mQueue.poll();
+            request.mLane.mRunningCount++;
+            mRunningCount++;
+            mExecutor.execute(() -> run(request));
+        }
+    }
+
+    private void run(Request request) {
+        try {
+            request.mCommand.run();
+        } finally {
+            synchronized (this) {
+                request.mLane.mRunningCount--;
+                mRunningCount--;
+                removeIfIdle(request.mLane);
+                dispatch();
+            }
+        }
+    }
+
+    private void removeIfIdle(Lane lane) {
+        if (lane.mRunningCount == 0 && lane.mQueue.isEmpty()) {
+            mLanes.remove(lane.mPackageName, lane);
+        }
+    }
+
+    /** The tasks of an application. */
+    private static class Lane {
+        private final String mPackageName;
+        private final PriorityQueue<Request> mQueue = new PriorityQueue<>();
+        private int mRunningCount;
+
+        private Lane(String packageName) {
+            mPackageName = packageName;
+        }
+    }
+
+    /** A queued command, ordered by priority and generation. */
+    static class Request implements Comparable<Request> {
+        private final Runnable mCommand;
+        private final Lane mLane;
+        private Priority mPriority;
+        private long mGeneration;
+
+        private Request(Runnable command, Lane lane, Priority priority, long generation) {
+            mCommand = command;
+            mLane = lane;
+            mPriority = priority;
+            mGeneration = generation;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            int result = other.mPriority.compareTo(mPriority);
+            return result != 0 ? result : Long.compare(other.mGeneration, mGeneration);
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.apps.common.imaging;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded cache of fetched images on disk, so they don't have to be fetched and decoded
+ * again after the process restarted or the memory cache was trimmed.
+ *
+ * <p>The images are stored already downscaled to the size of their {@link ImageKey}, one file
+ * per key, and are evicted least recently used first. The order of use is kept in a journal,
+ * appended to on every access and compacted when it grows too long, which is replayed when the
+ * cache is opened. An image is written to a temporary file and then renamed, so a crash never
+ * leaves a partial image behind, and the files the journal doesn't account for are deleted when
+ * the cache is opened.
+ *
+ * <p>The cache is opened on first use, so it never touches the disk on the UI thread.
+ */
+class ImageDiskCache {
+
+    private static final String TAG = "ImageDiskCache";
+    private static final boolean L_WARN = Log.isLoggable(TAG, Log.WARN);
+    private static final boolean L_DEBUG = Log.isLoggable(TAG, Log.DEBUG);
+
+    private static final String JOURNAL = "journal";
+    private static final String JOURNAL_TMP = "journal.tmp";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String MAGIC = "car-apps-common.ImageDiskCache";
+    private static final String VERSION = "1";
+
+    private static final String CLEAN = "CLEAN";
+    private static final String READ = "READ";
+    private static final String REMOVE = "REMOVE";
+
+    /** The journal is compacted once it holds this many records more than there are entries. */
+    private static final int MAX_REDUNDANT_RECORDS = 2000;
+    private static final int JPEG_QUALITY = 95;
+
+    private final Context mContext;
+    private final String mDirectoryName;
+    private final long mMaxBytes;
+    private final long mMaxAgeMillis;
+    @Nullable
+    private final BitmapPool mBitmapPool;
+
+    /** The size of the image files by name, least recently used first. */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, 0.75f, true);
+    private File mDirectory;
+    private Writer mJournalWriter;
+    private int mJournalRecordCount;
+    private long mSizeBytes;
+    private boolean mIsOpened;
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * @param directoryName the directory of the cache, in the cache directory of the application.
+     * @param maxAgeMillis  how long an image is kept, so images which changed behind the same uri
+     *                      are eventually fetched again.
+     * @param bitmapPool    provides the bitmaps the images are read into, null to always allocate
+     *                      new ones.
+     */
+    ImageDiskCache(Context context, String directoryName, long maxBytes, long maxAgeMillis,
+            @Nullable BitmapPool bitmapPool) {
+        mContext = context.getApplicationContext();
+        mDirectoryName = directoryName;
+        mMaxBytes = maxBytes;
+        mMaxAgeMillis = maxAgeMillis;
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * Returns the image cached for the key, null if there is none. The image is a mutable bitmap,
+     * so it can be given back to the {@link BitmapPool} once nobody uses it anymore.
+     */
+    @WorkerThread
+    @Nullable
+    Bitmap get(ImageKey key) {
+        String name = getFileName(key);
+        File file;
+        synchronized (this) {
+            if (!ensureOpened() || mEntries.get(name) == null) {
+                mMissCount++;
+                return null;
+            }
+            file = new File(mDirectory, name);
+            if (System.currentTimeMillis() - file.lastModified() > mMaxAgeMillis) {
+                removeEntry(name);
+                mMissCount++;
+                return null;
+            }
+            appendRecord(READ + " " + name);
+        }
+
+        Bitmap bitmap = decode(file);
+        synchronized (this) {
+            if (bitmap == null) {
+                // Evicted meanwhile or unreadable.
+                removeEntry(name);
+                mMissCount++;
+            } else {
+                mHitCount++;
+            }
+        }
+        return bitmap;
+    }
+
+    /** Stores the image of the key, replacing the one cached before if any. */
+    @WorkerThread
+    void put(ImageKey key, Bitmap bitmap) {
+        synchronized (this) {
+            if (!ensureOpened()) {
+                return;
+            }
+        }
+        String name = getFileName(key);
+        // Concurrent writes of the same key don't share their temporary file.
+        File tmpFile = new File(mDirectory, name + "." + Thread.currentThread().getId()
+                + TMP_SUFFIX);
+        try {
+            try (FileOutputStream fileStream = new FileOutputStream(tmpFile);
+                 BufferedOutputStream stream = new BufferedOutputStream(fileStream)) {
+                boolean hasAlpha = bitmap.hasAlpha();
+                if (!bitmap.compress(hasAlpha ? Bitmap.CompressFormat.PNG
+                        : Bitmap.CompressFormat.JPEG, JPEG_QUALITY, stream)) {
+                    throw new IOException("Can't compress " + key);
+                }
+                stream.flush();
+                fileStream.getFD().sync();
+            }
+
+            synchronized (this) {
+                long size = tmpFile.length();
+                File file = new File(mDirectory, name);
+                if (size > mMaxBytes || !tmpFile.renameTo(file)) {
+                    tmpFile.delete();
+                    return;
+                }
+                Long oldSize = mEntries.put(name, size);
+                mSizeBytes += size - (oldSize != null ? oldSize : 0);
+                appendRecord(CLEAN + " " + name + " " + size);
+                trimToSize();
+            }
+        } catch (IOException e) {
+            tmpFile.delete();
+            if (L_WARN) {
+                Log.w(TAG, "Can't cache " + key + ": " + e);
+            }
+        }
+    }
+
+    /** Decodes the image of a file, into a pooled bitmap if one is large enough. */
+    @Nullable
+    private Bitmap decode(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        if (mBitmapPool != null) {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(file.getPath(), options);
+            options.inJustDecodeBounds = false;
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            // The images are decoded as ARGB_8888.
+            options.inBitmap = mBitmapPool.get(options.outWidth * options.outHeight * 4);
+            if (options.inBitmap != null) {
+                Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+                // The pooled bitmap couldn't be reused for this image, it is dropped.
+                options.inBitmap = null;
+            }
+        }
+        return BitmapFactory.decodeFile(file.getPath(), options);
+    }
+
+    /** Returns the number of images found in the cache. */
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of images which weren't in the cache. */
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /** Returns the number of bytes held by the cached images. */
+    synchronized long getSizeBytes() {
+        return mSizeBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ImageDiskCache{bytes=" + mSizeBytes + "/" + mMaxBytes + ", entries="
+                + mEntries.size() + ", hits=" + mHitCount + ", misses=" + mMissCount + "}";
+    }
+
+    /**
+     * Replays the journal the first time it is called. Returns false if the cache can't be used.
+     */
+    private boolean ensureOpened() {
+        if (!mIsOpened) {
+            mIsOpened = true;
+            mDirectory = new File(mContext.getCacheDir(), mDirectoryName);
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                Log.e(TAG, "Can't create " + mDirectory);
+                mDirectory = null;
+                return false;
+            }
+            readJournal();
+            deleteUnknownFiles();
+            rebuildJournal();
+            trimToSize();
+            if (L_DEBUG) {
+                Log.d(TAG, "Opened " + this);
+            }
+        }
+        return mDirectory != null;
+    }
+
+    /** Reads the entries from the journal, up to its first incomplete record if any. */
+    private void readJournal() {
+        File journal = new File(mDirectory, JOURNAL);
+        if (!journal.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(journal))) {
+            if (!MAGIC.equals(reader.readLine()) || !VERSION.equals(reader.readLine())) {
+                if (L_WARN) {
+                    Log.w(TAG, "Ignoring journal of another format");
+                }
+                return;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(" ");
+                if (parts.length == 3 && CLEAN.equals(parts[0])) {
+                    mEntries.put(parts[1], Long.parseLong(parts[2]));
+                } else if (parts.length == 2 && READ.equals(parts[0])) {
+                    mEntries.get(parts[1]);
+                } else if (parts.length == 2 && REMOVE.equals(parts[0])) {
+                    mEntries.remove(parts[1]);
+                } else {
+                    // Written partially before a crash.
+                    break;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            if (L_WARN) {
+                Log.w(TAG, "Can't read the whole journal: " + e);
+            }
+        }
+
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            File file = new File(mDirectory, entry.getKey());
+            if (file.length() != entry.getValue()) {
+                iterator.remove();
+            } else {
+                mSizeBytes += entry.getValue();
+            }
+        }
+    }
+
+    /** Deletes the temporary files and the images which aren't in the journal. */
+    private void deleteUnknownFiles() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!JOURNAL.equals(name) && !mEntries.containsKey(name)) {
+                file.delete();
+            }
+        }
+    }
+
+    /** Replaces the journal by one holding only the current entries. */
+    private void rebuildJournal() {
+        closeJournal();
+        File tmpJournal = new File(mDirectory, JOURNAL_TMP);
+        try {
+            try (Writer writer = new FileWriter(tmpJournal)) {
+                writer.write(MAGIC + "\n" + VERSION + "\n");
+                for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                    writer.write(CLEAN + " " + entry.getKey() + " " + entry.getValue() + "\n");
+                }
+            }
+            File journal = new File(mDirectory, JOURNAL);
+            if (!tmpJournal.renameTo(journal)) {
+                throw new IOException("Can't rename " + tmpJournal);
+            }
+            mJournalWriter = new FileWriter(journal, true);
+            mJournalRecordCount = mEntries.size();
+        } catch (IOException e) {
+            Log.e(TAG, "Can't write the journal, images won't be kept: " + e);
+            tmpJournal.delete();
+        }
+    }
+
+    private void appendRecord(String record) {
+        if (mJournalWriter == null) {
+            // The images written without a journal are deleted when the cache is opened again.
+            return;
+        }
+        try {
+            mJournalWriter.write(record + "\n");
+            mJournalWriter.flush();
+            mJournalRecordCount++;
+        } catch (IOException e) {
+            Log.e(TAG, "Can't append to the journal: " + e);
+            closeJournal();
+            return;
+        }
+        if (mJournalRecordCount - mEntries.size() > MAX_REDUNDANT_RECORDS) {
+            rebuildJournal();
+        }
+    }
+
+    private void closeJournal() {
+        if (mJournalWriter != null) {
+            try {
+                mJournalWriter.close();
+            } catch (IOException e) {
+                if (L_WARN) {
+                    Log.w(TAG, "Can't close the journal: " + e);
+                }
+            }
+            mJournalWriter = null;
+        }
+    }
+
+    private void trimToSize() {
+        while (mSizeBytes > mMaxBytes && !mEntries.isEmpty()) {
+            removeEntry(mEntries.keySet().iterator().next());
+        }
+    }
+
+    private void removeEntry(String name) {
+        Long size = mEntries.remove(name);
+        if (size != null) {
+            mSizeBytes -= size;
+            new File(mDirectory, name).delete();
+            appendRecord(REMOVE + " " + name);
+        }
+    }
+
+    /** Returns the name of the file of the key, a hash of its uri and size. */
+    @VisibleForTesting
+    static String getFileName(ImageKey key) {
+        String id = key.mImageUri + "|" + key.mMaxImageSize.getWidth() + "x"
+                + key.mMaxImageSize.getHeight();
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(id.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+}
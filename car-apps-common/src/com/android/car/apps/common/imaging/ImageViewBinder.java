@@ -116,6 +116,12 @@ public class ImageViewBinder<T extends ImageBinder.ImageRef> extends ImageBinder
         }
     }
 
+    /** The image view is cleared in {@link #prepareForNewBinding}. */
+    @Override
+    protected boolean releasesFetchedDrawables() {
+        return true;
+    }
+
     @Override
     protected void prepareForNewBinding(Context context) {
         mImageView.setImageBitmap(null);
@@ -28,33 +28,30 @@ import android.os.AsyncTask;
 import android.util.Log;
 import android.util.LruCache;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.UiThread;
 
 import com.android.car.apps.common.BitmapUtils;
 import com.android.car.apps.common.CommonFlags;
 import com.android.car.apps.common.R;
 import com.android.car.apps.common.UriUtils;
-import com.android.car.apps.common.util.CarAppsIOUtils;
+import com.android.car.apps.common.imaging.ImageBinder.Priority;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.net.URL;
-import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 
 
 /**
- * A singleton that fetches images and offers a simple memory cache. The requests and the replies
- * all happen on the UI thread.
+ * A singleton that fetches images and offers a simple memory cache, backed by a disk cache of the
+ * downscaled images (see {@link ImageDiskCache}). The requests and the replies all happen on the
+ * UI thread.
  */
 public class LocalImageFetcher {
 
@@ -65,6 +62,8 @@ public class LocalImageFetcher {
     private static final int KB = 1024;
     private static final int MB = KB * KB;
 
+    private static final String DISK_CACHE_DIRECTORY = "local_image_fetcher";
+
     /** Should not be reset to null once created. */
     private static LocalImageFetcher sInstance;
 
@@ -76,9 +75,10 @@ public class LocalImageFetcher {
         return sInstance;
     }
 
-    private final int mPoolSize;
+    private final ImageDecodeScheduler mScheduler;
 
-    private final LruCache<String, Executor> mThreadPools;
+    /** Incremented for every request, so the most recent requests are fetched first. */
+    private long mGeneration;
 
     private final Map<ImageKey, HashSet<BiConsumer<ImageKey, Drawable>>> mConsumers =
             new HashMap<>(20);
@@ -86,18 +86,40 @@ public class LocalImageFetcher {
 
     private final LruCache<ImageKey, Drawable> mMemoryCache;
 
+    /** Null if disabled. */
+    @Nullable
+    private final ImageDiskCache mDiskCache;
+
+    /** Null if disabled. */
+    @Nullable
+    private final BitmapPool mBitmapPool;
+
+    /**
+     * The number of references to the reusable bitmaps: one for the memory cache and one for each
+     * consumer which hasn't called {@link #releaseImage}. Weak, as most consumers never release
+     * their images.
+     */
+    private final WeakHashMap<Bitmap, Integer> mBitmapRefCounts = new WeakHashMap<>();
+
     private final boolean mFlagRemoteImages;
+    private final RemoteImageLoader mRemoteImageLoader;
 
     @UiThread
     private LocalImageFetcher(Context context) {
         Resources res = context.getResources();
-        int maxPools = res.getInteger(R.integer.image_fetcher_thread_pools_max_count);
-        mPoolSize = res.getInteger(R.integer.image_fetcher_thread_pool_size);
-        mThreadPools = new LruCache<>(maxPools);
+        mScheduler = new ImageDecodeScheduler(
+                res.getInteger(R.integer.image_fetcher_max_concurrent_decodes),
+                res.getInteger(R.integer.image_fetcher_max_concurrent_decodes_per_package));
 
         int cacheSizeMB = res.getInteger(R.integer.bitmap_memory_cache_max_size_mb);
         int drawableDefaultWeightKB = res.getInteger(R.integer.drawable_default_weight_kb);
         mMemoryCache = new LruCache<ImageKey, Drawable>(cacheSizeMB * MB) {
+            @Override
+            protected void entryRemoved(boolean evicted, ImageKey key, Drawable oldValue,
+                    Drawable newValue) {
+                release(oldValue);
+            }
+
             @Override
             protected int sizeOf(ImageKey key, Drawable drawable) {
                 if (drawable instanceof BitmapDrawable) {
@@ -110,23 +132,37 @@ public class LocalImageFetcher {
             }
         };
 
+        int bitmapPoolSizeMB = res.getInteger(R.integer.bitmap_pool_max_size_mb);
+        mBitmapPool = bitmapPoolSizeMB <= 0 ? null : new BitmapPool(bitmapPoolSizeMB * MB);
+
+        int diskCacheSizeMB = res.getInteger(R.integer.image_disk_cache_max_size_mb);
+        int diskCacheMaxAgeHours = res.getInteger(R.integer.image_disk_cache_max_age_hours);
+        mDiskCache = diskCacheSizeMB <= 0 ? null : new ImageDiskCache(context, DISK_CACHE_DIRECTORY,
+                (long) diskCacheSizeMB * MB, TimeUnit.HOURS.toMillis(diskCacheMaxAgeHours),
+                mBitmapPool);
+
         mFlagRemoteImages = CommonFlags.getInstance(context).shouldFlagImproperImageRefs();
+        mRemoteImageLoader = new RemoteImageLoader(
+                res.getInteger(R.integer.image_fetcher_remote_image_max_size_kb) * KB);
     }
 
-    private Executor getThreadPool(String packageName) {
-        Executor result = mThreadPools.get(packageName);
-        if (result == null) {
-            result = Executors.newFixedThreadPool(mPoolSize);
-            mThreadPools.put(packageName, result);
-        }
-        return result;
+    /** Fetches an image with {@link Priority#NORMAL}. The resulting drawable may be null. */
+    @UiThread
+    public void getImage(Context context, ImageKey key, BiConsumer<ImageKey, Drawable> consumer) {
+        getImage(context, key, consumer, Priority.NORMAL);
     }
 
-    /** Fetches an image. The resulting drawable may be null. */
+    /**
+     * Fetches an image. The resulting drawable may be null. If the image is already being fetched
+     * for another request, the fetch is moved up to this request's priority and recency.
+     */
     @UiThread
-    public void getImage(Context context, ImageKey key, BiConsumer<ImageKey, Drawable> consumer) {
+    public void getImage(Context context, ImageKey key, BiConsumer<ImageKey, Drawable> consumer,
+            Priority priority) {
+        long generation = ++mGeneration;
         Drawable cached = mMemoryCache.get(key);
         if (cached != null) {
+            retain(cached);
             consumer.accept(key, cached);
             return;
         }
@@ -146,15 +182,19 @@ public class LocalImageFetcher {
         if (task == null) {
             String packageName = UriUtils.getPackageName(context, key.mImageUri);
             if (packageName != null) {
-                task = new ImageLoadingTask(context, key, mFlagRemoteImages);
-                mTasks.put(key, task);
-                task.executeOnExecutor(getThreadPool(packageName));
+                ImageLoadingTask newTask = new ImageLoadingTask(context, key, mDiskCache,
+                        mFlagRemoteImages ? mRemoteImageLoader : null);
+                mTasks.put(key, newTask);
+                newTask.executeOnExecutor(command -> newTask.mRequest =
+                        mScheduler.schedule(command, packageName, priority, generation));
                 if (L_DEBUG) {
                     Log.d(TAG, "Added task " + key.mImageUri);
                 }
             } else {
                 Log.e(TAG, "No package for " + key.mImageUri);
             }
+        } else if (task.mRequest != null) {
+            mScheduler.reschedule(task.mRequest, priority, generation);
         }
     }
 
@@ -170,6 +210,9 @@ public class LocalImageFetcher {
                 ImageLoadingTask task = mTasks.remove(key);
                 if (task != null) {
                     task.cancel(true);
+                    if (task.mRequest != null) {
+                        mScheduler.remove(task.mRequest);
+                    }
                     if (L_DEBUG) {
                         Log.d(TAG, "Canceled task " + key.mImageUri);
                     }
@@ -192,17 +235,19 @@ public class LocalImageFetcher {
         ImageKey key = task.mImageKey;
         ImageLoadingTask pendingTask = mTasks.get(key);
         if (pendingTask == task) {
-            if (drawable != null) {
-                mMemoryCache.put(key, drawable);
-            }
-
             HashSet<BiConsumer<ImageKey, Drawable>> consumers = mConsumers.remove(key);
             mTasks.remove(key);
             if (consumers != null) {
                 for (BiConsumer<ImageKey, Drawable> consumer : consumers) {
+                    retain(drawable);
                     consumer.accept(key, drawable);
                 }
             }
+
+            if (drawable != null) {
+                retain(drawable);
+                mMemoryCache.put(key, drawable);
+            }
         } else if (L_WARN) {
             // This case would possible if a running task was canceled, a new one was restarted
             // right away for the same key, and the canceled task still managed to call
@@ -211,19 +256,78 @@ public class LocalImageFetcher {
         }
     }
 
+    /** Describes the state of the caches and of the running fetches, for monitoring. */
+    @Override
+    public String toString() {
+        return "LocalImageFetcher{memoryCache=" + mMemoryCache + ", diskCache=" + mDiskCache
+                + ", bitmapPool=" + mBitmapPool + ", scheduler=" + mScheduler + "}";
+    }
+
+    /**
+     * Tells that a consumer of {@link #getImage} doesn't use the drawable it received anymore, so
+     * its bitmap can be reused by later decodes once it is no longer in the memory cache either.
+     * Consumers which can't tell when they stop using their drawables simply never call this, and
+     * their bitmaps are never reused.
+     */
+    @UiThread
+    public void releaseImage(@Nullable Drawable drawable) {
+        release(drawable);
+    }
+
+    @UiThread
+    private void retain(@Nullable Drawable drawable) {
+        Bitmap bitmap = getReusableBitmap(drawable);
+        if (bitmap != null) {
+            Integer count = mBitmapRefCounts.get(bitmap);
+            mBitmapRefCounts.put(bitmap, count == null ? 1 : count + 1);
+        }
+    }
+
+    @UiThread
+    private void release(@Nullable Drawable drawable) {
+        Bitmap bitmap = getReusableBitmap(drawable);
+        Integer count = bitmap != null ? mBitmapRefCounts.get(bitmap) : null;
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mBitmapRefCounts.put(bitmap, count - 1);
+        } else {
+            mBitmapRefCounts.remove(bitmap);
+            mBitmapPool.put(bitmap);
+        }
+    }
+
+    /** Returns the bitmap of the drawable if it can go back to the pool, null otherwise. */
+    @Nullable
+    private Bitmap getReusableBitmap(@Nullable Drawable drawable) {
+        if (mBitmapPool == null || !(drawable instanceof BitmapDrawable)) {
+            return null;
+        }
+        Bitmap bitmap = ((BitmapDrawable) drawable).getBitmap();
+        return BitmapPool.isReusable(bitmap) ? bitmap : null;
+    }
 
     private static class ImageLoadingTask extends AsyncTask<Void, Void, Drawable> {
 
         private final WeakReference<Context> mWeakContext;
         private final ImageKey mImageKey;
-        private final boolean mFlagRemoteImages;
+        @Nullable
+        private final ImageDiskCache mDiskCache;
+        /** Null if remote images aren't loaded. */
+        @Nullable
+        private final RemoteImageLoader mRemoteImageLoader;
+        /** The request of the task in the {@link ImageDecodeScheduler}. */
+        private ImageDecodeScheduler.Request mRequest;
 
 
         @UiThread
-        ImageLoadingTask(Context context, ImageKey request, boolean flagRemoteImages) {
+        ImageLoadingTask(Context context, ImageKey request, @Nullable ImageDiskCache diskCache,
+                @Nullable RemoteImageLoader remoteImageLoader) {
             mWeakContext = new WeakReference<>(context.getApplicationContext());
             mImageKey = request;
-            mFlagRemoteImages = flagRemoteImages;
+            mDiskCache = diskCache;
+            mRemoteImageLoader = remoteImageLoader;
         }
 
         /** Runs in the background. */
@@ -262,24 +366,30 @@ public class LocalImageFetcher {
                     return UriUtils.getDrawable(context,
                             UriUtils.getIconResource(context, imageUri));
                 } else if (UriUtils.isContentUri(imageUri)) {
+                    Bitmap cached = mDiskCache != null ? mDiskCache.get(mImageKey) : null;
+                    if (cached != null) {
+                        return new BitmapDrawable(context.getResources(), cached);
+                    }
                     ContentResolver resolver = context.getContentResolver();
                     ImageDecoder.Source src = ImageDecoder.createSource(resolver, imageUri);
-                    return ImageDecoder.decodeDrawable(src, mOnHeaderDecodedListener);
-                } else if (mFlagRemoteImages) {
+                    Drawable drawable = ImageDecoder.decodeDrawable(src, mOnHeaderDecodedListener);
+                    // Animated images are not cached.
+                    if (mDiskCache != null && drawable instanceof BitmapDrawable) {
+                        mDiskCache.put(mImageKey, ((BitmapDrawable) drawable).getBitmap());
+                    }
+                    return drawable;
+                } else if (mRemoteImageLoader != null) {
                     mAllocatorMode = ImageDecoder.ALLOCATOR_SOFTWARE; // Needed for canvas drawing.
-                    URL url = new URL(imageUri.toString());
-
-                    try (InputStream is = new BufferedInputStream(url.openStream());
-                         ByteArrayOutputStream bytes = new ByteArrayOutputStream()) {
-
-                        CarAppsIOUtils.copy(is, bytes);
-                        ImageDecoder.Source src =
-                                ImageDecoder.createSource(ByteBuffer.wrap(bytes.toByteArray()));
-                        Bitmap decoded = ImageDecoder.decodeBitmap(src, mOnHeaderDecodedListener);
-                        Bitmap tinted = BitmapUtils.createTintedBitmap(decoded,
-                                context.getColor(R.color.improper_image_refs_tint_color));
-                        return new BitmapDrawable(context.getResources(), tinted);
+                    Bitmap decoded = mDiskCache != null ? mDiskCache.get(mImageKey) : null;
+                    if (decoded == null) {
+                        decoded = mRemoteImageLoader.load(imageUri, mOnHeaderDecodedListener);
+                        if (mDiskCache != null) {
+                            mDiskCache.put(mImageKey, decoded);
+                        }
                     }
+                    Bitmap tinted = BitmapUtils.createTintedBitmap(decoded,
+                            context.getColor(R.color.improper_image_refs_tint_color));
+                    return new BitmapDrawable(context.getResources(), tinted);
                 }
             } catch (IOException ioe) {
                 Log.e(TAG, "ImageLoadingTask#doInBackground: " + ioe);
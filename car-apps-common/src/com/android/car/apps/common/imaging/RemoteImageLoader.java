@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.apps.common.imaging;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageDecoder;
+import android.net.Uri;
+
+import androidx.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Downloads and decodes remote images.
+ *
+ * <p>The body is read straight into a buffer kept by each thread and decoded from it, instead of
+ * being copied through a {@link java.io.ByteArrayOutputStream} and then into a new array. The
+ * download stops as soon as the body exceeds its maximum size, or as soon as the header read from
+ * its first bytes shows an image with too many pixels to be worth decoding.
+ */
+class RemoteImageLoader {
+
+    private static final int TIMEOUT_MS = 15_000;
+    /** The number of bytes read before looking for the size of the image in its header. */
+    private static final int HEADER_SNIFF_BYTES = 16 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    /** Larger buffers are dropped after their image was decoded. */
+    private static final int MAX_KEPT_BUFFER_SIZE = 1024 * 1024;
+    /** Images larger than this are rejected, they would take too long to decode. */
+    private static final long MAX_PIXELS = 4096L * 4096L;
+
+    private static final ThreadLocal<byte[]> sBuffers = new ThreadLocal<>();
+
+    private final int mMaxBytes;
+
+    /** @param maxBytes the maximum size of the images downloaded. */
+    RemoteImageLoader(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /** Downloads the image and decodes it with the given listener. */
+    @WorkerThread
+    Bitmap load(Uri uri, ImageDecoder.OnHeaderDecodedListener listener) throws IOException {
+        byte[] buffer = sBuffers.get();
+        int length = 0;
+        boolean isHeaderChecked = false;
+        URLConnection connection = new URL(uri.toString()).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MS);
+            connection.setReadTimeout(TIMEOUT_MS);
+            long contentLength = connection.getContentLengthLong();
+            if (contentLength > mMaxBytes) {
+                throw new IOException("Image too large: " + contentLength + " bytes at " + uri);
+            }
+
+            // One more byte than announced, so reading the end of the body doesn't grow the buffer.
+            int expectedSize = contentLength > 0 ? (int) contentLength + 1 : INITIAL_BUFFER_SIZE;
+            if (buffer == null || buffer.length < expectedSize) {
+                buffer = new byte[expectedSize];
+            }
+            try (InputStream stream = connection.getInputStream()) {
+                while (true) {
+                    // The buffer reused from an earlier image may be larger than the maximum.
+                    int limit = Math.min(buffer.length, mMaxBytes);
+                    if (length == limit) {
+                        if (length == mMaxBytes) {
+                            if (stream.read() < 0) {
+                                break;
+                            }
+                            throw new IOException("Image larger than " + mMaxBytes
+                                    + " bytes at " + uri);
+                        }
+                        buffer = Arrays.copyOf(buffer, (int) Math.min(2L * length, mMaxBytes));
+                        limit = buffer.length;
+                    }
+                    int count = stream.read(buffer, length, limit - length);
+                    if (count < 0) {
+                        break;
+                    }
+                    length += count;
+                    if (!isHeaderChecked && length >= HEADER_SNIFF_BYTES) {
+                        isHeaderChecked = true;
+                        checkHeader(buffer, length, uri);
+                    }
+                }
+            }
+        } finally {
+            // Even when the download is aborted, the connection is open by then.
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+        if (!isHeaderChecked) {
+            checkHeader(buffer, length, uri);
+        }
+
+        try {
+            ImageDecoder.Source source =
+                    ImageDecoder.createSource(ByteBuffer.wrap(buffer, 0, length));
+            return ImageDecoder.decodeBitmap(source, listener);
+        } finally {
+            // The decode is done with the buffer, the next image of this thread can reuse it.
+            sBuffers.set(buffer.length <= MAX_KEPT_BUFFER_SIZE ? buffer : null);
+        }
+    }
+
+    /** Rejects the image if the header found in its first bytes shows too many pixels. */
+    private static void checkHeader(byte[] buffer, int length, Uri uri) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(buffer, 0, length, options);
+        // The size is unknown if the header doesn't fit in the first bytes, the decode checks it.
+        if ((long) options.outWidth * options.outHeight > MAX_PIXELS) {
+            throw new IOException("Image too large: " + options.outWidth + "x"
+                    + options.outHeight + " at " + uri);
+        }
+    }
+}
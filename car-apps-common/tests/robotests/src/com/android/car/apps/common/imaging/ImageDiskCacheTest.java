@@ -0,0 +1,210 @@
+/*
+ * Copyright 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.apps.common.imaging;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Size;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class ImageDiskCacheTest {
+
+    private static final String DIRECTORY = "test_images";
+    private static final long MAX_BYTES = 1024 * 1024;
+    private static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final ImageKey mKey1 = createKey(1);
+    private final ImageKey mKey2 = createKey(2);
+    private final ImageKey mKey3 = createKey(3);
+    private File mDirectory;
+    private Bitmap mBitmap;
+    /** The bytes {@link ImageDiskCache#put} writes for {@link #mBitmap}. */
+    private byte[] mCompressedBitmap;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(application.getCacheDir(), DIRECTORY);
+        deleteRecursively(mDirectory);
+        mDirectory.mkdirs();
+        mBitmap = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        mBitmap.compress(Bitmap.CompressFormat.PNG, 95, stream);
+        mCompressedBitmap = stream.toByteArray();
+    }
+
+    @Test
+    public void put_imageSurvivesReopening() {
+        createCache(MAX_BYTES).put(mKey1, mBitmap);
+
+        ImageDiskCache cache = createCache(MAX_BYTES);
+
+        assertThat(cache.get(mKey1)).isNotNull();
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.get(mKey2)).isNull();
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void open_truncatedLastRecord_keepsCompleteRecords() throws IOException {
+        writeFile("a", 10);
+        writeFile("b", 20);
+        writeFile("c", 5);
+        // The write of the last record was interrupted by a crash.
+        writeJournal("CLEAN a 10", "CLEAN b 20", "CLE");
+
+        ImageDiskCache cache = open(MAX_BYTES);
+
+        assertThat(cache.getSizeBytes()).isEqualTo(30);
+        assertThat(new File(mDirectory, "a").exists()).isTrue();
+        assertThat(new File(mDirectory, "b").exists()).isTrue();
+        assertThat(new File(mDirectory, "c").exists()).isFalse();
+    }
+
+    @Test
+    public void open_missingOrResizedFile_dropsEntry() throws IOException {
+        writeFile("a", 10);
+        writeFile("b", 7);
+        writeJournal("CLEAN a 10", "CLEAN b 20", "CLEAN c 5");
+
+        ImageDiskCache cache = open(MAX_BYTES);
+
+        assertThat(cache.getSizeBytes()).isEqualTo(10);
+        assertThat(new File(mDirectory, "a").exists()).isTrue();
+        assertThat(new File(mDirectory, "b").exists()).isFalse();
+    }
+
+    @Test
+    public void open_deletesLeftoverTmpFiles() throws IOException {
+        writeFile("a", 10);
+        writeFile("a.42.tmp", 10);
+        writeFile("journal.tmp", 10);
+        writeJournal("CLEAN a 10");
+
+        open(MAX_BYTES);
+
+        assertThat(mDirectory.list()).asList().containsExactly("a", "journal");
+    }
+
+    @Test
+    public void open_overBudget_trimsInJournalOrder() throws IOException {
+        writeFile("a", 20);
+        writeFile("b", 20);
+        writeFile("c", 20);
+        writeJournal("CLEAN a 20", "CLEAN b 20", "CLEAN c 20", "READ a");
+
+        ImageDiskCache cache = open(50);
+
+        assertThat(cache.getSizeBytes()).isEqualTo(40);
+        assertThat(new File(mDirectory, "b").exists()).isFalse();
+        assertThat(new File(mDirectory, "a").exists()).isTrue();
+        assertThat(new File(mDirectory, "c").exists()).isTrue();
+    }
+
+    @Test
+    public void put_overBudget_evictsLeastRecentlyUsed() throws IOException {
+        int size = mCompressedBitmap.length;
+        String name1 = ImageDiskCache.getFileName(mKey1);
+        String name2 = ImageDiskCache.getFileName(mKey2);
+        String name3 = ImageDiskCache.getFileName(mKey3);
+        writeFile(name1, mCompressedBitmap);
+        writeFile(name2, mCompressedBitmap);
+        writeJournal("CLEAN " + name1 + " " + size, "CLEAN " + name2 + " " + size);
+        ImageDiskCache cache = createCache(2 * size + size / 2);
+
+        assertThat(cache.get(mKey1)).isNotNull();
+        cache.put(mKey3, mBitmap);
+
+        assertThat(cache.getSizeBytes()).isEqualTo(2 * size);
+        assertThat(new File(mDirectory, name1).exists()).isTrue();
+        assertThat(new File(mDirectory, name2).exists()).isFalse();
+        assertThat(new File(mDirectory, name3).exists()).isTrue();
+    }
+
+    @Test
+    public void get_pastMaxAge_removesImage() {
+        ImageDiskCache cache = createCache(MAX_BYTES);
+        cache.put(mKey1, mBitmap);
+        File file = new File(mDirectory, ImageDiskCache.getFileName(mKey1));
+        file.setLastModified(System.currentTimeMillis() - MAX_AGE_MILLIS - 60_000);
+
+        assertThat(cache.get(mKey1)).isNull();
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getSizeBytes()).isEqualTo(0);
+        assertThat(file.exists()).isFalse();
+    }
+
+    private static ImageKey createKey(int id) {
+        return new ImageKey(Uri.parse("content://images/" + id), new Size(100, 100));
+    }
+
+    private ImageDiskCache createCache(long maxBytes) {
+        return new ImageDiskCache(application, DIRECTORY, maxBytes, MAX_AGE_MILLIS, null);
+    }
+
+    /** Creates a cache and opens it, which happens on first use. */
+    private ImageDiskCache open(long maxBytes) {
+        ImageDiskCache cache = createCache(maxBytes);
+        assertThat(cache.get(createKey(100))).isNull();
+        return cache;
+    }
+
+    private void writeJournal(String... records) throws IOException {
+        try (Writer writer = new FileWriter(new File(mDirectory, "journal"))) {
+            writer.write("car-apps-common.ImageDiskCache\n1\n");
+            for (String record : records) {
+                writer.write(record + "\n");
+            }
+        }
+    }
+
+    private void writeFile(String name, int size) throws IOException {
+        writeFile(name, new byte[size]);
+    }
+
+    private void writeFile(String name, byte[] content) throws IOException {
+        try (FileOutputStream stream = new FileOutputStream(new File(mDirectory, name))) {
+            stream.write(content);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
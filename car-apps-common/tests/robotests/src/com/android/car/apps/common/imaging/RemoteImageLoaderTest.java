@@ -0,0 +1,157 @@
+/*
+ * Copyright 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.apps.common.imaging;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+
+import android.graphics.Bitmap;
+import android.graphics.ImageDecoder;
+import android.net.Uri;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+
+/** Serves the images from a local HTTP server running in the test process. */
+@RunWith(RobolectricTestRunner.class)
+public class RemoteImageLoaderTest {
+
+    private static final int MAX_BYTES = 64 * 1024;
+    private static final int WIDTH = 20;
+    private static final int HEIGHT = 10;
+    private static final ImageDecoder.OnHeaderDecodedListener LISTENER =
+            (decoder, info, source) -> { };
+
+    private HttpServer mServer;
+    private RemoteImageLoader mLoader;
+    private byte[] mPng;
+
+    @Before
+    public void setUp() throws IOException {
+        mPng = createPng(WIDTH, HEIGHT);
+        byte[] tooLong = Arrays.copyOf(mPng, 2 * MAX_BYTES);
+        // Claims 5000x5000 pixels, followed by more bytes than are read before the header check.
+        byte[] hugeHeader = Arrays.copyOf(setPngSize(createPng(1, 1), 5000, 5000), MAX_BYTES - 1);
+
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/image", exchange -> respond(exchange, mPng, false));
+        mServer.createContext("/content-length", exchange -> respond(exchange, tooLong, false));
+        mServer.createContext("/chunked", exchange -> respond(exchange, tooLong, true));
+        mServer.createContext("/huge-header", exchange -> respond(exchange, hugeHeader, true));
+        mServer.start();
+        mLoader = new RemoteImageLoader(MAX_BYTES);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void load_decodesImage() throws IOException {
+        Bitmap bitmap = mLoader.load(getUri("/image"), LISTENER);
+
+        assertThat(bitmap).isNotNull();
+        assertThat(bitmap.getWidth()).isEqualTo(WIDTH);
+        assertThat(bitmap.getHeight()).isEqualTo(HEIGHT);
+    }
+
+    @Test(expected = IOException.class)
+    public void load_contentLengthOverMax_throws() throws IOException {
+        mLoader.load(getUri("/content-length"), LISTENER);
+    }
+
+    @Test(expected = IOException.class)
+    public void load_chunkedBodyOverMax_throws() throws IOException {
+        mLoader.load(getUri("/chunked"), LISTENER);
+    }
+
+    @Test(expected = IOException.class)
+    public void load_tooManyPixelsInHeader_throws() throws IOException {
+        mLoader.load(getUri("/huge-header"), LISTENER);
+    }
+
+    @Test
+    public void load_reusedBufferLargerThanMax_chunkedBodyOverMax_throws() throws IOException {
+        // Leaves a buffer larger than the maximum of mLoader on this thread.
+        assertThat(new RemoteImageLoader(4 * MAX_BYTES).load(getUri("/content-length"), LISTENER))
+                .isNotNull();
+
+        assertThrows(IOException.class, () -> mLoader.load(getUri("/chunked"), LISTENER));
+    }
+
+    private Uri getUri(String path) {
+        return Uri.parse("http://" + mServer.getAddress().getHostString() + ":"
+                + mServer.getAddress().getPort() + path);
+    }
+
+    /** Sends the body with a Content-Length, or chunked without one. */
+    private static void respond(HttpExchange exchange, byte[] body, boolean isChunked)
+            throws IOException {
+        try (OutputStream stream = exchange.getResponseBody()) {
+            exchange.sendResponseHeaders(200, isChunked ? 0 : body.length);
+            stream.write(body);
+        } catch (IOException e) {
+            // The loader closed the connection before the whole body was sent.
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] createPng(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", stream);
+        return stream.toByteArray();
+    }
+
+    /** Rewrites the size in the IHDR chunk of a PNG, along with the checksum of the chunk. */
+    private static byte[] setPngSize(byte[] png, int width, int height) {
+        // The IHDR chunk follows the 8 byte signature: length, type, width, height, ..., CRC.
+        writeInt(png, 16, width);
+        writeInt(png, 20, height);
+        CRC32 crc = new CRC32();
+        crc.update(png, 12, 17);
+        writeInt(png, 29, (int) crc.getValue());
+        return png;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
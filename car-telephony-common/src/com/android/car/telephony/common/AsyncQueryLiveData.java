@@ -51,10 +51,28 @@ public abstract class AsyncQueryLiveData<T> extends LiveData<T> {
 
     public AsyncQueryLiveData(Context context, QueryParam.Provider provider,
             ExecutorService executorService) {
-        mObservableAsyncQuery = new ObservableAsyncQuery(context, provider, this::onCursorLoaded);
+        this(context, provider, executorService, RequeryPolicy.IMMEDIATE);
+    }
+
+    /**
+     * @param requeryPolicy decides when to query again after the data changed, see {@link
+     *                      RequeryPolicy}.
+     */
+    public AsyncQueryLiveData(Context context, QueryParam.Provider provider,
+            ExecutorService executorService, RequeryPolicy requeryPolicy) {
+        mObservableAsyncQuery = new ObservableAsyncQuery(context, provider, requeryPolicy,
+                this::onCursorLoaded);
         mExecutorService = executorService;
     }
 
+    /**
+     * Returns the number of data changes which have not triggered a query of their own. See
+     * {@link ObservableAsyncQuery#getSavedQueryCount()}.
+     */
+    public long getSavedQueryCount() {
+        return mObservableAsyncQuery.getSavedQueryCount();
+    }
+
     @Override
     protected void onActive() {
         super.onActive();
@@ -77,6 +95,20 @@ public abstract class AsyncQueryLiveData<T> extends LiveData<T> {
     @WorkerThread
     protected abstract T convertToEntity(@NonNull Cursor cursor);
 
+    /**
+     * Called on the worker thread once a cursor has been converted. Posts the entity unless a
+     * newer cursor has been loaded meanwhile. Override if converting a cursor has side effects
+     * which must always be published.
+     *
+     * @param isCurrent false if the entity is stale because a newer cursor has been loaded.
+     */
+    @WorkerThread
+    protected void onEntityConverted(@Nullable T entity, boolean isCurrent) {
+        if (isCurrent) {
+            postValue(entity);
+        }
+    }
+
     private void onCursorLoaded(Cursor cursor) {
         L.d(TAG, "onCursorLoaded: " + this);
         if (mCurrentCursorRunnable != null) {
@@ -102,9 +134,7 @@ public abstract class AsyncQueryLiveData<T> extends LiveData<T> {
             // cursor is not current.
             if (mIsActive) {
                 T entity = mCursor == null ? null : convertToEntity(mCursor);
-                if (mIsActive) {
-                    postValue(entity);
-                }
+                onEntityConverted(entity, mIsActive);
             }
             closeCursorIfNecessary();
         }
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import android.net.Uri;
+import android.os.BadParcelableException;
+import android.os.Parcel;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Helpers for the parcel format of {@link Contact}, {@link PhoneNumber}, {@link PostalAddress} and
+ * {@link I18nPhoneNumberWrapper}.
+ *
+ * <p>Every top level parcelable starts with a version, and the entries it contains are written
+ * inline, field by field, instead of with {@link Parcel#writeParcelable} which writes the class
+ * name of every entry and looks the class up again when reading it. Fields added later must be
+ * appended and only read from parcels whose version has them.
+ */
+final class CompactParcels {
+    /** The version of the parcel format written. */
+    static final int VERSION = 1;
+
+    private CompactParcels() {
+    }
+
+    /** Writes the version of the parcel format, before the fields of a top level parcelable. */
+    static void writeVersion(Parcel dest) {
+        dest.writeInt(VERSION);
+    }
+
+    /**
+     * Reads the version written by {@link #writeVersion}. Throws if the parcel has been written by
+     * a newer format this one can't read.
+     */
+    static int readVersion(Parcel source, String type) {
+        int version = source.readInt();
+        if (version < 1 || version > VERSION) {
+            throw new BadParcelableException("Unsupported " + type + " parcel version " + version);
+        }
+        return version;
+    }
+
+    static void writeUri(Parcel dest, @Nullable Uri uri) {
+        dest.writeString(uri == null ? null : uri.toString());
+    }
+
+    @Nullable
+    static Uri readUri(Parcel source) {
+        String uri = source.readString();
+        return uri == null ? null : Uri.parse(uri);
+    }
+}
@@ -18,6 +18,7 @@ package com.android.car.telephony.common;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.icu.text.CollationKey;
 import android.icu.text.Collator;
 import android.net.Uri;
 import android.os.Parcel;
@@ -30,8 +31,12 @@ import androidx.annotation.Nullable;
 
 import com.android.car.apps.common.log.L;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Encapsulates data about a phone Contact entry. Typically loaded from the local Contact store.
@@ -62,6 +67,9 @@ public class Contact implements Parcelable, Comparable<Contact> {
      */
     private static final int TYPE_OTHER = 3;
 
+    /** The collator of the default locale, recreated when the default locale changes. */
+    private static volatile LocaleCollator sLocaleCollator;
+
     /**
      * A reference to the {@link ContactsContract.RawContacts#CONTACT_ID}.
      */
@@ -204,6 +212,12 @@ public class Contact implements Parcelable, Comparable<Contact> {
      */
     private final List<PostalAddress> mPostalAddresses = new ArrayList<>();
 
+    /**
+     * The collation keys of {@link #mSortKeyPrimary} and {@link #mSortKeyAlt}, built on first use
+     * and rebuilt when the default locale changes.
+     */
+    private volatile CollationKeys mCollationKeys;
+
     /**
      * Parses a contact entry for a Cursor loaded from the Contact Database. A new contact will be
      * created and returned.
@@ -222,36 +236,44 @@ public class Contact implements Parcelable, Comparable<Contact> {
      *                returned.
      */
     public static Contact fromCursor(Context context, Cursor cursor, @Nullable Contact contact) {
-        int accountNameColumn = cursor.getColumnIndex(ContactsContract.RawContacts.ACCOUNT_NAME);
-        int lookupKeyColumn = cursor.getColumnIndex(ContactsContract.Data.LOOKUP_KEY);
-        String accountName = cursor.getString(accountNameColumn);
-        String lookupKey = cursor.getString(lookupKeyColumn);
+        return fromCursor(context, new ProjectionBinder(cursor), contact);
+    }
+
+    /**
+     * Parses a contact entry for the current row of a cursor. Loading all the rows of a cursor
+     * with the same {@link ProjectionBinder} resolves the column indices only once.
+     *
+     * @see #fromCursor(Context, Cursor, Contact)
+     */
+    static Contact fromCursor(Context context, ProjectionBinder binder,
+            @Nullable Contact contact) {
+        String accountName = binder.getString(ContactsContract.RawContacts.ACCOUNT_NAME);
+        String lookupKey = binder.getString(ContactsContract.Data.LOOKUP_KEY);
 
         if (contact == null) {
             contact = new Contact();
-            contact.loadBasicInfo(cursor);
+            contact.loadBasicInfo(binder);
         }
 
         if (!TextUtils.equals(accountName, contact.mAccountName)
                 || !TextUtils.equals(lookupKey, contact.mLookupKey)) {
             L.w(TAG, "A wrong contact is passed in. A new contact will be created.");
             contact = new Contact();
-            contact.loadBasicInfo(cursor);
+            contact.loadBasicInfo(binder);
         }
 
-        int mimetypeColumn = cursor.getColumnIndex(ContactsContract.Data.MIMETYPE);
-        String mimeType = cursor.getString(mimetypeColumn);
+        String mimeType = binder.getString(ContactsContract.Data.MIMETYPE);
 
         // More mimeType can be added here if more types of data needs to be loaded.
         switch (mimeType) {
             case ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE:
-                contact.loadNameDetails(cursor);
+                contact.loadNameDetails(binder);
                 break;
             case ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE:
-                contact.addPhoneNumber(context, cursor);
+                contact.addPhoneNumber(context, binder);
                 break;
             case ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE:
-                contact.addPostalAddress(cursor);
+                contact.addPostalAddress(binder);
                 break;
             default:
                 L.d(TAG, String.format("This mimetype %s will not be loaded right now.", mimeType));
@@ -264,68 +286,45 @@ public class Contact implements Parcelable, Comparable<Contact> {
      * The data columns that are the same in every cursor no matter what the mimetype is will be
      * loaded here.
      */
-    private void loadBasicInfo(Cursor cursor) {
-        int contactIdColumn = cursor.getColumnIndex(ContactsContract.RawContacts.CONTACT_ID);
-        int rawContactIdColumn = cursor.getColumnIndex(ContactsContract.Data.RAW_CONTACT_ID);
-        int accountNameColumn = cursor.getColumnIndex(ContactsContract.RawContacts.ACCOUNT_NAME);
-        int displayNameColumn = cursor.getColumnIndex(ContactsContract.Data.DISPLAY_NAME);
-        int displayNameAltColumn = cursor.getColumnIndex(
-                ContactsContract.RawContacts.DISPLAY_NAME_ALTERNATIVE);
-        int phoneBookLabelColumn = cursor.getColumnIndex(PHONEBOOK_LABEL);
-        int phoneBookLabelAltColumn = cursor.getColumnIndex(PHONEBOOK_LABEL_ALT);
-        int sortKeyPrimaryColumn = cursor.getColumnIndex(
-                ContactsContract.RawContacts.SORT_KEY_PRIMARY);
-        int sortKeyAltColumn = cursor.getColumnIndex(
-                ContactsContract.RawContacts.SORT_KEY_ALTERNATIVE);
-        int lookupKeyColumn = cursor.getColumnIndex(ContactsContract.Data.LOOKUP_KEY);
-
-        int avatarUriColumn = cursor.getColumnIndex(ContactsContract.Data.PHOTO_URI);
-        int avatarThumbnailColumn = cursor.getColumnIndex(
-                ContactsContract.Data.PHOTO_THUMBNAIL_URI);
-        int starredColumn = cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.STARRED);
-        int pinnedColumn = cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.PINNED);
-
-        mContactId = cursor.getLong(contactIdColumn);
-        mRawContactId = cursor.getLong(rawContactIdColumn);
-        mAccountName = cursor.getString(accountNameColumn);
-        mDisplayName = cursor.getString(displayNameColumn);
-        mDisplayNameAlt = cursor.getString(displayNameAltColumn);
-        mSortKeyPrimary = cursor.getString(sortKeyPrimaryColumn);
-        mSortKeyAlt = cursor.getString(sortKeyAltColumn);
-        mPhoneBookLabel = cursor.getString(phoneBookLabelColumn);
-        mPhoneBookLabelAlt = cursor.getString(phoneBookLabelAltColumn);
-        mLookupKey = cursor.getString(lookupKeyColumn);
-
-        String avatarUriStr = cursor.getString(avatarUriColumn);
+    private void loadBasicInfo(ProjectionBinder binder) {
+        mContactId = binder.getLong(ContactsContract.RawContacts.CONTACT_ID);
+        mRawContactId = binder.getLong(ContactsContract.Data.RAW_CONTACT_ID);
+        mAccountName = binder.getString(ContactsContract.RawContacts.ACCOUNT_NAME);
+        mDisplayName = binder.getString(ContactsContract.Data.DISPLAY_NAME);
+        mDisplayNameAlt = binder.getString(ContactsContract.RawContacts.DISPLAY_NAME_ALTERNATIVE);
+        mSortKeyPrimary = binder.getString(ContactsContract.RawContacts.SORT_KEY_PRIMARY);
+        mSortKeyAlt = binder.getString(ContactsContract.RawContacts.SORT_KEY_ALTERNATIVE);
+        mPhoneBookLabel = binder.getString(PHONEBOOK_LABEL);
+        mPhoneBookLabelAlt = binder.getString(PHONEBOOK_LABEL_ALT);
+        mLookupKey = binder.getString(ContactsContract.Data.LOOKUP_KEY);
+
+        String avatarUriStr = binder.getString(ContactsContract.Data.PHOTO_URI);
         mAvatarUri = avatarUriStr == null ? null : Uri.parse(avatarUriStr);
-        String avatarThumbnailStringUri = cursor.getString(avatarThumbnailColumn);
+        String avatarThumbnailStringUri = binder.getString(
+                ContactsContract.Data.PHOTO_THUMBNAIL_URI);
         mAvatarThumbnailUri = avatarThumbnailStringUri == null ? null : Uri.parse(
                 avatarThumbnailStringUri);
 
-        mIsStarred = cursor.getInt(starredColumn) > 0;
-        mPinnedPosition = cursor.getInt(pinnedColumn);
+        mIsStarred = binder.getInt(ContactsContract.CommonDataKinds.Phone.STARRED) > 0;
+        mPinnedPosition = binder.getInt(ContactsContract.CommonDataKinds.Phone.PINNED);
     }
 
     /**
      * Loads the data whose mimetype is
      * {@link ContactsContract.CommonDataKinds.StructuredName#CONTENT_ITEM_TYPE}.
      */
-    private void loadNameDetails(Cursor cursor) {
-        int firstNameColumn = cursor.getColumnIndex(
-                ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME);
-        int lastNameColumn = cursor.getColumnIndex(
+    private void loadNameDetails(ProjectionBinder binder) {
+        mGivenName = binder.getString(ContactsContract.CommonDataKinds.StructuredName.GIVEN_NAME);
+        mFamilyName = binder.getString(
                 ContactsContract.CommonDataKinds.StructuredName.FAMILY_NAME);
-
-        mGivenName = cursor.getString(firstNameColumn);
-        mFamilyName = cursor.getString(lastNameColumn);
     }
 
     /**
      * Loads the data whose mimetype is
      * {@link ContactsContract.CommonDataKinds.Phone#CONTENT_ITEM_TYPE}.
      */
-    private void addPhoneNumber(Context context, Cursor cursor) {
-        PhoneNumber newNumber = PhoneNumber.fromCursor(context, cursor);
+    private void addPhoneNumber(Context context, ProjectionBinder binder) {
+        PhoneNumber newNumber = PhoneNumber.fromCursor(context, binder);
 
         boolean hasSameNumber = false;
         for (PhoneNumber number : mPhoneNumbers) {
@@ -353,8 +352,8 @@ public class Contact implements Parcelable, Comparable<Contact> {
      * Loads the data whose mimetype is
      * {@link ContactsContract.CommonDataKinds.StructuredPostal#CONTENT_ITEM_TYPE}.
      */
-    private void addPostalAddress(Cursor cursor) {
-        PostalAddress newAddress = PostalAddress.fromCursor(cursor);
+    private void addPostalAddress(ProjectionBinder binder) {
+        PostalAddress newAddress = PostalAddress.fromCursor(binder);
 
         if (!mPostalAddresses.contains(newAddress)) {
             mPostalAddresses.add(newAddress);
@@ -474,6 +473,20 @@ public class Contact implements Parcelable, Comparable<Contact> {
         return mPhoneBookLabelAlt;
     }
 
+    /**
+     * Returns {@link #mSortKeyPrimary}.
+     */
+    String getSortKeyPrimary() {
+        return mSortKeyPrimary;
+    }
+
+    /**
+     * Returns {@link #mSortKeyAlt}.
+     */
+    String getSortKeyAlt() {
+        return mSortKeyAlt;
+    }
+
     /**
      * Returns {@link #mLookupKey}.
      */
@@ -562,31 +575,48 @@ public class Contact implements Parcelable, Comparable<Contact> {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
+        CompactParcels.writeVersion(dest);
         dest.writeLong(mContactId);
         dest.writeLong(mRawContactId);
         dest.writeString(mLookupKey);
         dest.writeString(mAccountName);
         dest.writeString(mDisplayName);
         dest.writeString(mDisplayNameAlt);
+        dest.writeString(mGivenName);
+        dest.writeString(mFamilyName);
         dest.writeString(mSortKeyPrimary);
         dest.writeString(mSortKeyAlt);
         dest.writeString(mPhoneBookLabel);
         dest.writeString(mPhoneBookLabelAlt);
-        dest.writeParcelable(mAvatarThumbnailUri, 0);
-        dest.writeParcelable(mAvatarUri, 0);
+        CompactParcels.writeUri(dest, mAvatarThumbnailUri);
+        CompactParcels.writeUri(dest, mAvatarUri);
         dest.writeBoolean(mIsStarred);
         dest.writeInt(mPinnedPosition);
-
         dest.writeBoolean(mIsVoiceMail);
-        dest.writeParcelable(mPrimaryPhoneNumber, flags);
+
         dest.writeInt(mPhoneNumbers.size());
         for (PhoneNumber phoneNumber : mPhoneNumbers) {
-            dest.writeParcelable(phoneNumber, flags);
+            phoneNumber.writeFieldsToParcel(dest, mAccountName);
+        }
+        // The primary phone number is usually one of the phone numbers, write its index instead.
+        int primaryIndex = -1;
+        for (int i = 0; i < mPhoneNumbers.size(); i++) {
+            if (mPhoneNumbers.get(i) == mPrimaryPhoneNumber) {
+                primaryIndex = i;
+                break;
+            }
+        }
+        dest.writeInt(primaryIndex);
+        if (primaryIndex < 0) {
+            dest.writeBoolean(mPrimaryPhoneNumber != null);
+            if (mPrimaryPhoneNumber != null) {
+                mPrimaryPhoneNumber.writeFieldsToParcel(dest, mAccountName);
+            }
         }
 
         dest.writeInt(mPostalAddresses.size());
         for (PostalAddress postalAddress : mPostalAddresses) {
-            dest.writeParcelable(postalAddress, flags);
+            postalAddress.writeFieldsToParcel(dest);
         }
     }
 
@@ -606,6 +636,7 @@ public class Contact implements Parcelable, Comparable<Contact> {
      * Create {@link Contact} object from saved parcelable.
      */
     private static Contact fromParcel(Parcel source) {
+        CompactParcels.readVersion(source, "Contact");
         Contact contact = new Contact();
         contact.mContactId = source.readLong();
         contact.mRawContactId = source.readLong();
@@ -613,32 +644,109 @@ public class Contact implements Parcelable, Comparable<Contact> {
         contact.mAccountName = source.readString();
         contact.mDisplayName = source.readString();
         contact.mDisplayNameAlt = source.readString();
+        contact.mGivenName = source.readString();
+        contact.mFamilyName = source.readString();
         contact.mSortKeyPrimary = source.readString();
         contact.mSortKeyAlt = source.readString();
         contact.mPhoneBookLabel = source.readString();
         contact.mPhoneBookLabelAlt = source.readString();
-        contact.mAvatarThumbnailUri = source.readParcelable(Uri.class.getClassLoader());
-        contact.mAvatarUri = source.readParcelable(Uri.class.getClassLoader());
+        contact.mAvatarThumbnailUri = CompactParcels.readUri(source);
+        contact.mAvatarUri = CompactParcels.readUri(source);
         contact.mIsStarred = source.readBoolean();
         contact.mPinnedPosition = source.readInt();
-
         contact.mIsVoiceMail = source.readBoolean();
-        contact.mPrimaryPhoneNumber = source.readParcelable(PhoneNumber.class.getClassLoader());
-        int phoneNumberListLength = source.readInt();
-        for (int i = 0; i < phoneNumberListLength; i++) {
-            PhoneNumber phoneNumber = source.readParcelable(PhoneNumber.class.getClassLoader());
-            contact.mPhoneNumbers.add(phoneNumber);
-            if (phoneNumber.isPrimary()) {
-                contact.mPrimaryPhoneNumber = phoneNumber;
-            }
+
+        int phoneNumberCount = source.readInt();
+        for (int i = 0; i < phoneNumberCount; i++) {
+            contact.mPhoneNumbers.add(
+                    PhoneNumber.readFieldsFromParcel(source, contact.mAccountName));
+        }
+        int primaryIndex = source.readInt();
+        if (primaryIndex >= 0) {
+            contact.mPrimaryPhoneNumber = contact.mPhoneNumbers.get(primaryIndex);
+        } else if (source.readBoolean()) {
+            contact.mPrimaryPhoneNumber = PhoneNumber.readFieldsFromParcel(source,
+                    contact.mAccountName);
         }
 
-        int postalAddressListLength = source.readInt();
-        for (int i = 0; i < postalAddressListLength; i++) {
-            PostalAddress address = source.readParcelable(PostalAddress.class.getClassLoader());
-            contact.mPostalAddresses.add(address);
+        int postalAddressCount = source.readInt();
+        for (int i = 0; i < postalAddressCount; i++) {
+            contact.mPostalAddresses.add(PostalAddress.readFieldsFromParcel(source));
+        }
+
+        return contact;
+    }
+
+    /** Writes this contact to a {@link PhoneBookSnapshotStore snapshot}. */
+    void writeToSnapshot(DataOutputStream out) throws IOException {
+        out.writeLong(mContactId);
+        out.writeLong(mRawContactId);
+        PhoneBookSnapshotStore.writeString(out, mLookupKey);
+        PhoneBookSnapshotStore.writeString(out, mAccountName);
+        PhoneBookSnapshotStore.writeString(out, mDisplayName);
+        PhoneBookSnapshotStore.writeString(out, mDisplayNameAlt);
+        PhoneBookSnapshotStore.writeString(out, mGivenName);
+        PhoneBookSnapshotStore.writeString(out, mFamilyName);
+        PhoneBookSnapshotStore.writeString(out, mSortKeyPrimary);
+        PhoneBookSnapshotStore.writeString(out, mSortKeyAlt);
+        PhoneBookSnapshotStore.writeString(out, mPhoneBookLabel);
+        PhoneBookSnapshotStore.writeString(out, mPhoneBookLabelAlt);
+        PhoneBookSnapshotStore.writeString(out,
+                mAvatarThumbnailUri == null ? null : mAvatarThumbnailUri.toString());
+        PhoneBookSnapshotStore.writeString(out, mAvatarUri == null ? null : mAvatarUri.toString());
+        out.writeBoolean(mIsStarred);
+        out.writeInt(mPinnedPosition);
+        out.writeBoolean(mIsVoiceMail);
+
+        out.writeBoolean(mPrimaryPhoneNumber != null);
+        if (mPrimaryPhoneNumber != null) {
+            mPrimaryPhoneNumber.writeToSnapshot(out);
+        }
+        out.writeInt(mPhoneNumbers.size());
+        for (PhoneNumber phoneNumber : mPhoneNumbers) {
+            phoneNumber.writeToSnapshot(out);
+        }
+        out.writeInt(mPostalAddresses.size());
+        for (PostalAddress postalAddress : mPostalAddresses) {
+            postalAddress.writeToSnapshot(out);
         }
+    }
 
+    /** Reads a contact written by {@link #writeToSnapshot}. */
+    static Contact readFromSnapshot(ByteBuffer in) {
+        Contact contact = new Contact();
+        contact.mContactId = in.getLong();
+        contact.mRawContactId = in.getLong();
+        contact.mLookupKey = PhoneBookSnapshotStore.readString(in);
+        contact.mAccountName = PhoneBookSnapshotStore.readString(in);
+        contact.mDisplayName = PhoneBookSnapshotStore.readString(in);
+        contact.mDisplayNameAlt = PhoneBookSnapshotStore.readString(in);
+        contact.mGivenName = PhoneBookSnapshotStore.readString(in);
+        contact.mFamilyName = PhoneBookSnapshotStore.readString(in);
+        contact.mSortKeyPrimary = PhoneBookSnapshotStore.readString(in);
+        contact.mSortKeyAlt = PhoneBookSnapshotStore.readString(in);
+        contact.mPhoneBookLabel = PhoneBookSnapshotStore.readString(in);
+        contact.mPhoneBookLabelAlt = PhoneBookSnapshotStore.readString(in);
+        String avatarThumbnailUri = PhoneBookSnapshotStore.readString(in);
+        contact.mAvatarThumbnailUri =
+                avatarThumbnailUri == null ? null : Uri.parse(avatarThumbnailUri);
+        String avatarUri = PhoneBookSnapshotStore.readString(in);
+        contact.mAvatarUri = avatarUri == null ? null : Uri.parse(avatarUri);
+        contact.mIsStarred = in.get() != 0;
+        contact.mPinnedPosition = in.getInt();
+        contact.mIsVoiceMail = in.get() != 0;
+
+        if (in.get() != 0) {
+            contact.mPrimaryPhoneNumber = PhoneNumber.readFromSnapshot(in);
+        }
+        int phoneNumberCount = in.getInt();
+        for (int i = 0; i < phoneNumberCount; i++) {
+            contact.mPhoneNumbers.add(PhoneNumber.readFromSnapshot(in));
+        }
+        int postalAddressCount = in.getInt();
+        for (int i = 0; i < postalAddressCount; i++) {
+            contact.mPostalAddresses.add(PostalAddress.readFromSnapshot(in));
+        }
         return contact;
     }
 
@@ -654,8 +762,12 @@ public class Contact implements Parcelable, Comparable<Contact> {
      * special characters.
      */
     public int compareBySortKeyPrimary(@NonNull Contact otherContact) {
-        return compareNames(mSortKeyPrimary, otherContact.mSortKeyPrimary,
-                mPhoneBookLabel, otherContact.getPhonebookLabel());
+        int result = compareNameTypes(mPhoneBookLabel, otherContact.mPhoneBookLabel);
+        if (result != 0) {
+            return result;
+        }
+        return getSortKeyPrimaryCollationKey().compareTo(
+                otherContact.getSortKeyPrimaryCollationKey());
     }
 
     /**
@@ -663,21 +775,61 @@ public class Contact implements Parcelable, Comparable<Contact> {
      * characters.
      */
     public int compareBySortKeyAlt(@NonNull Contact otherContact) {
-        return compareNames(mSortKeyAlt, otherContact.mSortKeyAlt,
-                mPhoneBookLabelAlt, otherContact.getPhonebookLabelAlt());
+        int result = compareNameTypes(mPhoneBookLabelAlt, otherContact.mPhoneBookLabelAlt);
+        if (result != 0) {
+            return result;
+        }
+        return getSortKeyAltCollationKey().compareTo(otherContact.getSortKeyAltCollationKey());
     }
 
     /**
-     * Compares two strings in an order of letters, numbers, then special characters.
+     * Returns the {@link CollationKey} of {@link #mSortKeyPrimary} for the default locale. The
+     * key is built once and rebuilt only if the default locale changes.
      */
-    private int compareNames(String name, String otherName, String label, String otherLabel) {
-        int type = getNameType(label);
-        int otherType = getNameType(otherLabel);
-        if (type != otherType) {
-            return Integer.compare(type, otherType);
+    @NonNull
+    public CollationKey getSortKeyPrimaryCollationKey() {
+        return getCollationKeys().mPrimary;
+    }
+
+    /**
+     * Returns the {@link CollationKey} of {@link #mSortKeyAlt} for the default locale. The key is
+     * built once and rebuilt only if the default locale changes.
+     */
+    @NonNull
+    public CollationKey getSortKeyAltCollationKey() {
+        return getCollationKeys().mAlt;
+    }
+
+    private CollationKeys getCollationKeys() {
+        Collator collator = getCollator();
+        CollationKeys collationKeys = mCollationKeys;
+        if (collationKeys == null || collationKeys.mCollator != collator) {
+            collationKeys = new CollationKeys(collator,
+                    collator.getCollationKey(mSortKeyPrimary == null ? "" : mSortKeyPrimary),
+                    collator.getCollationKey(mSortKeyAlt == null ? "" : mSortKeyAlt));
+            mCollationKeys = collationKeys;
         }
-        Collator collator = Collator.getInstance();
-        return collator.compare(name == null ? "" : name, otherName == null ? "" : otherName);
+        return collationKeys;
+    }
+
+    /**
+     * Returns a thread safe collator for the default locale.
+     */
+    private static Collator getCollator() {
+        Locale locale = Locale.getDefault();
+        LocaleCollator localeCollator = sLocaleCollator;
+        if (localeCollator == null || !localeCollator.mLocale.equals(locale)) {
+            localeCollator = new LocaleCollator(locale, Collator.getInstance(locale).freeze());
+            sLocaleCollator = localeCollator;
+        }
+        return localeCollator.mCollator;
+    }
+
+    /**
+     * Compares the types of two names in an order of letters, numbers, then special characters.
+     */
+    private static int compareNameTypes(String label, String otherLabel) {
+        return Integer.compare(getNameType(label), getNameType(otherLabel));
     }
 
     /**
@@ -696,4 +848,26 @@ public class Contact implements Parcelable, Comparable<Contact> {
         }
         return TYPE_OTHER;
     }
+
+    private static final class LocaleCollator {
+        private final Locale mLocale;
+        private final Collator mCollator;
+
+        private LocaleCollator(Locale locale, Collator collator) {
+            mLocale = locale;
+            mCollator = collator;
+        }
+    }
+
+    private static final class CollationKeys {
+        private final Collator mCollator;
+        private final CollationKey mPrimary;
+        private final CollationKey mAlt;
+
+        private CollationKeys(Collator collator, CollationKey primary, CollationKey alt) {
+            mCollator = collator;
+            mPrimary = primary;
+            mAlt = alt;
+        }
+    }
 }
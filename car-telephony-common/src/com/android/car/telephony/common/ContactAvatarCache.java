@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.graphics.drawable.RoundedBitmapDrawable;
+import androidx.core.graphics.drawable.RoundedBitmapDrawableFactory;
+
+import com.android.car.apps.common.LetterTileDrawable;
+import com.android.car.apps.common.log.L;
+import com.bumptech.glide.request.RequestOptions;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps the rendered avatars of contacts, so binding a contact doesn't rasterize its letter tile
+ * or rounded photo again.
+ *
+ * <p>Letter tiles are keyed by their letters and the identifier deciding their color, photos by
+ * the lookup key of their contact, both along with the size and corner radius they are rendered
+ * with. The bitmaps are evicted least recently used first once they exceed a byte budget, and all
+ * of them are dropped when the system runs low on memory. {@link InMemoryPhoneBook} drops the
+ * photos of the contacts changed by each sync, so a new photo is rendered for them.
+ *
+ * <p>The returned bitmaps are shared and must not be modified or recycled.
+ */
+public class ContactAvatarCache {
+    private static final String TAG = "CD.ContactAvatarCache";
+    /** Holds about 250 avatars of 64x64 pixels. */
+    private static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+    private static final String PHOTO_KEY_PREFIX = "photo/";
+
+    /** The options of the avatar photo requests, shared instead of built for every request. */
+    static final RequestOptions AVATAR_REQUEST_OPTIONS = RequestOptions.centerCropTransform();
+
+    private static ContactAvatarCache sInstance;
+
+    /** Returns the cache of the application. */
+    public static ContactAvatarCache get(@NonNull Context context) {
+        synchronized (ContactAvatarCache.class) {
+            if (sInstance == null) {
+                sInstance = new ContactAvatarCache(context.getApplicationContext(),
+                        DEFAULT_MAX_BYTES);
+            }
+            return sInstance;
+        }
+    }
+
+    private final LruCache<String, Bitmap> mBitmaps;
+
+    @VisibleForTesting
+    ContactAvatarCache(Context context, int maxBytes) {
+        mBitmaps = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getAllocationByteCount();
+            }
+        };
+        context.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                if (level >= TRIM_MEMORY_BACKGROUND) {
+                    clear();
+                } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+                    mBitmaps.trimToSize(mBitmaps.maxSize() / 2);
+                }
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+            }
+
+            @Override
+            public void onLowMemory() {
+                clear();
+            }
+        });
+    }
+
+    /**
+     * Returns the letter tile of the given initials, rendered at the given size.
+     *
+     * @param initials            the letters drawn on the tile. If null, an anonymous avatar is
+     *                            drawn instead.
+     * @param identifier          decides the color of the tile.
+     * @param cornerRadiusPercent the corner radius, as a fraction of the size.
+     */
+    @NonNull
+    public Bitmap getLetterTile(@NonNull Context context, @Nullable String initials,
+            @Nullable String identifier, int size, float cornerRadiusPercent) {
+        String key = "tile/" + initials + "/" + identifier + "/" + size + "/"
+                + cornerRadiusPercent;
+        Bitmap bitmap = mBitmaps.get(key);
+        if (bitmap == null) {
+            LetterTileDrawable letterTileDrawable = TelecomUtils.createLetterTile(context,
+                    initials, identifier);
+            if (cornerRadiusPercent == 0) {
+                bitmap = letterTileDrawable.toBitmap(size);
+            } else {
+                bitmap = render(RoundedBitmapDrawableFactory.create(context.getResources(),
+                        letterTileDrawable.toBitmap(size)), size, cornerRadiusPercent);
+            }
+            mBitmaps.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the letter tile of the given initials, rendered with square corners at the given
+     * width and height, for instance those of the view showing it.
+     *
+     * @param initials   the letters drawn on the tile. If null, an anonymous avatar is drawn
+     *                   instead.
+     * @param identifier decides the color of the tile.
+     */
+    @NonNull
+    public Bitmap getRectangularLetterTile(@NonNull Context context, @Nullable String initials,
+            @Nullable String identifier, int width, int height) {
+        String key = "tile/" + initials + "/" + identifier + "/" + width + "x" + height;
+        Bitmap bitmap = mBitmaps.get(key);
+        if (bitmap == null) {
+            LetterTileDrawable letterTileDrawable = TelecomUtils.createLetterTile(context,
+                    initials, identifier);
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            letterTileDrawable.setBounds(0, 0, width, height);
+            letterTileDrawable.draw(new Canvas(bitmap));
+            mBitmaps.put(key, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns the photo of a contact, scaled to the given size with rounded corners. The photo is
+     * only rendered if the cache doesn't hold it for the given lookup key yet.
+     *
+     * @param lookupKey           the lookup key of the contact, null to render without caching.
+     * @param cornerRadiusPercent the corner radius, as a fraction of the size.
+     */
+    @NonNull
+    public Bitmap getRoundedPhoto(@NonNull Context context, @Nullable String lookupKey,
+            @NonNull Bitmap photo, int size, float cornerRadiusPercent) {
+        String key = lookupKey == null ? null
+                : PHOTO_KEY_PREFIX + lookupKey + "/" + size + "/" + cornerRadiusPercent;
+        Bitmap bitmap = key == null ? null : mBitmaps.get(key);
+        if (bitmap == null) {
+            bitmap = render(RoundedBitmapDrawableFactory.create(context.getResources(), photo),
+                    size, cornerRadiusPercent);
+            if (key != null) {
+                mBitmaps.put(key, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /** Drops the cached photos of the given contacts, for instance when their photos changed. */
+    public void removePhotos(@NonNull Collection<String> lookupKeys) {
+        if (lookupKeys.isEmpty()) {
+            return;
+        }
+        Set<String> lookupKeySet = new HashSet<>(lookupKeys);
+        for (String key : mBitmaps.snapshot().keySet()) {
+            if (key.startsWith(PHOTO_KEY_PREFIX)
+                    && lookupKeySet.contains(getPhotoLookupKey(key))) {
+                mBitmaps.remove(key);
+            }
+        }
+    }
+
+    /** Drops the cached photos of all the contacts, but keeps the letter tiles. */
+    public void removeAllPhotos() {
+        for (String key : mBitmaps.snapshot().keySet()) {
+            if (key.startsWith(PHOTO_KEY_PREFIX)) {
+                mBitmaps.remove(key);
+            }
+        }
+    }
+
+    /** Drops all the avatars. */
+    public void clear() {
+        L.d(TAG, "Clearing avatars, " + this);
+        mBitmaps.evictAll();
+    }
+
+    /** Returns the number of avatars found in the cache. */
+    public int getHitCount() {
+        return mBitmaps.hitCount();
+    }
+
+    /** Returns the number of avatars which had to be rendered. */
+    public int getMissCount() {
+        return mBitmaps.missCount();
+    }
+
+    /** Returns the fraction of the avatars found in the cache, 0 if none was requested. */
+    public float getHitRate() {
+        int hitCount = mBitmaps.hitCount();
+        int requestCount = hitCount + mBitmaps.missCount();
+        return requestCount == 0 ? 0 : (float) hitCount / requestCount;
+    }
+
+    /** Returns the number of bytes held by the cached avatars. */
+    public int getSizeBytes() {
+        return mBitmaps.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ContactAvatarCache{bytes=" + mBitmaps.size() + "/" + mBitmaps.maxSize()
+                + ", hits=" + mBitmaps.hitCount() + ", misses=" + mBitmaps.missCount()
+                + ", evictions=" + mBitmaps.evictionCount() + "}";
+    }
+
+    /** Returns the lookup key of a photo key, which ends with the size and the corner radius. */
+    private static String getPhotoLookupKey(String key) {
+        int radiusStart = key.lastIndexOf('/');
+        int sizeStart = key.lastIndexOf('/', radiusStart - 1);
+        return key.substring(PHOTO_KEY_PREFIX.length(), sizeStart);
+    }
+
+    /** Renders the drawable into a new bitmap of the given size. */
+    static Bitmap render(RoundedBitmapDrawable roundedBitmapDrawable, int size,
+            float cornerRadiusPercent) {
+        roundedBitmapDrawable.setCornerRadius(size * cornerRadiusPercent);
+        Bitmap result = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(result);
+        roundedBitmapDrawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
+        roundedBitmapDrawable.draw(canvas);
+        return result;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Describes how the contacts held by {@link InMemoryPhoneBook} changed after a sync. A full reload
+ * reports every loaded contact as added.
+ */
+public class ContactChangeSet {
+    private final boolean mIsFullReload;
+    private final List<Contact> mAddedContacts;
+    private final List<Contact> mUpdatedContacts;
+    private final List<Contact> mRemovedContacts;
+    private final Set<String> mAffectedAccounts;
+
+    ContactChangeSet(boolean isFullReload, @NonNull List<Contact> addedContacts,
+            @NonNull List<Contact> updatedContacts, @NonNull List<Contact> removedContacts,
+            @NonNull Set<String> affectedAccounts) {
+        mIsFullReload = isFullReload;
+        mAddedContacts = Collections.unmodifiableList(addedContacts);
+        mUpdatedContacts = Collections.unmodifiableList(updatedContacts);
+        mRemovedContacts = Collections.unmodifiableList(removedContacts);
+        mAffectedAccounts = Collections.unmodifiableSet(affectedAccounts);
+    }
+
+    /**
+     * Returns true if all contacts were reloaded from scratch. Previously loaded contacts that are
+     * not in {@link #getAddedContacts()} are gone.
+     */
+    public boolean isFullReload() {
+        return mIsFullReload;
+    }
+
+    /** Returns the contacts that didn't exist before this sync. */
+    @NonNull
+    public List<Contact> getAddedContacts() {
+        return mAddedContacts;
+    }
+
+    /**
+     * Returns the new instances of contacts that existed before this sync and have been changed.
+     */
+    @NonNull
+    public List<Contact> getUpdatedContacts() {
+        return mUpdatedContacts;
+    }
+
+    /** Returns the contacts that have been removed by this sync. */
+    @NonNull
+    public List<Contact> getRemovedContacts() {
+        return mRemovedContacts;
+    }
+
+    /** Returns the names of the accounts whose contact lists have been changed by this sync. */
+    @NonNull
+    public Set<String> getAffectedAccounts() {
+        return mAffectedAccounts;
+    }
+
+    /** Returns true if nothing has been changed by this sync. */
+    public boolean isEmpty() {
+        return !mIsFullReload && mAddedContacts.isEmpty() && mUpdatedContacts.isEmpty()
+                && mRemovedContacts.isEmpty();
+    }
+
+    /**
+     * Returns a change set describing this sync followed by the {@code later} one, for observers
+     * which haven't received this one yet.
+     */
+    @NonNull
+    ContactChangeSet merge(@NonNull ContactChangeSet later) {
+        Set<String> affectedAccounts = new HashSet<>(mAffectedAccounts);
+        affectedAccounts.addAll(later.mAffectedAccounts);
+        if (later.mIsFullReload) {
+            return new ContactChangeSet(true, new ArrayList<>(later.mAddedContacts),
+                    Collections.emptyList(), Collections.emptyList(), affectedAccounts);
+        }
+
+        // Contacts are equal if they have the same account and lookup key, the values are the
+        // latest instances.
+        Map<Contact, Contact> added = toMap(mAddedContacts);
+        Map<Contact, Contact> updated = toMap(mUpdatedContacts);
+        Map<Contact, Contact> removed = toMap(mRemovedContacts);
+        for (Contact contact : later.mAddedContacts) {
+            if (removed.remove(contact) != null) {
+                updated.put(contact, contact);
+            } else {
+                added.put(contact, contact);
+            }
+        }
+        for (Contact contact : later.mUpdatedContacts) {
+            if (added.containsKey(contact)) {
+                added.put(contact, contact);
+            } else {
+                updated.put(contact, contact);
+            }
+        }
+        for (Contact contact : later.mRemovedContacts) {
+            if (added.remove(contact) == null) {
+                updated.remove(contact);
+                removed.put(contact, contact);
+            }
+        }
+        // A full reload stays one, the contacts it added are the whole list.
+        return new ContactChangeSet(mIsFullReload, new ArrayList<>(added.values()),
+                mIsFullReload ? Collections.emptyList() : new ArrayList<>(updated.values()),
+                mIsFullReload ? Collections.emptyList() : new ArrayList<>(removed.values()),
+                affectedAccounts);
+    }
+
+    private static Map<Contact, Contact> toMap(List<Contact> contacts) {
+        Map<Contact, Contact> map = new LinkedHashMap<>();
+        for (Contact contact : contacts) {
+            map.put(contact, contact);
+        }
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return "ContactChangeSet{full=" + mIsFullReload
+                + ", added=" + mAddedContacts.size()
+                + ", updated=" + mUpdatedContacts.size()
+                + ", removed=" + mRemovedContacts.size() + "}";
+    }
+}
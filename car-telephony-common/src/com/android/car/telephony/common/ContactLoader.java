@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
+
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Materializes {@link Contact}s out of a {@link ContactsContract.Data} cursor.
+ *
+ * <p>The rows are copied into compact column arrays on the calling thread, which is the only
+ * thread touching the cursor. The rows are then grouped by account and lookup key and the groups
+ * are assembled into contacts on a small {@link ForkJoinPool}, which is where the phone number
+ * parsing and the voicemail checks run. Every group is assembled by a single task in cursor order
+ * and the results are merged in the order the groups first appear in the cursor, so the outcome
+ * is the same as loading the cursor sequentially. Either way the contacts of an account are kept
+ * in the order they first appear in the cursor.
+ */
+class ContactLoader {
+    /** Cursors with fewer rows are loaded on the calling thread. */
+    private static final int MIN_ROWS_FOR_PARALLEL_LOAD = 512;
+    /** A task assembles at most this many contacts without splitting. */
+    private static final int MAX_GROUPS_PER_TASK = 256;
+    private static final int MAX_PARALLELISM = 4;
+
+    /** Columns read by {@link Contact#fromCursor} and the entities it creates. */
+    private static final String[] COLUMNS = new String[]{
+            ContactsContract.RawContacts.CONTACT_ID,
+            ContactsContract.Data.RAW_CONTACT_ID,
+            ContactsContract.RawContacts.ACCOUNT_NAME,
+            ContactsContract.RawContacts.ACCOUNT_TYPE,
+            ContactsContract.Data.LOOKUP_KEY,
+            ContactsContract.Data.MIMETYPE,
+            ContactsContract.Data.DISPLAY_NAME,
+            ContactsContract.RawContacts.DISPLAY_NAME_ALTERNATIVE,
+            "phonebook_label",
+            "phonebook_label_alt",
+            ContactsContract.RawContacts.SORT_KEY_PRIMARY,
+            ContactsContract.RawContacts.SORT_KEY_ALTERNATIVE,
+            ContactsContract.Data.PHOTO_URI,
+            ContactsContract.Data.PHOTO_THUMBNAIL_URI,
+            Phone.STARRED,
+            Phone.PINNED,
+            Phone._ID,
+            Phone.NUMBER,
+            Phone.TYPE,
+            Phone.LABEL,
+            Phone.DATA_VERSION,
+            Phone.IS_SUPER_PRIMARY,
+            StructuredName.GIVEN_NAME,
+            StructuredName.FAMILY_NAME,
+            StructuredPostal.FORMATTED_ADDRESS,
+            ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP,
+    };
+
+    private final Context mContext;
+    private final ForkJoinPool mForkJoinPool;
+
+    ContactLoader(Context context) {
+        this(context, Math.min(MAX_PARALLELISM, Runtime.getRuntime().availableProcessors()));
+    }
+
+    @VisibleForTesting
+    ContactLoader(Context context, int parallelism) {
+        mContext = context;
+        mForkJoinPool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    /**
+     * Reads all the rows of the cursor and groups them into contacts by account and lookup key.
+     * Returns the latest {@link ContactsContract.Data#CONTACT_LAST_UPDATED_TIMESTAMP} of them.
+     */
+    @WorkerThread
+    long load(Cursor cursor, Map<String, Map<String, Contact>> contactMap) {
+        if (cursor.getCount() < MIN_ROWS_FOR_PARALLEL_LOAD
+                || mForkJoinPool.getParallelism() == 1 || mForkJoinPool.isShutdown()) {
+            return loadSequentially(cursor, contactMap);
+        }
+
+        RowBuffer rows = new RowBuffer(cursor);
+        int accountNameColumn = rows.getColumnIndex(ContactsContract.RawContacts.ACCOUNT_NAME);
+        int lookupKeyColumn = rows.getColumnIndex(ContactsContract.Data.LOOKUP_KEY);
+        int lastUpdatedColumn = rows.getColumnIndex(
+                ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP);
+        long lastUpdatedTimestamp = 0;
+
+        // Group the rows by account and lookup key, in the order the contacts first appear.
+        Map<String, Map<String, RowGroup>> groupMap = new LinkedHashMap<>();
+        List<RowGroup> groups = new ArrayList<>();
+        for (int row = 0; row < rows.getCount(); row++) {
+            String accountName = rows.getString(row, accountNameColumn);
+            String lookupKey = rows.getString(row, lookupKeyColumn);
+            lastUpdatedTimestamp = Math.max(lastUpdatedTimestamp,
+                    rows.getLong(row, lastUpdatedColumn));
+
+            Map<String, RowGroup> subMap = groupMap.get(accountName);
+            if (subMap == null) {
+                subMap = new LinkedHashMap<>();
+                groupMap.put(accountName, subMap);
+            }
+            RowGroup group = subMap.get(lookupKey);
+            if (group == null) {
+                group = new RowGroup();
+                subMap.put(lookupKey, group);
+                groups.add(group);
+            }
+            group.add(row);
+        }
+
+        mForkJoinPool.invoke(new AssembleTask(rows, groups, 0, groups.size()));
+
+        for (Map.Entry<String, Map<String, RowGroup>> entry : groupMap.entrySet()) {
+            Map<String, Contact> subMap = contactMap.get(entry.getKey());
+            if (subMap == null) {
+                subMap = new LinkedHashMap<>();
+                contactMap.put(entry.getKey(), subMap);
+            }
+            for (Map.Entry<String, RowGroup> groupEntry : entry.getValue().entrySet()) {
+                subMap.put(groupEntry.getKey(), groupEntry.getValue().mContact);
+            }
+        }
+        return lastUpdatedTimestamp;
+    }
+
+    /** Loads contacts on the calling thread. */
+    private long loadSequentially(Cursor rows, Map<String, Map<String, Contact>> contactMap) {
+        int accountNameColumn = rows.getColumnIndex(ContactsContract.RawContacts.ACCOUNT_NAME);
+        int lookupKeyColumn = rows.getColumnIndex(ContactsContract.Data.LOOKUP_KEY);
+        int lastUpdatedColumn = rows.getColumnIndex(
+                ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP);
+        long lastUpdatedTimestamp = 0;
+        ProjectionBinder binder = new ProjectionBinder(rows);
+
+        while (rows.moveToNext()) {
+            String accountName = rows.getString(accountNameColumn);
+            String lookupKey = rows.getString(lookupKeyColumn);
+            if (lastUpdatedColumn >= 0) {
+                lastUpdatedTimestamp = Math.max(lastUpdatedTimestamp,
+                        rows.getLong(lastUpdatedColumn));
+            }
+
+            if (!contactMap.containsKey(accountName)) {
+                contactMap.put(accountName, new LinkedHashMap<>());
+            }
+
+            Map<String, Contact> subMap = contactMap.get(accountName);
+            subMap.put(lookupKey, Contact.fromCursor(mContext, binder, subMap.get(lookupKey)));
+        }
+        return lastUpdatedTimestamp;
+    }
+
+    /** Shuts down the worker threads. Later loads run on the calling thread. */
+    void shutdown() {
+        mForkJoinPool.shutdown();
+    }
+
+    /** The rows of one contact. */
+    private static class RowGroup {
+        private int[] mRows = new int[2];
+        private int mSize;
+        private Contact mContact;
+
+        private void add(int row) {
+            if (mSize == mRows.length) {
+                mRows = Arrays.copyOf(mRows, mSize * 2);
+            }
+            mRows[mSize++] = row;
+        }
+    }
+
+    /** Assembles the contacts of a range of groups, splitting the range if it is large. */
+    private class AssembleTask extends RecursiveAction {
+        private final RowBuffer mRows;
+        private final List<RowGroup> mGroups;
+        private final int mStart;
+        private final int mEnd;
+
+        private AssembleTask(RowBuffer rows, List<RowGroup> groups, int start, int end) {
+            mRows = rows;
+            mGroups = groups;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart > MAX_GROUPS_PER_TASK) {
+                int middle = (mStart + mEnd) >>> 1;
+                invokeAll(new AssembleTask(mRows, mGroups, mStart, middle),
+                        new AssembleTask(mRows, mGroups, middle, mEnd));
+                return;
+            }
+
+            RowBuffer.View view = mRows.newView();
+            ProjectionBinder binder = new ProjectionBinder(view);
+            for (int i = mStart; i < mEnd; i++) {
+                RowGroup group = mGroups.get(i);
+                Contact contact = null;
+                for (int j = 0; j < group.mSize; j++) {
+                    view.moveToRow(group.mRows[j]);
+                    contact = Contact.fromCursor(mContext, binder, contact);
+                }
+                group.mContact = contact;
+            }
+        }
+    }
+
+    /**
+     * A copy of the {@link #COLUMNS} of a cursor. Every cell is kept once along with its type:
+     * integers in primitive arrays and everything else as strings. Integers are only formatted
+     * when read as strings.
+     */
+    private static class RowBuffer {
+        private final String[] mColumnNames;
+        private final int mCount;
+        /** The {@link Cursor#getType} of each cell, null for columns which are all null. */
+        private final byte[][] mTypes;
+        private final long[][] mLongColumns;
+        private final String[][] mStringColumns;
+
+        private RowBuffer(Cursor cursor) {
+            List<String> columnNames = new ArrayList<>();
+            List<Integer> sourceColumns = new ArrayList<>();
+            for (String column : COLUMNS) {
+                int sourceColumn = cursor.getColumnIndex(column);
+                if (sourceColumn >= 0 && !columnNames.contains(column)) {
+                    columnNames.add(column);
+                    sourceColumns.add(sourceColumn);
+                }
+            }
+            mColumnNames = columnNames.toArray(new String[0]);
+            mCount = cursor.getCount();
+            mTypes = new byte[mColumnNames.length][];
+            mLongColumns = new long[mColumnNames.length][];
+            mStringColumns = new String[mColumnNames.length][];
+
+            cursor.moveToPosition(-1);
+            int row = 0;
+            while (cursor.moveToNext() && row < mCount) {
+                for (int column = 0; column < mColumnNames.length; column++) {
+                    int sourceColumn = sourceColumns.get(column);
+                    int type = cursor.getType(sourceColumn);
+                    if (type == Cursor.FIELD_TYPE_NULL) {
+                        continue;
+                    }
+                    if (mTypes[column] == null) {
+                        mTypes[column] = new byte[mCount];
+                    }
+                    if (type == Cursor.FIELD_TYPE_INTEGER) {
+                        if (mLongColumns[column] == null) {
+                            mLongColumns[column] = new long[mCount];
+                        }
+                        mLongColumns[column][row] = cursor.getLong(sourceColumn);
+                    } else {
+                        type = Cursor.FIELD_TYPE_STRING;
+                        if (mStringColumns[column] == null) {
+                            mStringColumns[column] = new String[mCount];
+                        }
+                        mStringColumns[column][row] = cursor.getString(sourceColumn);
+                    }
+                    mTypes[column][row] = (byte) type;
+                }
+                row++;
+            }
+        }
+
+        private int getCount() {
+            return mCount;
+        }
+
+        private int getColumnIndex(String columnName) {
+            for (int i = 0; i < mColumnNames.length; i++) {
+                if (mColumnNames[i].equals(columnName)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int getType(int row, int column) {
+            if (column < 0 || mTypes[column] == null) {
+                return Cursor.FIELD_TYPE_NULL;
+            }
+            return mTypes[column][row];
+        }
+
+        private String getString(int row, int column) {
+            switch (getType(row, column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return Long.toString(mLongColumns[column][row]);
+                case Cursor.FIELD_TYPE_STRING:
+                    return mStringColumns[column][row];
+                default:
+                    return null;
+            }
+        }
+
+        private long getLong(int row, int column) {
+            switch (getType(row, column)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return mLongColumns[column][row];
+                case Cursor.FIELD_TYPE_STRING:
+                    try {
+                        return Long.parseLong(mStringColumns[column][row]);
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                default:
+                    return 0;
+            }
+        }
+
+        private View newView() {
+            return new View();
+        }
+
+        /**
+         * A read only cursor over the buffered rows. Each task uses its own view so the position
+         * is never shared between threads.
+         */
+        private class View extends AbstractCursor {
+            private int mRow = -1;
+
+            private void moveToRow(int row) {
+                mRow = row;
+            }
+
+            @Override
+            public int getCount() {
+                return mCount;
+            }
+
+            @Override
+            public String[] getColumnNames() {
+                return mColumnNames;
+            }
+
+            @Override
+            public String getString(int column) {
+                return RowBuffer.this.getString(mRow, column);
+            }
+
+            @Override
+            public short getShort(int column) {
+                return (short) RowBuffer.this.getLong(mRow, column);
+            }
+
+            @Override
+            public int getInt(int column) {
+                return (int) RowBuffer.this.getLong(mRow, column);
+            }
+
+            @Override
+            public long getLong(int column) {
+                return RowBuffer.this.getLong(mRow, column);
+            }
+
+            @Override
+            public float getFloat(int column) {
+                String value = getString(column);
+                return value == null ? 0 : Float.parseFloat(value);
+            }
+
+            @Override
+            public double getDouble(int column) {
+                String value = getString(column);
+                return value == null ? 0 : Double.parseDouble(value);
+            }
+
+            @Override
+            public int getType(int column) {
+                return RowBuffer.this.getType(mRow, column);
+            }
+
+            @Override
+            public boolean isNull(int column) {
+                return getType(column) == Cursor.FIELD_TYPE_NULL;
+            }
+        }
+    }
+}
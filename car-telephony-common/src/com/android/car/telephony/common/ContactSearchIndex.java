@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A prefix search index over contacts.
+ *
+ * <p>Every contact is indexed by the words of its display name and alternative display name, by
+ * its sort keys and phonebook labels, which the contacts provider transliterates for names written
+ * in other scripts, by the T9 digits of these words and by the digits of its phone numbers. Words
+ * are lowercased and stripped of their accents. A query matches a contact if each word of the
+ * query is a prefix of one of the indexed words of the contact.
+ *
+ * <p>The indexed words are kept in a sorted map, so the words starting with a prefix are a
+ * contiguous range of it. Contacts can be added and removed one by one as they sync.
+ *
+ * <p>This class is thread safe.
+ */
+class ContactSearchIndex {
+    /** Ranks of the matches, lower is better. */
+    private static final int RANK_NAME_START = 0;
+    private static final int RANK_NAME_WORD = 1;
+    private static final int RANK_TRANSLITERATION = 2;
+    private static final int RANK_NUMBER = 3;
+    private static final int RANK_T9 = 4;
+    /** Added to the rank of a word that the query only is a prefix of. */
+    private static final int PREFIX_MATCH_PENALTY = 8;
+
+    private static final String T9_DIGITS = "22233344455566677778889999";
+
+    /** Contacts and the rank of the word for them, by indexed word. */
+    private final TreeMap<String, Map<Contact, Integer>> mWordMap = new TreeMap<>();
+    /** The words indexed for each contact, to remove them. */
+    private final Map<Contact, Set<String>> mContactWords = new HashMap<>();
+
+    ContactSearchIndex() {
+    }
+
+    /** Creates an index of the same contacts as the given one, which is not modified. */
+    ContactSearchIndex(@NonNull ContactSearchIndex other) {
+        synchronized (other) {
+            for (Map.Entry<String, Map<Contact, Integer>> entry : other.mWordMap.entrySet()) {
+                mWordMap.put(entry.getKey(), new HashMap<>(entry.getValue()));
+            }
+            // The word sets are never modified once indexed.
+            mContactWords.putAll(other.mContactWords);
+        }
+    }
+
+    /** Indexes a contact, replacing the contact with the same lookup key and account if any. */
+    synchronized void put(@NonNull Contact contact) {
+        remove(contact);
+        Map<String, Integer> words = new HashMap<>();
+        addNameWords(words, contact.getDisplayName(), RANK_NAME_START, RANK_NAME_WORD);
+        addNameWords(words, contact.getDisplayNameAlt(), RANK_NAME_WORD, RANK_NAME_WORD);
+        addNameWords(words, contact.getSortKeyPrimary(), RANK_TRANSLITERATION,
+                RANK_TRANSLITERATION);
+        addNameWords(words, contact.getSortKeyAlt(), RANK_TRANSLITERATION, RANK_TRANSLITERATION);
+        addNameWords(words, contact.getPhonebookLabel(), RANK_TRANSLITERATION,
+                RANK_TRANSLITERATION);
+        addNameWords(words, contact.getPhonebookLabelAlt(), RANK_TRANSLITERATION,
+                RANK_TRANSLITERATION);
+        for (PhoneNumber phoneNumber : contact.getNumbers()) {
+            addWord(words, getDigits(phoneNumber.getRawNumber()), RANK_NUMBER);
+            String number = phoneNumber.getNumber();
+            addWord(words, getDigits(number), RANK_NUMBER);
+            if (number.startsWith("+") && number.indexOf(' ') > 0) {
+                // The national significant number of an internationally formatted number.
+                addWord(words, getDigits(number.substring(number.indexOf(' '))), RANK_NUMBER);
+            }
+        }
+
+        for (Map.Entry<String, Integer> entry : words.entrySet()) {
+            Map<Contact, Integer> contacts = mWordMap.get(entry.getKey());
+            if (contacts == null) {
+                contacts = new HashMap<>();
+                mWordMap.put(entry.getKey(), contacts);
+            }
+            contacts.put(contact, entry.getValue());
+        }
+        mContactWords.put(contact, words.keySet());
+    }
+
+    /** Indexes all the given contacts. */
+    synchronized void putAll(@NonNull Collection<Contact> contacts) {
+        for (Contact contact : contacts) {
+            put(contact);
+        }
+    }
+
+    /** Removes the contact with the same lookup key and account as the given one. */
+    synchronized void remove(@NonNull Contact contact) {
+        Set<String> words = mContactWords.remove(contact);
+        if (words == null) {
+            return;
+        }
+        for (String word : words) {
+            Map<Contact, Integer> contacts = mWordMap.get(word);
+            if (contacts != null) {
+                contacts.remove(contact);
+                if (contacts.isEmpty()) {
+                    mWordMap.remove(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns at most {@code maxResults} contacts matching the query, best matches first. Contacts
+     * that match equally well are ordered starred first, then by name.
+     *
+     * @param accountFilter if not null, only the contacts this predicate accepts are returned.
+     */
+    @NonNull
+    synchronized List<Contact> search(@NonNull String query, int maxResults,
+            @Nullable AccountFilter accountFilter) {
+        List<String> queryWords = getQueryWords(query);
+        if (queryWords.isEmpty() || maxResults <= 0) {
+            return Collections.emptyList();
+        }
+
+        // Start with the most selective word, the longest one.
+        Collections.sort(queryWords, (word, other) -> Integer.compare(other.length(),
+                word.length()));
+        Map<Contact, Integer> scores = findMatches(queryWords.get(0));
+        for (int i = 1; i < queryWords.size() && !scores.isEmpty(); i++) {
+            Map<Contact, Integer> matches = findMatches(queryWords.get(i));
+            Map<Contact, Integer> intersection = new HashMap<>();
+            for (Map.Entry<Contact, Integer> entry : scores.entrySet()) {
+                Integer score = matches.get(entry.getKey());
+                if (score != null) {
+                    intersection.put(entry.getKey(), entry.getValue() + score);
+                }
+            }
+            scores = intersection;
+        }
+
+        Comparator<Map.Entry<Contact, Integer>> comparator = (entry, other) -> {
+            int result = Integer.compare(entry.getValue(), other.getValue());
+            if (result != 0) {
+                return result;
+            }
+            result = Boolean.compare(other.getKey().isStarred(), entry.getKey().isStarred());
+            if (result != 0) {
+                return result;
+            }
+            return compareStrings(entry.getKey().getSortKeyPrimary(),
+                    other.getKey().getSortKeyPrimary());
+        };
+        // A max-heap of the best results so far.
+        PriorityQueue<Map.Entry<Contact, Integer>> topResults =
+                new PriorityQueue<>(maxResults + 1, comparator.reversed());
+        for (Map.Entry<Contact, Integer> entry : scores.entrySet()) {
+            if (accountFilter != null && !accountFilter.accept(entry.getKey().getAccountName())) {
+                continue;
+            }
+            topResults.offer(entry);
+            if (topResults.size() > maxResults) {
+                topResults.poll();
+            }
+        }
+
+        List<Map.Entry<Contact, Integer>> entries = new ArrayList<>(topResults);
+        Collections.sort(entries, comparator);
+        List<Contact> results = new ArrayList<>(entries.size());
+        for (Map.Entry<Contact, Integer> entry : entries) {
+            results.add(entry.getKey());
+        }
+        return results;
+    }
+
+    /** Returns the number of indexed contacts. */
+    synchronized int size() {
+        return mContactWords.size();
+    }
+
+    /** Decides whether the contacts of an account are searched. */
+    interface AccountFilter {
+        boolean accept(@Nullable String accountName);
+    }
+
+    /** Returns the best score of every contact with a word starting with the given prefix. */
+    private Map<Contact, Integer> findMatches(String prefix) {
+        Map<Contact, Integer> matches = new HashMap<>();
+        for (Map.Entry<String, Map<Contact, Integer>> entry
+                : mWordMap.subMap(prefix, true, prefix + Character.MAX_VALUE, false).entrySet()) {
+            int penalty = entry.getKey().length() == prefix.length() ? 0 : PREFIX_MATCH_PENALTY;
+            for (Map.Entry<Contact, Integer> match : entry.getValue().entrySet()) {
+                int score = match.getValue() + penalty;
+                Integer bestScore = matches.get(match.getKey());
+                if (bestScore == null || score < bestScore) {
+                    matches.put(match.getKey(), score);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Indexes the words of a name and their T9 digits. The first word gets {@code firstWordRank},
+     * the other ones {@code wordRank}.
+     */
+    private static void addNameWords(Map<String, Integer> words, @Nullable String name,
+            int firstWordRank, int wordRank) {
+        if (TextUtils.isEmpty(name)) {
+            return;
+        }
+        List<String> nameWords = normalize(name);
+        for (int i = 0; i < nameWords.size(); i++) {
+            String word = nameWords.get(i);
+            addWord(words, word, i == 0 ? firstWordRank : wordRank);
+            String t9Digits = getT9Digits(word);
+            if (t9Digits != null) {
+                addWord(words, t9Digits, RANK_T9);
+            }
+        }
+    }
+
+    private static void addWord(Map<String, Integer> words, String word, int rank) {
+        if (word.isEmpty()) {
+            return;
+        }
+        Integer bestRank = words.get(word);
+        if (bestRank == null || rank < bestRank) {
+            words.put(word, rank);
+        }
+    }
+
+    /**
+     * Splits a query into words. A query made of dialable characters only is searched as a single
+     * run of digits, so formatted numbers match.
+     */
+    private static List<String> getQueryWords(String query) {
+        boolean isDialable = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isDigit(c)) {
+                isDialable = true;
+            } else if ("+-() ./".indexOf(c) < 0) {
+                isDialable = false;
+                break;
+            }
+        }
+        if (isDialable) {
+            List<String> words = new ArrayList<>(1);
+            words.add(getDigits(query));
+            return words;
+        }
+        // Duplicated words match the same indexed words.
+        return new ArrayList<>(new HashSet<>(normalize(query)));
+    }
+
+    /** Lowercases the string, strips its accents and splits it into words. */
+    private static List<String> normalize(String string) {
+        String decomposed = Normalizer.normalize(string, Normalizer.Form.NFD);
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            } else if (word.length() > 0) {
+                words.add(word.toString().toLowerCase(Locale.ROOT));
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString().toLowerCase(Locale.ROOT));
+        }
+        return words;
+    }
+
+    /** Returns the T9 digits of a latin word, or null if it has other characters. */
+    @Nullable
+    private static String getT9Digits(String word) {
+        char[] digits = new char[word.length()];
+        boolean hasLetter = false;
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (c >= 'a' && c <= 'z') {
+                digits[i] = T9_DIGITS.charAt(c - 'a');
+                hasLetter = true;
+            } else if (c >= '0' && c <= '9') {
+                digits[i] = c;
+            } else {
+                return null;
+            }
+        }
+        return hasLetter ? new String(digits) : null;
+    }
+
+    private static String getDigits(String number) {
+        StringBuilder digits = new StringBuilder(number.length());
+        for (int i = 0; i < number.length(); i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+
+    private static int compareStrings(@Nullable String string, @Nullable String other) {
+        return (string == null ? "" : string).compareTo(other == null ? "" : other);
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An {@link AsyncQueryLiveData} which maps every row to an entity and publishes, along with the
+ * list of entities, the updates from the previously published list.
+ *
+ * <p>Rows are identified by a stable id and compared by a content hash, both read from the
+ * cursor. The entity of a row whose id and hash didn't change is reused instead of being created
+ * again, and the updates are computed on the worker thread with {@link DiffUtil}, so a {@code
+ * RecyclerView} adapter can apply them with {@link Result#dispatchUpdatesTo}.
+ *
+ * @param <E> The type of the entity of a row.
+ */
+public abstract class DiffingAsyncQueryLiveData<E> extends
+        AsyncQueryLiveData<DiffingAsyncQueryLiveData.Result<E>> {
+
+    /** The entities of a query and the updates from the previous ones. */
+    public static class Result<E> {
+        private final List<E> mList;
+        @Nullable
+        private final List<E> mPreviousList;
+        private final List<Update> mUpdates;
+        /** The stable ids and content hashes of the rows, the next results are diffed against. */
+        private final long[] mIds;
+        private final int[] mContentHashes;
+
+        private Result(List<E> list, @Nullable List<E> previousList, List<Update> updates,
+                long[] ids, int[] contentHashes) {
+            mList = list;
+            mPreviousList = previousList;
+            mUpdates = updates;
+            mIds = ids;
+            mContentHashes = contentHashes;
+        }
+
+        /** Returns the entities, in the order of the rows. The list must not be modified. */
+        @NonNull
+        public List<E> getList() {
+            return mList;
+        }
+
+        /**
+         * Returns true if the updates apply to the given list. Results can be skipped when the
+         * data changes faster than they are observed, in which case the updates don't apply to
+         * the list an observer has and it should reload the whole list instead.
+         */
+        public boolean isBasedOn(@Nullable List<E> list) {
+            return mPreviousList != null && mPreviousList == list;
+        }
+
+        /**
+         * Returns the updates turning the previous list into {@link #getList()}, in the order
+         * they must be applied.
+         */
+        @NonNull
+        public List<Update> getUpdates() {
+            return mUpdates;
+        }
+
+        /** Dispatches the updates to the callback, for instance a {@code RecyclerView} adapter. */
+        public void dispatchUpdatesTo(@NonNull ListUpdateCallback callback) {
+            for (Update update : mUpdates) {
+                switch (update.mType) {
+                    case Update.INSERTED:
+                        callback.onInserted(update.mPosition, update.mCount);
+                        break;
+                    case Update.REMOVED:
+                        callback.onRemoved(update.mPosition, update.mCount);
+                        break;
+                    case Update.CHANGED:
+                        callback.onChanged(update.mPosition, update.mCount, null);
+                        break;
+                    case Update.MOVED:
+                        callback.onMoved(update.mPosition, update.mToPosition);
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown update type " + update.mType);
+                }
+            }
+        }
+    }
+
+    /** A range of inserted, removed or changed entities, or a moved entity. */
+    public static class Update {
+        public static final int INSERTED = 1;
+        public static final int REMOVED = 2;
+        public static final int CHANGED = 3;
+        public static final int MOVED = 4;
+
+        private final int mType;
+        private final int mPosition;
+        private final int mCount;
+        private final int mToPosition;
+
+        private Update(int type, int position, int count, int toPosition) {
+            mType = type;
+            mPosition = position;
+            mCount = count;
+            mToPosition = toPosition;
+        }
+
+        /** Returns {@link #INSERTED}, {@link #REMOVED}, {@link #CHANGED} or {@link #MOVED}. */
+        public int getType() {
+            return mType;
+        }
+
+        /** Returns the first position of the range, or the position an entity is moved from. */
+        public int getPosition() {
+            return mPosition;
+        }
+
+        /** Returns the size of the range, 1 for a move. */
+        public int getCount() {
+            return mCount;
+        }
+
+        /** Returns the position an entity is moved to, -1 if it is not a move. */
+        public int getToPosition() {
+            return mToPosition;
+        }
+
+        @Override
+        public String toString() {
+            return "Update{type=" + mType + ", position=" + mPosition + ", count=" + mCount
+                    + ", toPosition=" + mToPosition + "}";
+        }
+    }
+
+    /**
+     * The last result set on this LiveData, null if none has been. Results are diffed against it,
+     * so a result which is superseded before being set never becomes the baseline.
+     */
+    @Nullable
+    private volatile Result<E> mPublishedResult;
+
+    public DiffingAsyncQueryLiveData(Context context, QueryParam.Provider provider) {
+        super(context, provider);
+    }
+
+    public DiffingAsyncQueryLiveData(Context context, QueryParam.Provider provider,
+            ExecutorService executorService, RequeryPolicy requeryPolicy) {
+        super(context, provider, executorService, requeryPolicy);
+    }
+
+    /** Returns the stable id of the row the cursor is positioned at. */
+    @WorkerThread
+    protected abstract long getStableId(@NonNull Cursor cursor);
+
+    /**
+     * Returns a hash of the content of the row the cursor is positioned at. A row whose hash
+     * didn't change is considered unchanged and its previous entity is reused.
+     */
+    @WorkerThread
+    protected abstract int getContentHash(@NonNull Cursor cursor);
+
+    /** Creates the entity of the row the cursor is positioned at. */
+    @WorkerThread
+    protected abstract E createEntity(@NonNull Cursor cursor);
+
+    @Override
+    protected final Result<E> convertToEntity(@NonNull Cursor cursor) {
+        Result<E> previousResult = mPublishedResult;
+        long[] previousIds = previousResult == null ? new long[0] : previousResult.mIds;
+        Map<Long, Integer> previousPositions = new HashMap<>(previousIds.length);
+        for (int i = 0; i < previousIds.length; i++) {
+            previousPositions.put(previousIds[i], i);
+        }
+
+        int count = cursor.getCount();
+        List<E> entities = new ArrayList<>(Math.max(count, 0));
+        long[] ids = new long[Math.max(count, 0)];
+        int[] contentHashes = new int[ids.length];
+        cursor.moveToPosition(-1);
+        int position = 0;
+        while (position < ids.length && cursor.moveToNext()) {
+            long id = getStableId(cursor);
+            int contentHash = getContentHash(cursor);
+            Integer previousPosition = previousPositions.get(id);
+            if (previousPosition != null
+                    && previousResult.mContentHashes[previousPosition] == contentHash) {
+                entities.add(previousResult.mList.get(previousPosition));
+            } else {
+                entities.add(createEntity(cursor));
+            }
+            ids[position] = id;
+            contentHashes[position] = contentHash;
+            position++;
+        }
+        if (position < ids.length) {
+            ids = Arrays.copyOf(ids, position);
+            contentHashes = Arrays.copyOf(contentHashes, position);
+        }
+
+        if (previousResult == null) {
+            return new Result<>(Collections.unmodifiableList(entities), null,
+                    Collections.emptyList(), ids, contentHashes);
+        }
+        return new Result<>(Collections.unmodifiableList(entities), previousResult.mList,
+                computeUpdates(previousIds, previousResult.mContentHashes, ids, contentHashes),
+                ids, contentHashes);
+    }
+
+    @Override
+    protected void setValue(@Nullable Result<E> value) {
+        mPublishedResult = value;
+        super.setValue(value);
+    }
+
+    private static List<Update> computeUpdates(long[] oldIds, int[] oldHashes, long[] newIds,
+            int[] newHashes) {
+        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldIds.length;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newIds.length;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldIds[oldPosition] == newIds[newPosition];
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return oldHashes[oldPosition] == newHashes[newPosition];
+            }
+        }, true);
+
+        List<Update> updates = new ArrayList<>();
+        diffResult.dispatchUpdatesTo(new ListUpdateCallback() {
+            @Override
+            public void onInserted(int position, int count) {
+                updates.add(new Update(Update.INSERTED, position, count, -1));
+            }
+
+            @Override
+            public void onRemoved(int position, int count) {
+                updates.add(new Update(Update.REMOVED, position, count, -1));
+            }
+
+            @Override
+            public void onMoved(int fromPosition, int toPosition) {
+                updates.add(new Update(Update.MOVED, fromPosition, 1, toPosition));
+            }
+
+            @Override
+            public void onChanged(int position, int count, @Nullable Object payload) {
+                updates.add(new Update(Update.CHANGED, position, count, -1));
+            }
+        });
+        return updates;
+    }
+}
@@ -18,6 +18,7 @@ package com.android.car.telephony.common;
 
 import static com.google.i18n.phonenumbers.PhoneNumberUtil.MatchType.EXACT_MATCH;
 import static com.google.i18n.phonenumbers.PhoneNumberUtil.MatchType.NSN_MATCH;
+import static com.google.i18n.phonenumbers.PhoneNumberUtil.MatchType.SHORT_NSN_MATCH;
 import static com.google.i18n.phonenumbers.PhoneNumberUtil.PhoneNumberFormat.INTERNATIONAL;
 
 import android.content.Context;
@@ -30,10 +31,16 @@ import androidx.annotation.Nullable;
 import com.google.i18n.phonenumbers.PhoneNumberUtil;
 import com.google.i18n.phonenumbers.Phonenumber;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -42,17 +49,52 @@ import java.util.concurrent.ConcurrentHashMap;
  * an i18n phone number.
  */
 public class I18nPhoneNumberWrapper implements Parcelable {
+    /** The number of trailing digits used by {@link #getSuffixKey()}. */
+    private static final int SUFFIX_KEY_LENGTH = 7;
+
     private final Phonenumber.PhoneNumber mI18nPhoneNumber;
     private final String mRawNumber;
     private final String mNumber;
+    private final String mIndexKey;
 
     private I18nPhoneNumberWrapper(String rawNumber,
             @Nullable Phonenumber.PhoneNumber i18nPhoneNumber) {
+        this(rawNumber, i18nPhoneNumber, (i18nPhoneNumber == null)
+                ? rawNumber
+                : PhoneNumberUtil.getInstance().format(i18nPhoneNumber, INTERNATIONAL));
+    }
+
+    private I18nPhoneNumberWrapper(String rawNumber,
+            @Nullable Phonenumber.PhoneNumber i18nPhoneNumber, String number) {
         mI18nPhoneNumber = i18nPhoneNumber;
         mRawNumber = rawNumber;
-        mNumber = (i18nPhoneNumber == null)
-                ? rawNumber
-                : PhoneNumberUtil.getInstance().format(i18nPhoneNumber, INTERNATIONAL);
+        mNumber = number;
+        mIndexKey = createIndexKey(rawNumber, i18nPhoneNumber);
+    }
+
+    /**
+     * Creates a key out of the fields compared by {@link PhoneNumberUtil#isNumberMatch} for an
+     * {@link PhoneNumberUtil.MatchType#EXACT_MATCH exact match}. Numbers parsed with a default
+     * region always have a country code, so two numbers are {@link #equals(Object) equal} if and
+     * only if their keys are equal.
+     */
+    private static String createIndexKey(String rawNumber,
+            @Nullable Phonenumber.PhoneNumber i18nPhoneNumber) {
+        if (i18nPhoneNumber == null) {
+            return "r" + rawNumber;
+        }
+        StringBuilder key = new StringBuilder();
+        key.append('+').append(i18nPhoneNumber.getCountryCode()).append(' ');
+        if (i18nPhoneNumber.isItalianLeadingZero()) {
+            for (int i = 0; i < i18nPhoneNumber.getNumberOfLeadingZeros(); i++) {
+                key.append('0');
+            }
+        }
+        key.append(i18nPhoneNumber.getNationalNumber());
+        if (i18nPhoneNumber.hasExtension()) {
+            key.append('x').append(i18nPhoneNumber.getExtension());
+        }
+        return key.toString();
     }
 
     @Override
@@ -78,7 +120,55 @@ public class I18nPhoneNumberWrapper implements Parcelable {
         if (mI18nPhoneNumber == null) {
             return Objects.hashCode(mRawNumber);
         }
-        return Objects.hash(mI18nPhoneNumber);
+        // Numbers that match each other always share the same national number while other fields
+        // like the country code source or the raw input might differ.
+        return Long.hashCode(mI18nPhoneNumber.getNationalNumber());
+    }
+
+    /**
+     * Returns a canonical key of this number. Two numbers have the same key if and only if they
+     * are {@link #equals(Object) equal}.
+     */
+    String getIndexKey() {
+        return mIndexKey;
+    }
+
+    /**
+     * Returns the last digits of the national significant number, or of the raw number if it is
+     * not a valid phone number. Numbers that {@link #isShortMatch(I18nPhoneNumberWrapper) match}
+     * each other with or without area code share the same suffix key.
+     */
+    String getSuffixKey() {
+        String digits;
+        if (mI18nPhoneNumber != null) {
+            digits = String.valueOf(mI18nPhoneNumber.getNationalNumber());
+        } else {
+            StringBuilder rawDigits = new StringBuilder();
+            for (int i = 0; i < mRawNumber.length(); i++) {
+                char c = mRawNumber.charAt(i);
+                if (Character.isDigit(c)) {
+                    rawDigits.append(c);
+                }
+            }
+            digits = rawDigits.toString();
+        }
+        return digits.length() > SUFFIX_KEY_LENGTH
+                ? digits.substring(digits.length() - SUFFIX_KEY_LENGTH) : digits;
+    }
+
+    /**
+     * Returns true if this number is {@link #equals(Object) equal} to the other one, or if one's
+     * national significant number is the suffix of the other's, for instance when the area code
+     * is missing.
+     */
+    boolean isShortMatch(I18nPhoneNumberWrapper other) {
+        if (mI18nPhoneNumber == null || other.mI18nPhoneNumber == null) {
+            return equals(other);
+        }
+        PhoneNumberUtil.MatchType matchType = PhoneNumberUtil.getInstance().isNumberMatch(
+                mI18nPhoneNumber, other.mI18nPhoneNumber);
+        return matchType == EXACT_MATCH || matchType == NSN_MATCH
+                || matchType == SHORT_NSN_MATCH;
     }
 
     /**
@@ -106,17 +196,93 @@ public class I18nPhoneNumberWrapper implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
+        CompactParcels.writeVersion(dest);
+        writeFieldsToParcel(dest);
+    }
+
+    /**
+     * Writes this number to a parcel without a version, inside a versioned parcelable. Like the
+     * snapshot, the parsed number is written field by field instead of being serialized.
+     */
+    void writeFieldsToParcel(Parcel dest) {
         dest.writeString(mRawNumber);
-        dest.writeSerializable(mI18nPhoneNumber);
+        dest.writeString(mNumber);
+        dest.writeBoolean(mI18nPhoneNumber != null);
+        if (mI18nPhoneNumber != null) {
+            dest.writeInt(mI18nPhoneNumber.getCountryCode());
+            dest.writeLong(mI18nPhoneNumber.getNationalNumber());
+            dest.writeString(
+                    mI18nPhoneNumber.hasExtension() ? mI18nPhoneNumber.getExtension() : null);
+            dest.writeBoolean(mI18nPhoneNumber.isItalianLeadingZero());
+            dest.writeInt(mI18nPhoneNumber.getNumberOfLeadingZeros());
+        }
+    }
+
+    /** Reads a number written by {@link #writeFieldsToParcel}. */
+    static I18nPhoneNumberWrapper readFieldsFromParcel(Parcel source) {
+        String rawNumber = source.readString();
+        String number = source.readString();
+        Phonenumber.PhoneNumber i18nPhoneNumber = null;
+        if (source.readBoolean()) {
+            i18nPhoneNumber = new Phonenumber.PhoneNumber();
+            i18nPhoneNumber.setCountryCode(source.readInt());
+            i18nPhoneNumber.setNationalNumber(source.readLong());
+            String extension = source.readString();
+            if (extension != null) {
+                i18nPhoneNumber.setExtension(extension);
+            }
+            if (source.readBoolean()) {
+                i18nPhoneNumber.setItalianLeadingZero(true);
+            }
+            i18nPhoneNumber.setNumberOfLeadingZeros(source.readInt());
+        }
+        return new I18nPhoneNumberWrapper(rawNumber, i18nPhoneNumber, number);
+    }
+
+    /**
+     * Writes this number to a {@link PhoneBookSnapshotStore snapshot}. The parsed number is written
+     * field by field so it doesn't need to be parsed and formatted again when read.
+     */
+    void writeToSnapshot(DataOutputStream out) throws IOException {
+        PhoneBookSnapshotStore.writeString(out, mRawNumber);
+        PhoneBookSnapshotStore.writeString(out, mNumber);
+        out.writeBoolean(mI18nPhoneNumber != null);
+        if (mI18nPhoneNumber != null) {
+            out.writeInt(mI18nPhoneNumber.getCountryCode());
+            out.writeLong(mI18nPhoneNumber.getNationalNumber());
+            PhoneBookSnapshotStore.writeString(out,
+                    mI18nPhoneNumber.hasExtension() ? mI18nPhoneNumber.getExtension() : null);
+            out.writeBoolean(mI18nPhoneNumber.isItalianLeadingZero());
+            out.writeInt(mI18nPhoneNumber.getNumberOfLeadingZeros());
+        }
+    }
+
+    /** Reads a number written by {@link #writeToSnapshot}. */
+    static I18nPhoneNumberWrapper readFromSnapshot(ByteBuffer in) {
+        String rawNumber = PhoneBookSnapshotStore.readString(in);
+        String number = PhoneBookSnapshotStore.readString(in);
+        Phonenumber.PhoneNumber i18nPhoneNumber = null;
+        if (in.get() != 0) {
+            i18nPhoneNumber = new Phonenumber.PhoneNumber();
+            i18nPhoneNumber.setCountryCode(in.getInt());
+            i18nPhoneNumber.setNationalNumber(in.getLong());
+            String extension = PhoneBookSnapshotStore.readString(in);
+            if (extension != null) {
+                i18nPhoneNumber.setExtension(extension);
+            }
+            if (in.get() != 0) {
+                i18nPhoneNumber.setItalianLeadingZero(true);
+            }
+            i18nPhoneNumber.setNumberOfLeadingZeros(in.getInt());
+        }
+        return new I18nPhoneNumberWrapper(rawNumber, i18nPhoneNumber, number);
     }
 
     public static Creator<I18nPhoneNumberWrapper> CREATOR = new Creator<I18nPhoneNumberWrapper>() {
         @Override
         public I18nPhoneNumberWrapper createFromParcel(Parcel source) {
-            String rawNumber = source.readString();
-            Phonenumber.PhoneNumber i18nPhoneNumber =
-                    (Phonenumber.PhoneNumber) source.readSerializable();
-            return new I18nPhoneNumberWrapper(rawNumber, i18nPhoneNumber);
+            CompactParcels.readVersion(source, "I18nPhoneNumberWrapper");
+            return readFieldsFromParcel(source);
         }
 
         @Override
@@ -128,12 +294,36 @@ public class I18nPhoneNumberWrapper implements Parcelable {
     /**
      * Caches {@link WeakReference} of {@link I18nPhoneNumberWrapper}s to avoid creating same object
      * over and over again. It will avoid too many instances getting created during contact sync.
+     *
+     * <p>Cleared references are purged through a {@link ReferenceQueue} instead of scanning the
+     * pool, and the pool is bounded to {@link #MAX_POOL_SIZE} entries, dropping the least recently
+     * used first. Numbers are only parsed and formatted when they are not in the pool.
      */
     public enum Factory {
         INSTANCE;
 
-        private final Map<String, WeakReference<I18nPhoneNumberWrapper>> mRecycledPool =
-                new ConcurrentHashMap<>();
+        /** The maximum number of raw numbers cached. */
+        private static final int MAX_POOL_SIZE = 16 * 1024;
+
+        /** In access order, guarded by itself. */
+        private final Map<String, KeyedWeakReference> mRecycledPool =
+                new LinkedHashMap<String, KeyedWeakReference>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(
+                            Map.Entry<String, KeyedWeakReference> eldest) {
+                        if (size() > MAX_POOL_SIZE) {
+                            mEvictionCount.incrementAndGet();
+                            return true;
+                        }
+                        return false;
+                    }
+                };
+        private final ReferenceQueue<I18nPhoneNumberWrapper> mReferenceQueue =
+                new ReferenceQueue<>();
+        private final AtomicLong mHitCount = new AtomicLong();
+        private final AtomicLong mMissCount = new AtomicLong();
+        private final AtomicLong mEvictionCount = new AtomicLong();
+
         /**
          * Returns cached {@link I18nPhoneNumberWrapper} for the given {@code rawNumber}. It will
          * create a new instance if not present.
@@ -142,27 +332,92 @@ public class I18nPhoneNumberWrapper implements Parcelable {
          *                  {@link #getNumber()} will return a formatted number.
          */
         public I18nPhoneNumberWrapper get(@NonNull Context context, @NonNull String rawNumber) {
-            for (String key : mRecycledPool.keySet()) {
-                if (mRecycledPool.get(key).get() == null) {
-                    mRecycledPool.remove(key);
-                }
-            }
-            WeakReference<I18nPhoneNumberWrapper> existingReference = mRecycledPool.get(rawNumber);
-            I18nPhoneNumberWrapper i18nPhoneNumberWrapper =
-                    existingReference == null ? null : existingReference.get();
-            if (i18nPhoneNumberWrapper == null) {
-                i18nPhoneNumberWrapper = create(context, rawNumber);
-                mRecycledPool.put(rawNumber, new WeakReference<>(i18nPhoneNumberWrapper));
+            purgeClearedReferences();
+            I18nPhoneNumberWrapper i18nPhoneNumberWrapper = getPooled(rawNumber);
+            if (i18nPhoneNumberWrapper != null) {
+                mHitCount.incrementAndGet();
                 return i18nPhoneNumberWrapper;
             }
+
+            // Parsed out of the lock, other numbers can be looked up meanwhile.
+            mMissCount.incrementAndGet();
+            i18nPhoneNumberWrapper = create(context, rawNumber);
+            synchronized (mRecycledPool) {
+                I18nPhoneNumberWrapper existingWrapper = getPooled(rawNumber);
+                if (existingWrapper != null) {
+                    // Another thread created the same number at the same time.
+                    return existingWrapper;
+                }
+                mRecycledPool.put(rawNumber, new KeyedWeakReference(rawNumber,
+                        i18nPhoneNumberWrapper, mReferenceQueue));
+            }
             return i18nPhoneNumberWrapper;
         }
 
+        /** Returns the number of times {@link #get} returned a cached instance. */
+        public long getHitCount() {
+            return mHitCount.get();
+        }
+
+        /** Returns the number of times {@link #get} had to create a new instance. */
+        public long getMissCount() {
+            return mMissCount.get();
+        }
+
+        /**
+         * Returns the number of entries removed from the pool, either because the instance has
+         * been garbage collected or because the pool was full.
+         */
+        public long getEvictionCount() {
+            return mEvictionCount.get();
+        }
+
+        /** Returns the number of raw numbers currently in the pool. */
+        public int size() {
+            synchronized (mRecycledPool) {
+                return mRecycledPool.size();
+            }
+        }
+
+        /** Returns the pooled instance of the number and marks it as recently used. */
+        @Nullable
+        private I18nPhoneNumberWrapper getPooled(String rawNumber) {
+            synchronized (mRecycledPool) {
+                KeyedWeakReference reference = mRecycledPool.get(rawNumber);
+                return reference == null ? null : reference.get();
+            }
+        }
+
         /** Create a new instance. */
         private I18nPhoneNumberWrapper create(@NonNull Context context, @NonNull String rawNumber) {
             Phonenumber.PhoneNumber i18nPhoneNumber = TelecomUtils.createI18nPhoneNumber(context,
                     rawNumber);
             return new I18nPhoneNumberWrapper(rawNumber, i18nPhoneNumber);
         }
+
+        /** Removes the entries whose instances have been garbage collected. */
+        private void purgeClearedReferences() {
+            Reference<? extends I18nPhoneNumberWrapper> reference;
+            while ((reference = mReferenceQueue.poll()) != null) {
+                KeyedWeakReference keyedReference = (KeyedWeakReference) reference;
+                synchronized (mRecycledPool) {
+                    // The entry might already hold a new reference for the same number.
+                    if (mRecycledPool.remove(keyedReference.mKey, keyedReference)) {
+                        mEvictionCount.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /** A {@link WeakReference} that remembers its key in the pool once it has been cleared. */
+    private static final class KeyedWeakReference extends WeakReference<I18nPhoneNumberWrapper> {
+        private final String mKey;
+
+        private KeyedWeakReference(String key, I18nPhoneNumberWrapper referent,
+                ReferenceQueue<I18nPhoneNumberWrapper> queue) {
+            super(referent, queue);
+            mKey = key;
+        }
     }
 }
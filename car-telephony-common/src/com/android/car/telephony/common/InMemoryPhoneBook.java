@@ -17,53 +17,117 @@
 package com.android.car.telephony.common;
 
 import android.Manifest;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.ContactsContract;
 import android.text.TextUtils;
-import android.util.ArrayMap;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
 import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MediatorLiveData;
+import androidx.lifecycle.MutableLiveData;
 import androidx.lifecycle.Observer;
 import androidx.lifecycle.Transformations;
 
 import com.android.car.apps.common.log.L;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * A singleton statically accessible helper class which pre-loads contacts list into memory so that
  * they can be accessed more easily and quickly.
+ *
+ * <p>After the first load, contacts are synced incrementally: only the contacts whose {@link
+ * ContactsContract.Data#CONTACT_LAST_UPDATED_TIMESTAMP} changed since the last sync are reloaded,
+ * and contacts recorded in {@link ContactsContract.DeletedContacts} are dropped.
  */
-public class InMemoryPhoneBook implements Observer<List<Contact>> {
+public class InMemoryPhoneBook implements Observer<ContactChangeSet> {
     private static final String TAG = "CD.InMemoryPhoneBook";
     private static InMemoryPhoneBook sInMemoryPhoneBook;
 
-    private final Context mContext;
-    private final AsyncQueryLiveData<List<Contact>> mContactListAsyncQueryLiveData;
+    private static final String CONTACT_MIMETYPE_SELECTION = "("
+            + ContactsContract.Data.MIMETYPE + " = ? OR "
+            + ContactsContract.Data.MIMETYPE + " = ? OR "
+            + ContactsContract.Data.MIMETYPE + " = ?)";
+    private static final String[] CONTACT_MIMETYPE_SELECTION_ARGS = new String[]{
+            ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
+            ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE};
+    private static final String CONTACT_ORDER_BY = ContactsContract.Contacts.DISPLAY_NAME + " ASC ";
+    /** The snapshot is written at most once per interval while contacts keep changing. */
+    private static final long MIN_SNAPSHOT_INTERVAL_MS = 60 * 1000;
     /**
-     * A map to speed up phone number searching.
+     * PBAP syncs notify a change for every contact they write. Let the running query complete and
+     * the notifications settle before querying again.
      */
-    private final Map<I18nPhoneNumberWrapper, Contact> mPhoneNumberContactMap = new HashMap<>();
+    private static final RequeryPolicy CONTACT_REQUERY_POLICY =
+            new RequeryPolicy(500, 3000, true);
+
+    private final Context mContext;
+    private final boolean mIsIncrementalSyncEnabled;
+    private final ContactLoader mContactLoader;
+    private final ExecutorService mExecutorService;
+    private final ContactChangeSetLiveData mContactChangeSetLiveData;
+    @Nullable
+    private final PhoneBookSnapshotStore mSnapshotStore;
     /**
-     * A map to look up contact by account name and lookup key. Each entry presents a map of lookup
-     * key to contacts for one account.
+     * The loaded contacts and their indexes. A sync or a locale change builds a new state on the
+     * loading thread and replaces this one at once, so readers on any thread get a consistent
+     * view of all the indexes without locking.
      */
-    private final Map<String, Map<String, Contact>> mLookupKeyContactMap = new HashMap<>();
+    private volatile PhoneBookState mState = PhoneBookState.EMPTY;
+    /** Emits after the sorted lists have been sorted again for a new locale. */
+    private final MutableLiveData<Locale> mSortLocaleLiveData = new MutableLiveData<>();
+    private final BroadcastReceiver mLocaleChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mExecutorService.execute(InMemoryPhoneBook.this::sortAllContacts);
+        }
+    };
+    private volatile boolean mIsLoaded = false;
 
     /**
-     * A map which divides contacts by account.
+     * The latest {@link ContactsContract.Data#CONTACT_LAST_UPDATED_TIMESTAMP} that has been
+     * synced. 0 if contacts have never been loaded. Written on the loading thread and read on the
+     * main thread to build the next query.
+     */
+    private volatile long mLastUpdatedTimestamp = 0;
+    /**
+     * The latest {@link ContactsContract.DeletedContacts#CONTACT_DELETED_TIMESTAMP} that has been
+     * synced. Only accessed on the loading thread.
+     */
+    private long mLastDeletedTimestamp = 0;
+    /**
+     * The wall clock time of the last sync, after which the deleted contacts not synced yet have
+     * been deleted. Only accessed on the loading thread.
      */
-    private final Map<String, List<Contact>> mAccountContactsMap = new ArrayMap<>();
-    private boolean mIsLoaded = false;
+    private long mLastSyncTime = 0;
+    /**
+     * The time the snapshot was last written, and whether contacts changed since then. Only
+     * accessed on the loading thread.
+     */
+    private long mLastSnapshotTime = 0;
+    private boolean mIsSnapshotDirty = false;
+    private boolean mIsTornDown = false;
 
     /**
      * Initialize the globally accessible {@link InMemoryPhoneBook}. Returns the existing {@link
@@ -71,8 +135,35 @@ public class InMemoryPhoneBook implements Observer<List<Contact>> {
      * reinitialize.
      */
     public static InMemoryPhoneBook init(Context context) {
+        return init(context, true);
+    }
+
+    /**
+     * Initialize the globally accessible {@link InMemoryPhoneBook}. Returns the existing {@link
+     * InMemoryPhoneBook} if already initialized. {@link #tearDown()} must be called before init to
+     * reinitialize.
+     *
+     * @param incrementalSync if false, every change of the contacts provider reloads all contacts.
+     */
+    public static InMemoryPhoneBook init(Context context, boolean incrementalSync) {
+        return init(context, incrementalSync, false);
+    }
+
+    /**
+     * Initialize the globally accessible {@link InMemoryPhoneBook}. Returns the existing {@link
+     * InMemoryPhoneBook} if already initialized. {@link #tearDown()} must be called before init to
+     * reinitialize.
+     *
+     * @param incrementalSync if false, every change of the contacts provider reloads all contacts.
+     * @param useSnapshot     if true, the contacts are persisted on disk and restored on the next
+     *                        init, so they can be looked up before the contacts provider has been
+     *                        queried again. The restored contacts are then patched with the
+     *                        changes made since they were persisted.
+     */
+    public static InMemoryPhoneBook init(Context context, boolean incrementalSync,
+            boolean useSnapshot) {
         if (sInMemoryPhoneBook == null) {
-            sInMemoryPhoneBook = new InMemoryPhoneBook(context);
+            sInMemoryPhoneBook = new InMemoryPhoneBook(context, incrementalSync, useSnapshot);
             sInMemoryPhoneBook.onInit();
         }
         return get();
@@ -107,36 +198,57 @@ public class InMemoryPhoneBook implements Observer<List<Contact>> {
         sInMemoryPhoneBook = null;
     }
 
-    private InMemoryPhoneBook(Context context) {
+    private InMemoryPhoneBook(Context context, boolean incrementalSync, boolean useSnapshot) {
         mContext = context;
+        mIsIncrementalSyncEnabled = incrementalSync;
+        mContactLoader = new ContactLoader(context);
+        // Syncs can take seconds, they don't delay the queries of the screens or caller ids.
+        mExecutorService = WorkerExecutor.getInstance().getExecutor(WorkerExecutor.Priority.BULK);
+        mSnapshotStore = useSnapshot ? new PhoneBookSnapshotStore(context) : null;
 
-        QueryParam contactListQueryParam = new QueryParam(
-                ContactsContract.Data.CONTENT_URI,
-                null,
-                ContactsContract.Data.MIMETYPE + " = ? OR "
-                        + ContactsContract.Data.MIMETYPE + " = ? OR "
-                        + ContactsContract.Data.MIMETYPE + " = ?",
-                new String[]{
-                        ContactsContract.CommonDataKinds.Phone.CONTENT_ITEM_TYPE,
-                        ContactsContract.CommonDataKinds.StructuredName.CONTENT_ITEM_TYPE,
-                        ContactsContract.CommonDataKinds.StructuredPostal.CONTENT_ITEM_TYPE},
-                ContactsContract.Contacts.DISPLAY_NAME + " ASC ",
-                Manifest.permission.READ_CONTACTS);
-        mContactListAsyncQueryLiveData = new AsyncQueryLiveData<List<Contact>>(mContext,
-                QueryParam.of(contactListQueryParam), Executors.newSingleThreadExecutor()) {
-            @Override
-            protected List<Contact> convertToEntity(Cursor cursor) {
-                return onCursorLoaded(cursor);
-            }
-        };
+        mContactChangeSetLiveData = new ContactChangeSetLiveData();
     }
 
     private void onInit() {
-        mContactListAsyncQueryLiveData.observeForever(this);
+        mContext.registerReceiver(mLocaleChangedReceiver,
+                new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+        if (mSnapshotStore == null) {
+            mContactChangeSetLiveData.observeForever(this);
+            return;
+        }
+
+        // Restore the snapshot before the first query, so that query only loads the contacts
+        // changed since the snapshot has been taken.
+        Handler mainHandler = new Handler(Looper.getMainLooper());
+        mExecutorService.execute(() -> {
+            restoreSnapshot();
+            mainHandler.post(() -> {
+                if (!mIsTornDown) {
+                    mContactChangeSetLiveData.observeForever(this);
+                }
+            });
+        });
     }
 
     private void onTearDown() {
-        mContactListAsyncQueryLiveData.removeObserver(this);
+        mIsTornDown = true;
+        mContactChangeSetLiveData.removeObserver(this);
+        mContext.unregisterReceiver(mLocaleChangedReceiver);
+        // Runs after the loads already queued, which still use the loader.
+        try {
+            mExecutorService.execute(() -> {
+                if (mSnapshotStore != null && mIsSnapshotDirty) {
+                    saveSnapshot();
+                }
+                mContactLoader.shutdown();
+            });
+        } catch (RejectedExecutionException e) {
+            // The WorkerExecutor has been torn down first. The loads already queued still run,
+            // they load sequentially once the loader is shut down. The snapshot isn't saved, the
+            // next start restores the previous one and syncs the changes made since.
+            L.w(TAG, "WorkerExecutor torn down before the phone book, snapshot not saved.");
+            mContactLoader.shutdown();
+        }
     }
 
     public boolean isLoaded() {
@@ -150,19 +262,78 @@ public class InMemoryPhoneBook implements Observer<List<Contact>> {
      */
     @Deprecated
     public LiveData<List<Contact>> getContactsLiveData() {
-        return mContactListAsyncQueryLiveData;
+        return Transformations.map(mContactChangeSetLiveData,
+                changeSet -> changeSet == null ? null : getAllContacts());
+    }
+
+    /**
+     * Returns a {@link LiveData} which emits a {@link ContactChangeSet} after every sync. Observers
+     * that keep their own copy of the contacts can apply the changes instead of reloading all the
+     * contacts.
+     */
+    public LiveData<ContactChangeSet> getContactChangeSetLiveData() {
+        return mContactChangeSetLiveData;
     }
 
     /**
-     * Returns a LiveData that represents all contacts within an account.
+     * Returns a LiveData that represents all contacts within an account. A new list is emitted only
+     * when the contacts of the account have been changed.
      *
      * @param accountName the name of an account that contains all the contacts. For the contacts
      *                    from a Bluetooth connected phone, the account name is equal to the
      *                    Bluetooth address.
      */
     public LiveData<List<Contact>> getContactsLiveDataByAccount(String accountName) {
-        return Transformations.map(mContactListAsyncQueryLiveData,
-                contacts -> contacts == null ? null : mAccountContactsMap.get(accountName));
+        MediatorLiveData<List<Contact>> contactsLiveData = new MediatorLiveData<>();
+        contactsLiveData.addSource(mContactChangeSetLiveData, changeSet -> {
+            if (changeSet == null) {
+                contactsLiveData.setValue(null);
+            } else if (changeSet.isFullReload() || contactsLiveData.getValue() == null
+                    || changeSet.getAffectedAccounts().contains(accountName)) {
+                contactsLiveData.setValue(mState.getAccountContacts(accountName));
+            }
+        });
+        return contactsLiveData;
+    }
+
+    /**
+     * Returns a LiveData that represents all contacts within an account, sorted by the given sort
+     * method. A new list is emitted when the contacts of the account have been changed or when the
+     * locale changed. The lists are sorted on a background thread and must not be modified.
+     *
+     * @param accountName the name of an account that contains all the contacts.
+     * @param sortMethod  either {@link TelecomUtils#SORT_BY_FIRST_NAME} or {@link
+     *                    TelecomUtils#SORT_BY_LAST_NAME}.
+     */
+    public LiveData<List<Contact>> getSortedContactsLiveDataByAccount(String accountName,
+            Integer sortMethod) {
+        MediatorLiveData<List<Contact>> contactsLiveData = new MediatorLiveData<>();
+        contactsLiveData.addSource(mContactChangeSetLiveData, changeSet -> {
+            if (changeSet == null) {
+                contactsLiveData.setValue(null);
+            } else if (changeSet.isFullReload() || contactsLiveData.getValue() == null
+                    || changeSet.getAffectedAccounts().contains(accountName)) {
+                contactsLiveData.setValue(getSortedContacts(accountName, sortMethod));
+            }
+        });
+        contactsLiveData.addSource(mSortLocaleLiveData, locale -> {
+            if (contactsLiveData.getValue() != null) {
+                contactsLiveData.setValue(getSortedContacts(accountName, sortMethod));
+            }
+        });
+        return contactsLiveData;
+    }
+
+    /**
+     * Returns the contacts of an account sorted by the given sort method, null if the account has
+     * no contacts. The list must not be modified.
+     *
+     * @param sortMethod either {@link TelecomUtils#SORT_BY_FIRST_NAME} or {@link
+     *                   TelecomUtils#SORT_BY_LAST_NAME}.
+     */
+    @Nullable
+    public List<Contact> getSortedContacts(String accountName, Integer sortMethod) {
+        return mState.getSortedContacts(accountName, TelecomUtils.isSortByFirstName(sortMethod));
     }
 
     /**
@@ -183,7 +354,7 @@ public class InMemoryPhoneBook implements Observer<List<Contact>> {
 
         I18nPhoneNumberWrapper i18nPhoneNumber = I18nPhoneNumberWrapper.Factory.INSTANCE.get(
                 mContext, phoneNumber);
-        return mPhoneNumberContactMap.get(i18nPhoneNumber);
+        return mState.getByPhoneNumber(i18nPhoneNumber);
     }
 
     /**
@@ -199,17 +370,13 @@ public class InMemoryPhoneBook implements Observer<List<Contact>> {
             L.w(TAG, "looking up an empty lookup key.");
             return null;
         }
-        if (mLookupKeyContactMap.containsKey(accountName)) {
-            return mLookupKeyContactMap.get(accountName).get(lookupKey);
-        }
-
-        return null;
+        return mState.getByLookupKey(lookupKey, accountName);
     }
 
     /**
-     * Iterates all the accounts and returns a list of contacts that match the lookup key. This API
-     * is discouraged to use whenever the account name is available where {@link
-     * #lookupContactByKey(String, String)} should be used instead.
+     * Returns the contacts of all the accounts that match the lookup key. This API is discouraged
+     * to use whenever the account name is available where {@link #lookupContactByKey(String,
+     * String)} should be used instead.
      */
     @NonNull
     public List<Contact> lookupContactByKey(String lookupKey) {
@@ -221,60 +388,412 @@ public class InMemoryPhoneBook implements Observer<List<Contact>> {
             L.w(TAG, "looking up an empty lookup key.");
             return Collections.emptyList();
         }
-        List<Contact> results = new ArrayList<>();
-        // Iterate all the accounts to get all the match contacts with given lookup key.
-        for (Map<String, Contact> subMap : mLookupKeyContactMap.values()) {
-            if (subMap.containsKey(lookupKey)) {
-                results.add(subMap.get(lookupKey));
+        return mState.getByLookupKey(lookupKey);
+    }
+
+    /**
+     * Looks up the contacts of all the accounts for many lookup keys at once, for instance for the
+     * participants of a conversation. All the contacts are looked up in the same sync. Returns the
+     * contacts by lookup key, without the lookup keys which match no contact.
+     */
+    @NonNull
+    public Map<String, List<Contact>> lookupContactsByKeys(@NonNull Collection<String> lookupKeys) {
+        if (!isLoaded()) {
+            L.w(TAG, "looking up contacts while loading.");
+        }
+        return mState.getByLookupKeys(lookupKeys);
+    }
+
+    /**
+     * Looks up the contacts of an account for many lookup keys at once. All the contacts are
+     * looked up in the same sync. Returns the contacts by lookup key, without the lookup keys
+     * which match no contact.
+     *
+     * @param accountName the account of the contacts, null for the locally added contacts.
+     */
+    @NonNull
+    public Map<String, Contact> lookupContactsByKeys(@NonNull Collection<String> lookupKeys,
+            @Nullable String accountName) {
+        if (!isLoaded()) {
+            L.w(TAG, "looking up contacts while loading.");
+        }
+        return mState.getByLookupKeys(lookupKeys, accountName);
+    }
+
+    /**
+     * Searches the contacts of all accounts. See {@link #searchContacts(String, String, int)}.
+     */
+    @NonNull
+    public List<Contact> searchContacts(String query, int maxResults) {
+        if (TextUtils.isEmpty(query)) {
+            return Collections.emptyList();
+        }
+        return mState.getSearchIndex().search(query, maxResults, null);
+    }
+
+    /**
+     * Returns at most {@code maxResults} contacts of the given account matching the query, best
+     * matches first. A contact matches if every word of the query is the beginning of a word of its
+     * name, of its transliterated name, of the T9 digits of its name or of one of its phone
+     * numbers. Returns an empty list if the {@link InMemoryPhoneBook} is still loading.
+     *
+     * @param accountName the account of the contacts, null for the locally added contacts.
+     */
+    @NonNull
+    public List<Contact> searchContacts(String query, @Nullable String accountName,
+            int maxResults) {
+        if (TextUtils.isEmpty(query)) {
+            return Collections.emptyList();
+        }
+        return mState.getSearchIndex().search(query, maxResults,
+                contactAccountName -> TextUtils.equals(contactAccountName, accountName));
+    }
+
+    private List<Contact> getAllContacts() {
+        return mState.getAllContacts();
+    }
+
+    /**
+     * Returns the query for all the contacts if they have never been loaded, otherwise the query
+     * for the contacts updated since the last sync.
+     */
+    private QueryParam getContactListQueryParam() {
+        long lastUpdatedTimestamp = mIsIncrementalSyncEnabled ? mLastUpdatedTimestamp : 0;
+        if (lastUpdatedTimestamp <= 0) {
+            return createContactListQueryParam(null, CONTACT_MIMETYPE_SELECTION_ARGS);
+        }
+
+        // The timestamp is inclusive so that contacts updated in the same millisecond as the last
+        // synced one are not missed. Reloading a contact twice is harmless.
+        String[] selectionArgs = new String[CONTACT_MIMETYPE_SELECTION_ARGS.length + 1];
+        System.arraycopy(CONTACT_MIMETYPE_SELECTION_ARGS, 0, selectionArgs, 0,
+                CONTACT_MIMETYPE_SELECTION_ARGS.length);
+        selectionArgs[selectionArgs.length - 1] = String.valueOf(lastUpdatedTimestamp);
+        return createContactListQueryParam(
+                ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP + " >= ?", selectionArgs);
+    }
+
+    private static QueryParam createContactListQueryParam(@Nullable String extraSelection,
+            String[] selectionArgs) {
+        String selection = extraSelection == null
+                ? CONTACT_MIMETYPE_SELECTION
+                : CONTACT_MIMETYPE_SELECTION + " AND " + extraSelection;
+        return new QueryParam(
+                ContactsContract.Data.CONTENT_URI,
+                null,
+                selection,
+                selectionArgs,
+                CONTACT_ORDER_BY,
+                Manifest.permission.READ_CONTACTS);
+    }
+
+    @WorkerThread
+    private ContactChangeSet onCursorLoaded(Cursor cursor) {
+        // The timestamp only grows on this thread, so a cursor queried with an older timestamp
+        // contains a superset of the changes and can be applied as a delta safely. It is 0 only
+        // if every query so far has been a full query.
+        long lastUpdatedTimestamp = mLastUpdatedTimestamp;
+        ContactChangeSet changeSet = loadContacts(cursor, lastUpdatedTimestamp,
+                System.currentTimeMillis());
+        if (mSnapshotStore != null && !changeSet.isEmpty()) {
+            mIsSnapshotDirty = true;
+            if (System.currentTimeMillis() - mLastSnapshotTime > MIN_SNAPSHOT_INTERVAL_MS) {
+                saveSnapshot();
+            }
+        }
+        return changeSet;
+    }
+
+    private ContactChangeSet loadContacts(Cursor cursor, long lastUpdatedTimestamp,
+            long syncTime) {
+        if (!mIsIncrementalSyncEnabled || lastUpdatedTimestamp <= 0) {
+            return loadAllContacts(cursor, syncTime);
+        }
+
+        // The provider purges deleted contacts by the time they were deleted, which can't be
+        // earlier than the last sync. The timestamps of the contacts may be much older.
+        if (syncTime - mLastSyncTime > ContactsContract.DeletedContacts.DAYS_KEEP_MILLIS) {
+            // Deleted contacts might have been purged from the provider, reload everything.
+            L.i(TAG, "Last sync is too old, reloading all contacts.");
+            try (Cursor fullCursor = queryContactList(
+                    createContactListQueryParam(null, CONTACT_MIMETYPE_SELECTION_ARGS))) {
+                if (fullCursor != null) {
+                    return loadAllContacts(fullCursor, syncTime);
+                }
             }
         }
 
-        return results;
+        return applyContactChanges(cursor, lastUpdatedTimestamp, syncTime);
     }
 
-    private List<Contact> onCursorLoaded(Cursor cursor) {
+    private ContactChangeSet loadAllContacts(Cursor cursor, long syncTime) {
         Map<String, Map<String, Contact>> contactMap = new LinkedHashMap<>();
-        List<Contact> contactList = new ArrayList<>();
+        long lastUpdatedTimestamp = mContactLoader.load(cursor, contactMap);
+        // Contacts deleted after this load have a deleted timestamp later than the latest update.
+        return setAllContacts(contactMap, lastUpdatedTimestamp, lastUpdatedTimestamp, syncTime);
+    }
 
-        while (cursor.moveToNext()) {
-            int accountNameColumn = cursor.getColumnIndex(
-                    ContactsContract.RawContacts.ACCOUNT_NAME);
-            int lookupKeyColumn = cursor.getColumnIndex(ContactsContract.Data.LOOKUP_KEY);
-            String accountName = cursor.getString(accountNameColumn);
-            String lookupKey = cursor.getString(lookupKeyColumn);
+    /** Replaces all the loaded contacts. */
+    private ContactChangeSet setAllContacts(Map<String, Map<String, Contact>> contactMap,
+            long lastUpdatedTimestamp, long lastDeletedTimestamp, long syncTime) {
+        PhoneBookState state = PhoneBookState.create(contactMap);
+        mState = state;
+
+        mLastDeletedTimestamp = lastDeletedTimestamp;
+        mLastUpdatedTimestamp = lastUpdatedTimestamp;
+        mLastSyncTime = syncTime;
+        return new ContactChangeSet(true, state.getAllContacts(), Collections.emptyList(),
+                Collections.emptyList(), new HashSet<>(contactMap.keySet()));
+    }
 
-            if (!contactMap.containsKey(accountName)) {
-                contactMap.put(accountName, new HashMap<>());
+    /**
+     * Patches the loaded contacts with the contacts updated or deleted since {@code
+     * lastUpdatedTimestamp}.
+     */
+    private ContactChangeSet applyContactChanges(Cursor cursor, long lastUpdatedTimestamp,
+            long syncTime) {
+        Map<String, Map<String, Contact>> changedContactMap = new HashMap<>();
+        long latestUpdatedTimestamp = Math.max(lastUpdatedTimestamp,
+                mContactLoader.load(cursor, changedContactMap));
+
+        // Contacts which have been updated but no longer have any row loaded by the contact list
+        // query are not in the cursor. Find them by id, bounded by the latest timestamp in the
+        // cursor so contacts updated after the cursor was queried are kept until the next sync.
+        Set<Long> staleContactIds = queryContactIds(ContactsContract.Contacts.CONTENT_URI,
+                ContactsContract.Contacts._ID,
+                ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " >= ? AND "
+                        + ContactsContract.Contacts.CONTACT_LAST_UPDATED_TIMESTAMP + " <= ?",
+                new String[]{String.valueOf(lastUpdatedTimestamp),
+                        String.valueOf(latestUpdatedTimestamp)},
+                null);
+        long[] deletedTimestamp = new long[]{mLastDeletedTimestamp};
+        Set<Long> deletedContactIds = queryContactIds(
+                ContactsContract.DeletedContacts.CONTENT_URI,
+                ContactsContract.DeletedContacts.CONTACT_ID,
+                ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP + " >= ?",
+                new String[]{String.valueOf(mLastDeletedTimestamp)},
+                deletedTimestamp);
+
+        List<Contact> addedContacts = new ArrayList<>();
+        List<Contact> updatedContacts = new ArrayList<>();
+        List<Contact> removedContacts = new ArrayList<>();
+
+        for (Map<String, Contact> subMap : changedContactMap.values()) {
+            for (Contact contact : subMap.values()) {
+                staleContactIds.add(contact.getId());
             }
+        }
 
-            Map<String, Contact> subMap = contactMap.get(accountName);
-            subMap.put(lookupKey, Contact.fromCursor(mContext, cursor, subMap.get(lookupKey)));
+        // Drop the stale contacts first, then put back the reloaded ones and finally drop the
+        // deleted ones in case a contact got deleted after the cursor was queried. The changes are
+        // made to a copy of the state, published at once when they are all made.
+        PhoneBookState.Editor editor = mState.edit();
+        Map<String, Contact> staleContacts = new HashMap<>();
+        for (String accountName : new ArrayList<>(editor.getAccounts())) {
+            List<String> staleLookupKeys = new ArrayList<>();
+            for (Contact contact : editor.getContacts(accountName)) {
+                if (staleContactIds.contains(contact.getId())) {
+                    staleLookupKeys.add(contact.getLookupKey());
+                }
+            }
+            for (String lookupKey : staleLookupKeys) {
+                Contact staleContact = editor.remove(accountName, lookupKey);
+                staleContacts.put(getContactKey(accountName, lookupKey), staleContact);
+            }
         }
 
-        mAccountContactsMap.clear();
-        for (String accountName : contactMap.keySet()) {
-            Map<String, Contact> subMap = contactMap.get(accountName);
-            contactList.addAll(subMap.values());
-            List<Contact> accountContacts = new ArrayList<>();
-            accountContacts.addAll(subMap.values());
-            mAccountContactsMap.put(accountName, accountContacts);
+        for (Map.Entry<String, Map<String, Contact>> entry : changedContactMap.entrySet()) {
+            String accountName = entry.getKey();
+            for (Contact contact : entry.getValue().values()) {
+                Contact oldContact = editor.put(accountName, contact);
+                if (oldContact == null) {
+                    oldContact = staleContacts.remove(
+                            getContactKey(accountName, contact.getLookupKey()));
+                }
+                if (oldContact == null) {
+                    addedContacts.add(contact);
+                } else {
+                    updatedContacts.add(contact);
+                }
+            }
+        }
+        removedContacts.addAll(staleContacts.values());
+
+        if (!deletedContactIds.isEmpty()) {
+            for (String accountName : new ArrayList<>(editor.getAccounts())) {
+                List<Contact> deletedContacts = new ArrayList<>();
+                for (Contact contact : editor.getContacts(accountName)) {
+                    if (deletedContactIds.contains(contact.getId())) {
+                        deletedContacts.add(contact);
+                    }
+                }
+                for (Contact contact : deletedContacts) {
+                    editor.remove(accountName, contact.getLookupKey());
+                    if (!addedContacts.remove(contact) && !updatedContacts.remove(contact)) {
+                        removedContacts.add(contact);
+                    }
+                }
+            }
         }
 
-        mLookupKeyContactMap.clear();
-        mLookupKeyContactMap.putAll(contactMap);
+        Set<String> affectedAccounts = new HashSet<>(editor.getAffectedAccounts());
+        mState = editor.build();
 
-        mPhoneNumberContactMap.clear();
-        for (Contact contact : contactList) {
-            for (PhoneNumber phoneNumber : contact.getNumbers()) {
-                mPhoneNumberContactMap.put(phoneNumber.getI18nPhoneNumberWrapper(), contact);
+        mLastDeletedTimestamp = deletedTimestamp[0];
+        mLastUpdatedTimestamp = latestUpdatedTimestamp;
+        mLastSyncTime = syncTime;
+        ContactChangeSet changeSet = new ContactChangeSet(false, addedContacts, updatedContacts,
+                removedContacts, affectedAccounts);
+        L.d(TAG, "Contacts synced: " + changeSet);
+        return changeSet;
+    }
+
+    @WorkerThread
+    private void restoreSnapshot() {
+        PhoneBookSnapshotStore.Snapshot snapshot = mSnapshotStore.read();
+        if (snapshot == null) {
+            return;
+        }
+        ContactChangeSet changeSet = setAllContacts(snapshot.mContactMap,
+                mIsIncrementalSyncEnabled ? snapshot.mLastUpdatedTimestamp : 0,
+                snapshot.mLastDeletedTimestamp, snapshot.mLastSyncTime);
+        mLastSnapshotTime = System.currentTimeMillis();
+        L.i(TAG, "Restored contacts from snapshot: " + changeSet);
+        mContactChangeSetLiveData.publish(changeSet);
+    }
+
+    @WorkerThread
+    private void saveSnapshot() {
+        mSnapshotStore.write(mState.getAccountContactsMap(), mLastUpdatedTimestamp,
+                mLastDeletedTimestamp, mLastSyncTime);
+        mLastSnapshotTime = System.currentTimeMillis();
+        mIsSnapshotDirty = false;
+    }
+
+    /** Sorts all the contacts again after the locale changed. */
+    @WorkerThread
+    private void sortAllContacts() {
+        mState = mState.sortAgain();
+        mSortLocaleLiveData.postValue(Locale.getDefault());
+    }
+
+    private static String getContactKey(String accountName, String lookupKey) {
+        return accountName + "/" + lookupKey;
+    }
+
+    @Nullable
+    private Cursor queryContactList(QueryParam queryParam) {
+        return mContext.getContentResolver().query(queryParam.mUri, queryParam.mProjection,
+                queryParam.mSelection, queryParam.mSelectionArgs, queryParam.mOrderBy);
+    }
+
+    /**
+     * Queries the contact ids in {@code idColumn} of the given uri. If {@code latestTimestamp} is
+     * not null, its first element is updated with the latest {@link
+     * ContactsContract.DeletedContacts#CONTACT_DELETED_TIMESTAMP} found.
+     */
+    private Set<Long> queryContactIds(Uri uri, String idColumn, String selection,
+            String[] selectionArgs, @Nullable long[] latestTimestamp) {
+        Set<Long> contactIds = new HashSet<>();
+        String[] projection = latestTimestamp == null
+                ? new String[]{idColumn}
+                : new String[]{idColumn,
+                        ContactsContract.DeletedContacts.CONTACT_DELETED_TIMESTAMP};
+        try (Cursor cursor = mContext.getContentResolver().query(uri, projection, selection,
+                selectionArgs, null)) {
+            if (cursor == null) {
+                return contactIds;
+            }
+            while (cursor.moveToNext()) {
+                contactIds.add(cursor.getLong(0));
+                if (latestTimestamp != null) {
+                    latestTimestamp[0] = Math.max(latestTimestamp[0], cursor.getLong(1));
+                }
+            }
+        } catch (SecurityException e) {
+            L.w(TAG, "Failed to query contact ids: " + e);
+        }
+        return contactIds;
+    }
+
+    private class ContactChangeSetLiveData extends AsyncQueryLiveData<ContactChangeSet> {
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+        private final Object mPendingChangeSetLock = new Object();
+        /** The syncs published but not delivered by the main thread yet. */
+        @Nullable
+        private ContactChangeSet mPendingChangeSet;
+
+        private ContactChangeSetLiveData() {
+            super(mContext, InMemoryPhoneBook.this::getContactListQueryParam, mExecutorService,
+                    CONTACT_REQUERY_POLICY);
+        }
+
+        @Override
+        protected ContactChangeSet convertToEntity(Cursor cursor) {
+            return onCursorLoaded(cursor);
+        }
+
+        @Override
+        protected void onEntityConverted(ContactChangeSet changeSet, boolean isCurrent) {
+            if (changeSet == null) {
+                // No cursor, nothing has been committed.
+                super.onEntityConverted(null, isCurrent);
+            } else {
+                // The state has been committed even if a newer cursor has been loaded meanwhile.
+                publish(changeSet);
+            }
+        }
+
+        /**
+         * Publishes a sync, or contacts which are not loaded by a query such as a restored
+         * snapshot. The syncs published before the main thread delivers them are merged, so
+         * observers applying the change sets as deltas don't miss any.
+         */
+        @WorkerThread
+        private void publish(ContactChangeSet changeSet) {
+            synchronized (mPendingChangeSetLock) {
+                mPendingChangeSet = mPendingChangeSet == null
+                        ? changeSet : mPendingChangeSet.merge(changeSet);
+            }
+            mMainHandler.post(this::deliverPendingChangeSet);
+        }
+
+        private void deliverPendingChangeSet() {
+            ContactChangeSet changeSet;
+            synchronized (mPendingChangeSetLock) {
+                changeSet = mPendingChangeSet;
+                mPendingChangeSet = null;
+            }
+            // Null if an earlier post already delivered it.
+            if (changeSet != null) {
+                setValue(changeSet);
             }
         }
-        return contactList;
     }
 
     @Override
-    public void onChanged(List<Contact> contacts) {
-        L.d(TAG, "Contacts loaded:" + (contacts == null ? 0 : contacts.size()));
+    public void onChanged(ContactChangeSet changeSet) {
+        L.d(TAG, "Contacts loaded:" + changeSet);
         mIsLoaded = true;
+        if (changeSet != null) {
+            removeChangedPhotos(changeSet);
+        }
+    }
+
+    /** Drops the rendered photos of the contacts changed by a sync, their photos may be new. */
+    private void removeChangedPhotos(ContactChangeSet changeSet) {
+        ContactAvatarCache avatarCache = ContactAvatarCache.get(mContext);
+        if (changeSet.isFullReload()) {
+            avatarCache.removeAllPhotos();
+            return;
+        }
+        List<String> lookupKeys = new ArrayList<>();
+        for (Contact contact : changeSet.getUpdatedContacts()) {
+            lookupKeys.add(contact.getLookupKey());
+        }
+        for (Contact contact : changeSet.getRemovedContacts()) {
+            lookupKeys.add(contact.getLookupKey());
+        }
+        avatarCache.removePhotos(lookupKeys);
     }
 }
@@ -22,6 +22,8 @@ import android.content.Context;
 import android.content.pm.PackageManager;
 import android.database.ContentObserver;
 import android.database.Cursor;
+import android.os.Handler;
+import android.os.SystemClock;
 
 import androidx.annotation.MainThread;
 import androidx.annotation.NonNull;
@@ -32,7 +34,7 @@ import com.android.car.apps.common.log.L;
 
 /**
  * Asynchronously queries data and observes them. A new query will be triggered automatically if
- * data set have changed.
+ * data set have changed, as scheduled by a {@link RequeryPolicy}.
  */
 public class ObservableAsyncQuery {
     private static final String TAG = "CD.ObservableAsyncQuery";
@@ -57,16 +59,40 @@ public class ObservableAsyncQuery {
     private OnQueryFinishedListener mOnQueryFinishedListener;
     private ContentObserver mContentObserver;
     private ContentResolver mContentResolver;
+    private final RequeryPolicy mRequeryPolicy;
+    private final Handler mHandler;
+    private final Runnable mRequeryRunnable = this::requery;
     private boolean mIsActive = false;
+    private boolean mIsQueryInFlight = false;
+    /** Whether a change has been notified while the query was in flight. */
+    private boolean mHasPendingChange = false;
+    /** The uptime of the first change not queried yet, 0 if there is none. */
+    private long mFirstPendingChangeTime = 0;
     private int mToken;
 
+    private long mChangeCount;
+    private long mRequeryCount;
+
+    /**
+     * @param queryParamProvider Supplies query arguments for the current query.
+     * @param listener           Listener which will be called when data is available.
+     */
+    public ObservableAsyncQuery(
+            @NonNull Context context,
+            @NonNull QueryParam.Provider queryParamProvider,
+            @NonNull OnQueryFinishedListener listener) {
+        this(context, queryParamProvider, RequeryPolicy.IMMEDIATE, listener);
+    }
+
     /**
      * @param queryParamProvider Supplies query arguments for the current query.
+     * @param requeryPolicy      Decides when to query again after the data changed.
      * @param listener           Listener which will be called when data is available.
      */
     public ObservableAsyncQuery(
             @NonNull Context context,
             @NonNull QueryParam.Provider queryParamProvider,
+            @NonNull RequeryPolicy requeryPolicy,
             @NonNull OnQueryFinishedListener listener) {
         mContext = context;
         mContentResolver = context.getContentResolver();
@@ -74,9 +100,11 @@ public class ObservableAsyncQuery {
         mContentObserver = new ContentObserver(mAsyncQueryHandler) {
             @Override
             public void onChange(boolean selfChange) {
-                startQuery();
+                onDataChanged();
             }
         };
+        mRequeryPolicy = requeryPolicy;
+        mHandler = new Handler(context.getMainLooper());
         mQueryParamProvider = queryParamProvider;
         mOnQueryFinishedListener = listener;
         mToken = 0;
@@ -90,6 +118,11 @@ public class ObservableAsyncQuery {
         L.d(TAG, "startQuery");
         mAsyncQueryHandler.cancelOperation(mToken); // Cancel the query task.
         mContentResolver.unregisterContentObserver(mContentObserver);
+        // The new query covers all the changes notified so far.
+        mHandler.removeCallbacks(mRequeryRunnable);
+        mHasPendingChange = false;
+        mFirstPendingChangeTime = 0;
+        mIsQueryInFlight = false;
 
         mToken++;
         QueryParam queryParam = mQueryParamProvider.getQueryParam();
@@ -103,6 +136,7 @@ public class ObservableAsyncQuery {
                     queryParam.mSelection,
                     queryParam.mSelectionArgs,
                     queryParam.mOrderBy);
+            mIsQueryInFlight = true;
             mContentResolver.registerContentObserver(queryParam.mUri, false, mContentObserver);
         } else {
             mOnQueryFinishedListener.onQueryFinished(null);
@@ -120,6 +154,27 @@ public class ObservableAsyncQuery {
         mIsActive = false;
         mContentResolver.unregisterContentObserver(mContentObserver);
         mAsyncQueryHandler.cancelOperation(mToken); // Cancel the query task.
+        mHandler.removeCallbacks(mRequeryRunnable);
+        mIsQueryInFlight = false;
+        mHasPendingChange = false;
+        mFirstPendingChangeTime = 0;
+        L.d(TAG, String.format("Changes notified: %d, queries saved: %d", mChangeCount,
+                getSavedQueryCount()));
+    }
+
+    /** Returns the number of changes notified while the query was started. */
+    @MainThread
+    public long getChangeCount() {
+        return mChangeCount;
+    }
+
+    /**
+     * Returns the number of changes which have not triggered a query of their own because they
+     * have been debounced or coalesced with other changes.
+     */
+    @MainThread
+    public long getSavedQueryCount() {
+        return mChangeCount - mRequeryCount;
     }
 
     private void onQueryComplete(int token, Object cookie, Cursor cursor) {
@@ -127,11 +182,57 @@ public class ObservableAsyncQuery {
             return;
         }
         L.d(TAG, "onQueryComplete");
+        mIsQueryInFlight = false;
+        if (mHasPendingChange) {
+            mHasPendingChange = false;
+            scheduleRequery();
+        }
         if (mOnQueryFinishedListener != null) {
             mOnQueryFinishedListener.onQueryFinished(cursor);
         }
     }
 
+    @MainThread
+    private void onDataChanged() {
+        if (!mIsActive) {
+            return;
+        }
+        mChangeCount++;
+        if (mFirstPendingChangeTime == 0) {
+            mFirstPendingChangeTime = SystemClock.uptimeMillis();
+        }
+        if (mIsQueryInFlight && mRequeryPolicy.mCoalesceWhileInFlight) {
+            mHasPendingChange = true;
+            return;
+        }
+        scheduleRequery();
+    }
+
+    /**
+     * Queries again once no change has been notified for the debounce window, or once the
+     * maximum latency after the first pending change is reached.
+     */
+    @MainThread
+    private void scheduleRequery() {
+        if (mRequeryPolicy.mDebounceMs <= 0) {
+            requery();
+            return;
+        }
+        long requeryTime = Math.min(SystemClock.uptimeMillis() + mRequeryPolicy.mDebounceMs,
+                mFirstPendingChangeTime + mRequeryPolicy.mMaxLatencyMs);
+        mHandler.removeCallbacks(mRequeryRunnable);
+        mHandler.postAtTime(mRequeryRunnable, requeryTime);
+    }
+
+    @MainThread
+    private void requery() {
+        if (!mIsActive) {
+            return;
+        }
+        mRequeryCount++;
+        startQuery();
+    }
+
     private static class AsyncQueryHandlerImpl extends AsyncQueryHandler {
         private ObservableAsyncQuery mQuery;
 
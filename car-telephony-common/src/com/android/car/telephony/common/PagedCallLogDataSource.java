@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.CallLog;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+import androidx.core.content.ContextCompat;
+
+import com.android.car.apps.common.log.L;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Loads the call log page by page as it is scrolled.
+ *
+ * <p>Consecutive calls from the same number are grouped into one {@link PhoneCallLog} with {@link
+ * PhoneCallLog#merge} while the rows are read, so a page holds {@code pageSize} grouped call logs.
+ * Rows are queried in chunks with {@link CallLog.Calls#LIMIT_PARAM_KEY} and {@link
+ * CallLog.Calls#OFFSET_PARAM_KEY}, and only the most recently used pages are kept in memory.
+ * Evicted pages are loaded again when they are accessed.
+ *
+ * <p>The call log is not known in advance: {@link #getItemCount()} grows as pages are loaded until
+ * {@link #isEndReached()}. When the call log changes, all pages are dropped and {@link
+ * Callback#onInvalidated()} is called.
+ */
+public class PagedCallLogDataSource {
+    private static final String TAG = "CD.PagedCallLog";
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final int DEFAULT_MAX_PAGES_IN_MEMORY = 5;
+    private static final String[] PROJECTION = new String[]{
+            CallLog.Calls._ID,
+            CallLog.Calls.NUMBER,
+            CallLog.Calls.DATE,
+            CallLog.Calls.TYPE,
+            CallLog.Calls.PHONE_ACCOUNT_ID};
+    private static final String ORDER_BY =
+            CallLog.Calls.DATE + " DESC, " + CallLog.Calls._ID + " DESC";
+
+    /** Called when pages are loaded or dropped. */
+    public interface Callback {
+        /**
+         * Called when a page is loaded. Its call logs are at the positions {@code [page *
+         * pageSize, page * pageSize + count)}.
+         */
+        @MainThread
+        void onPageLoaded(int page, int count);
+
+        /** Called when the call log changed and all the pages have been dropped. */
+        @MainThread
+        void onInvalidated();
+    }
+
+    private final Context mContext;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final int mPageSize;
+    private final Callback mCallback;
+    private final WorkerExecutor mWorkerExecutor;
+    /** The {@link WorkerExecutor.Priority#NORMAL} lane, running the reads in order. */
+    private final ExecutorService mExecutorService;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ContentObserver mContentObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+            mCallback.onInvalidated();
+        }
+    };
+
+    /** The loaded pages by index, least recently used first. Only accessed on the main thread. */
+    private final LinkedHashMap<Integer, List<PhoneCallLog>> mPages;
+    private final Set<Integer> mLoadingPages = new HashSet<>();
+    private int mKnownItemCount;
+    private int mKnownPageCount;
+    private boolean mIsEndReached;
+    private boolean mIsClosed;
+    /** Incremented on invalidation, so the pages loaded before are dropped. */
+    private int mGeneration;
+
+    /**
+     * The first row of every page found so far. Only accessed on the loading thread, it lets an
+     * evicted page be reloaded without grouping all the rows before it again.
+     */
+    private final List<Integer> mPageStartRows = new ArrayList<>();
+
+    /**
+     * Creates a data source over all calls with the default page size and page count.
+     */
+    public PagedCallLogDataSource(@NonNull Context context, @NonNull Callback callback) {
+        this(context, null, null, DEFAULT_PAGE_SIZE, DEFAULT_MAX_PAGES_IN_MEMORY, callback);
+    }
+
+    /**
+     * @param selection       filters the calls, for instance by {@link
+     *                        CallLog.Calls#PHONE_ACCOUNT_ID}.
+     * @param pageSize        the number of grouped call logs per page.
+     * @param maxPagesInMemory the number of pages kept in memory.
+     */
+    public PagedCallLogDataSource(@NonNull Context context, @Nullable String selection,
+            @Nullable String[] selectionArgs, int pageSize, final int maxPagesInMemory,
+            @NonNull Callback callback) {
+        mContext = context;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mPageSize = pageSize;
+        mCallback = callback;
+        mWorkerExecutor = WorkerExecutor.getInstance();
+        mExecutorService = mWorkerExecutor.getExecutor(WorkerExecutor.Priority.NORMAL);
+        mPages = new LinkedHashMap<Integer, List<PhoneCallLog>>(maxPagesInMemory + 1, 0.75f,
+                true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<PhoneCallLog>> eldest) {
+                return size() > maxPagesInMemory;
+            }
+        };
+        mExecutorService.execute(() -> mPageStartRows.add(0));
+        mContext.getContentResolver().registerContentObserver(CallLog.Calls.CONTENT_URI, false,
+                mContentObserver);
+    }
+
+    /**
+     * Returns the call log at the given position, or null if its page is not loaded yet. The page
+     * is then loaded and {@link Callback#onPageLoaded} is called. The next page is loaded ahead
+     * when the position is close to the end of the loaded call logs.
+     */
+    @MainThread
+    @Nullable
+    public PhoneCallLog getItem(int position) {
+        int page = position / mPageSize;
+        if (!mIsEndReached && position >= mKnownItemCount - mPageSize / 2) {
+            loadPage(mKnownPageCount);
+        }
+        List<PhoneCallLog> callLogs = mPages.get(page);
+        if (callLogs == null) {
+            loadPage(page);
+            return null;
+        }
+        int index = position - page * mPageSize;
+        return index < callLogs.size() ? callLogs.get(index) : null;
+    }
+
+    /** Returns the number of call logs in the pages found so far. */
+    @MainThread
+    public int getItemCount() {
+        return mKnownItemCount;
+    }
+
+    /** Returns true if the last page has been found. */
+    @MainThread
+    public boolean isEndReached() {
+        return mIsEndReached;
+    }
+
+    /** Loads the given page if it is not loaded or being loaded. */
+    @MainThread
+    public void loadPage(int page) {
+        if (mIsClosed || mPages.containsKey(page) || !mLoadingPages.add(page)) {
+            return;
+        }
+        int generation = mGeneration;
+        // Tagged so the reads of stale pages can be dropped before they run.
+        mWorkerExecutor.submit(WorkerExecutor.Priority.NORMAL, this, () -> {
+            List<PhoneCallLog> callLogs = readPage(page);
+            mMainHandler.post(() -> onPageRead(page, callLogs, generation));
+        });
+    }
+
+    /** Drops all the pages. They are loaded again on access. */
+    @MainThread
+    public void invalidate() {
+        mGeneration++;
+        mPages.clear();
+        mLoadingPages.clear();
+        mKnownItemCount = 0;
+        mKnownPageCount = 0;
+        mIsEndReached = false;
+        mWorkerExecutor.cancel(this, false);
+        mExecutorService.execute(() -> {
+            mPageStartRows.clear();
+            mPageStartRows.add(0);
+        });
+    }
+
+    /** Drops all the pages and stops observing the call log. */
+    @MainThread
+    public void close() {
+        mIsClosed = true;
+        mContext.getContentResolver().unregisterContentObserver(mContentObserver);
+        invalidate();
+    }
+
+    @MainThread
+    private void onPageRead(int page, @Nullable List<PhoneCallLog> callLogs, int generation) {
+        if (generation != mGeneration || mIsClosed) {
+            return;
+        }
+        mLoadingPages.remove(page);
+        if (callLogs == null) {
+            // The page is past the end of the call log.
+            mIsEndReached = true;
+            return;
+        }
+        mPages.put(page, callLogs);
+        if (page >= mKnownPageCount) {
+            // Pages are found in order, so all the pages before this one are full.
+            mKnownPageCount = page + 1;
+            mKnownItemCount = page * mPageSize + callLogs.size();
+        }
+        if (callLogs.size() < mPageSize) {
+            mIsEndReached = true;
+        }
+        mCallback.onPageLoaded(page, callLogs.size());
+    }
+
+    /**
+     * Reads a page, finding the pages before it first if needed. Returns null if the page is past
+     * the end of the call log.
+     */
+    @WorkerThread
+    @Nullable
+    private List<PhoneCallLog> readPage(int page) {
+        if (ContextCompat.checkSelfPermission(mContext, Manifest.permission.READ_CALL_LOG)
+                != PackageManager.PERMISSION_GRANTED) {
+            return null;
+        }
+        int knownPage = Math.min(page, mPageStartRows.size() - 1);
+        while (true) {
+            int startRow = mPageStartRows.get(knownPage);
+            if (startRow < 0) {
+                return null;
+            }
+            List<PhoneCallLog> callLogs = new ArrayList<>(mPageSize);
+            int nextStartRow = readCallLogs(startRow, callLogs);
+            if (knownPage + 1 == mPageStartRows.size()) {
+                mPageStartRows.add(nextStartRow);
+            }
+            if (knownPage == page) {
+                return callLogs.isEmpty() && page > 0 ? null : callLogs;
+            }
+            knownPage++;
+        }
+    }
+
+    /**
+     * Reads rows from {@code startRow} until {@code pageSize} call logs are grouped. Returns the
+     * first row of the next page, or -1 if the end of the call log has been reached.
+     */
+    @WorkerThread
+    private int readCallLogs(int startRow, List<PhoneCallLog> callLogs) {
+        // Read a bit more than a page at once, as rows are grouped.
+        int chunkSize = mPageSize * 2;
+        PhoneCallLog current = null;
+        int row = startRow;
+        while (true) {
+            Uri uri = CallLog.Calls.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(CallLog.Calls.LIMIT_PARAM_KEY, String.valueOf(chunkSize))
+                    .appendQueryParameter(CallLog.Calls.OFFSET_PARAM_KEY, String.valueOf(row))
+                    .build();
+            int rowCount = 0;
+            try (Cursor cursor = mContext.getContentResolver().query(uri, PROJECTION, mSelection,
+                    mSelectionArgs, ORDER_BY)) {
+                ProjectionBinder binder = cursor == null ? null : new ProjectionBinder(cursor);
+                while (cursor != null && cursor.moveToNext()) {
+                    rowCount++;
+                    PhoneCallLog callLog = PhoneCallLog.fromCursor(mContext, binder);
+                    if (current != null && current.merge(callLog)) {
+                        continue;
+                    }
+                    if (current != null) {
+                        current.trimToSize();
+                        callLogs.add(current);
+                    }
+                    if (callLogs.size() == mPageSize) {
+                        return row + rowCount - 1;
+                    }
+                    current = callLog;
+                }
+            } catch (SecurityException e) {
+                L.w(TAG, "Failed to query the call log: " + e);
+            }
+            row += rowCount;
+            if (rowCount < chunkSize) {
+                if (current != null) {
+                    current.trimToSize();
+                    callLogs.add(current);
+                }
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.ContactsContract;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import com.android.car.apps.common.log.L;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists the contacts loaded by {@link InMemoryPhoneBook} to a compact binary file, so they can
+ * be served right after a cold start while the contacts provider is queried again.
+ *
+ * <p>The file is written to a temporary file and renamed, and it is memory-mapped when read. A
+ * snapshot is only restored if it was written by the same version of the contacts provider
+ * database, identified by {@link ContactsContract.ProviderStatus#DATABASE_CREATION_TIMESTAMP}.
+ */
+class PhoneBookSnapshotStore {
+    private static final String TAG = "CD.PhoneBookSnapshot";
+    private static final String FILE_NAME = "phonebook_snapshot.bin";
+    private static final int MAGIC = 0x43504253;
+    /** Bumped whenever the format of the snapshot or of the entities in it changes. */
+    static final int FORMAT_VERSION = 2;
+
+    /** The contacts of a snapshot and the sync state they correspond to. */
+    static class Snapshot {
+        final long mLastUpdatedTimestamp;
+        final long mLastDeletedTimestamp;
+        /** The wall clock time deleted contacts were last synced at. */
+        final long mLastSyncTime;
+        /** Contacts by account name and lookup key. */
+        final Map<String, Map<String, Contact>> mContactMap;
+
+        Snapshot(long lastUpdatedTimestamp, long lastDeletedTimestamp, long lastSyncTime,
+                Map<String, Map<String, Contact>> contactMap) {
+            mLastUpdatedTimestamp = lastUpdatedTimestamp;
+            mLastDeletedTimestamp = lastDeletedTimestamp;
+            mLastSyncTime = lastSyncTime;
+            mContactMap = contactMap;
+        }
+    }
+
+    private final Context mContext;
+    private final File mFile;
+
+    PhoneBookSnapshotStore(Context context) {
+        mContext = context;
+        mFile = new File(context.getNoBackupFilesDir(), FILE_NAME);
+    }
+
+    /**
+     * Restores the snapshot. Returns null if there is no snapshot or if it is stale or corrupted.
+     */
+    @WorkerThread
+    @Nullable
+    Snapshot read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        long providerVersion = queryProviderVersion();
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r");
+             FileChannel channel = file.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                L.w(TAG, "Unknown snapshot format, discarding it.");
+                delete();
+                return null;
+            }
+            if (buffer.getLong() != providerVersion || providerVersion == 0) {
+                L.i(TAG, "Contacts provider changed since the snapshot, discarding it.");
+                delete();
+                return null;
+            }
+            long lastUpdatedTimestamp = buffer.getLong();
+            long lastDeletedTimestamp = buffer.getLong();
+            long lastSyncTime = buffer.getLong();
+
+            Map<String, Map<String, Contact>> contactMap = new LinkedHashMap<>();
+            int accountCount = buffer.getInt();
+            for (int i = 0; i < accountCount; i++) {
+                String accountName = readString(buffer);
+                int contactCount = buffer.getInt();
+                Map<String, Contact> subMap = new LinkedHashMap<>();
+                for (int j = 0; j < contactCount; j++) {
+                    Contact contact = Contact.readFromSnapshot(buffer);
+                    subMap.put(contact.getLookupKey(), contact);
+                }
+                contactMap.put(accountName, subMap);
+            }
+            return new Snapshot(lastUpdatedTimestamp, lastDeletedTimestamp, lastSyncTime,
+                    contactMap);
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            L.w(TAG, "Failed to read the snapshot: " + e);
+            delete();
+            return null;
+        }
+    }
+
+    /** Writes the given contacts, replacing the previous snapshot. */
+    @WorkerThread
+    void write(@NonNull Map<String, List<Contact>> accountContactsMap, long lastUpdatedTimestamp,
+            long lastDeletedTimestamp, long lastSyncTime) {
+        long providerVersion = queryProviderVersion();
+        if (providerVersion == 0) {
+            return;
+        }
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        try (FileOutputStream fileOutputStream = new FileOutputStream(tempFile);
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(fileOutputStream))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(providerVersion);
+            out.writeLong(lastUpdatedTimestamp);
+            out.writeLong(lastDeletedTimestamp);
+            out.writeLong(lastSyncTime);
+            out.writeInt(accountContactsMap.size());
+            for (Map.Entry<String, List<Contact>> entry : accountContactsMap.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (Contact contact : entry.getValue()) {
+                    contact.writeToSnapshot(out);
+                }
+            }
+            out.flush();
+            fileOutputStream.getFD().sync();
+        } catch (IOException e) {
+            L.w(TAG, "Failed to write the snapshot: " + e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(mFile)) {
+            L.w(TAG, "Failed to replace the snapshot.");
+            tempFile.delete();
+        }
+    }
+
+    /** Deletes the snapshot. */
+    void delete() {
+        mFile.delete();
+    }
+
+    /** Returns the creation time of the contacts provider database, 0 if it is unknown. */
+    private long queryProviderVersion() {
+        try (Cursor cursor = mContext.getContentResolver().query(
+                ContactsContract.ProviderStatus.CONTENT_URI,
+                new String[]{ContactsContract.ProviderStatus.DATABASE_CREATION_TIMESTAMP},
+                null, null, null)) {
+            if (cursor != null && cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+        } catch (SecurityException e) {
+            L.w(TAG, "Failed to query the contacts provider status: " + e);
+        }
+        return 0;
+    }
+
+    /** Writes a nullable string as its UTF-8 length followed by its UTF-8 bytes. */
+    static void writeString(DataOutputStream out, @Nullable String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Reads a string written by {@link #writeString}. */
+    @Nullable
+    static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
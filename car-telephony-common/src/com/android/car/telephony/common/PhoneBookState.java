@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The contacts loaded by {@link InMemoryPhoneBook} and their indexes.
+ *
+ * <p>A state is never modified once built, so it can be read from any thread without locking and
+ * all the lookups made on one state are consistent with each other. A sync edits a copy of the
+ * current state with an {@link Editor}, which only copies the parts the sync changes, and the
+ * phone book then publishes the new state at once.
+ */
+class PhoneBookState {
+    /** The state before any contact is loaded. */
+    static final PhoneBookState EMPTY = new PhoneBookState(Collections.emptyMap(),
+            Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(),
+            Collections.emptyMap(), new PhoneNumberIndex<>(), new ContactSearchIndex());
+
+    /** Contacts by lookup key, by account. */
+    private final Map<String, Map<String, Contact>> mLookupKeyContactMap;
+    /**
+     * Contacts by lookup key in all the accounts. A lookup key is usually found in a single
+     * account, so finding it doesn't iterate the accounts. The lists must not be modified.
+     */
+    private final Map<String, List<Contact>> mLookupKeyIndex;
+    /** The contacts of every account, in the order they have been loaded. */
+    private final Map<String, List<Contact>> mAccountContactsMap;
+    private final Map<String, List<Contact>> mSortedByFirstNameMap;
+    private final Map<String, List<Contact>> mSortedByLastNameMap;
+    private final PhoneNumberIndex<Contact> mPhoneNumberIndex;
+    private final ContactSearchIndex mSearchIndex;
+
+    private PhoneBookState(Map<String, Map<String, Contact>> lookupKeyContactMap,
+            Map<String, List<Contact>> lookupKeyIndex,
+            Map<String, List<Contact>> accountContactsMap,
+            Map<String, List<Contact>> sortedByFirstNameMap,
+            Map<String, List<Contact>> sortedByLastNameMap,
+            PhoneNumberIndex<Contact> phoneNumberIndex, ContactSearchIndex searchIndex) {
+        mLookupKeyContactMap = lookupKeyContactMap;
+        mLookupKeyIndex = lookupKeyIndex;
+        mAccountContactsMap = accountContactsMap;
+        mSortedByFirstNameMap = sortedByFirstNameMap;
+        mSortedByLastNameMap = sortedByLastNameMap;
+        mPhoneNumberIndex = phoneNumberIndex;
+        mSearchIndex = searchIndex;
+    }
+
+    /** Builds the state of the given contacts, by lookup key, by account. */
+    static PhoneBookState create(@NonNull Map<String, Map<String, Contact>> contactMap) {
+        Editor editor = EMPTY.edit();
+        for (Map.Entry<String, Map<String, Contact>> entry : contactMap.entrySet()) {
+            for (Contact contact : entry.getValue().values()) {
+                editor.put(entry.getKey(), contact);
+            }
+        }
+        return editor.build();
+    }
+
+    /** Returns an editor of a copy of this state. */
+    Editor edit() {
+        return new Editor(this);
+    }
+
+    /** Returns a copy of this state with all the contacts sorted again, after a locale change. */
+    PhoneBookState sortAgain() {
+        Map<String, List<Contact>> sortedByFirstNameMap = new HashMap<>();
+        Map<String, List<Contact>> sortedByLastNameMap = new HashMap<>();
+        for (Map.Entry<String, List<Contact>> entry : mAccountContactsMap.entrySet()) {
+            sortedByFirstNameMap.put(entry.getKey(), sort(entry.getValue(), true));
+            sortedByLastNameMap.put(entry.getKey(), sort(entry.getValue(), false));
+        }
+        return new PhoneBookState(mLookupKeyContactMap, mLookupKeyIndex, mAccountContactsMap,
+                Collections.unmodifiableMap(sortedByFirstNameMap),
+                Collections.unmodifiableMap(sortedByLastNameMap), mPhoneNumberIndex, mSearchIndex);
+    }
+
+    /** Returns the contact with the given number, see {@link PhoneNumberIndex#get}. */
+    @Nullable
+    Contact getByPhoneNumber(@NonNull I18nPhoneNumberWrapper phoneNumber) {
+        return mPhoneNumberIndex.get(phoneNumber);
+    }
+
+    /** Returns the contact with the given lookup key in the given account. */
+    @Nullable
+    Contact getByLookupKey(@NonNull String lookupKey, @Nullable String accountName) {
+        Map<String, Contact> subMap = mLookupKeyContactMap.get(accountName);
+        return subMap == null ? null : subMap.get(lookupKey);
+    }
+
+    /** Returns the contacts with the given lookup key in all the accounts. */
+    @NonNull
+    List<Contact> getByLookupKey(@NonNull String lookupKey) {
+        List<Contact> contacts = mLookupKeyIndex.get(lookupKey);
+        return contacts == null ? Collections.emptyList() : new ArrayList<>(contacts);
+    }
+
+    /**
+     * Returns the contacts with the given lookup keys in all the accounts, by lookup key. Lookup
+     * keys without any contact are not in the returned map.
+     */
+    @NonNull
+    Map<String, List<Contact>> getByLookupKeys(@NonNull Collection<String> lookupKeys) {
+        Map<String, List<Contact>> results = new HashMap<>();
+        for (String lookupKey : lookupKeys) {
+            List<Contact> contacts = mLookupKeyIndex.get(lookupKey);
+            if (contacts != null) {
+                results.put(lookupKey, new ArrayList<>(contacts));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns the contacts with the given lookup keys in the given account, by lookup key. Lookup
+     * keys without any contact are not in the returned map.
+     */
+    @NonNull
+    Map<String, Contact> getByLookupKeys(@NonNull Collection<String> lookupKeys,
+            @Nullable String accountName) {
+        Map<String, Contact> results = new HashMap<>();
+        Map<String, Contact> subMap = mLookupKeyContactMap.get(accountName);
+        if (subMap == null) {
+            return results;
+        }
+        for (String lookupKey : lookupKeys) {
+            Contact contact = subMap.get(lookupKey);
+            if (contact != null) {
+                results.put(lookupKey, contact);
+            }
+        }
+        return results;
+    }
+
+    /** Returns the contacts of an account, null if it has none. The list must not be modified. */
+    @Nullable
+    List<Contact> getAccountContacts(@Nullable String accountName) {
+        return mAccountContactsMap.get(accountName);
+    }
+
+    /** Returns the contacts of every account. The map must not be modified. */
+    @NonNull
+    Map<String, List<Contact>> getAccountContactsMap() {
+        return mAccountContactsMap;
+    }
+
+    /** Returns the sorted contacts of an account, null if it has none. */
+    @Nullable
+    List<Contact> getSortedContacts(@Nullable String accountName, boolean byFirstName) {
+        return byFirstName
+                ? mSortedByFirstNameMap.get(accountName)
+                : mSortedByLastNameMap.get(accountName);
+    }
+
+    /** Returns the contacts of all the accounts. */
+    @NonNull
+    List<Contact> getAllContacts() {
+        List<Contact> contactList = new ArrayList<>();
+        for (List<Contact> accountContacts : mAccountContactsMap.values()) {
+            contactList.addAll(accountContacts);
+        }
+        return contactList;
+    }
+
+    /** Returns the search index of the contacts. It must not be modified. */
+    @NonNull
+    ContactSearchIndex getSearchIndex() {
+        return mSearchIndex;
+    }
+
+    private static List<Contact> sort(List<Contact> contacts, boolean byFirstName) {
+        Comparator<Contact> comparator = byFirstName
+                ? Contact::compareBySortKeyPrimary
+                : Contact::compareBySortKeyAlt;
+        List<Contact> sortedContacts = new ArrayList<>(contacts);
+        // The collation keys are built by the first sort, off the main thread.
+        Collections.sort(sortedContacts, comparator);
+        return Collections.unmodifiableList(sortedContacts);
+    }
+
+    /**
+     * Edits a copy of a state. The maps and indexes of the original state are copied the first
+     * time they are changed, so the original state is never modified. Not thread safe.
+     */
+    static class Editor {
+        private final PhoneBookState mState;
+        private final Map<String, Map<String, Contact>> mLookupKeyContactMap;
+        /** The accounts whose contacts changed, their maps have been copied already. */
+        private final Set<String> mAffectedAccounts = new HashSet<>();
+        private Map<String, List<Contact>> mLookupKeyIndex;
+        private PhoneNumberIndex<Contact> mPhoneNumberIndex;
+        private ContactSearchIndex mSearchIndex;
+
+        private Editor(PhoneBookState state) {
+            mState = state;
+            mLookupKeyContactMap = new HashMap<>(state.mLookupKeyContactMap);
+        }
+
+        /** Returns the accounts with contacts. */
+        @NonNull
+        Set<String> getAccounts() {
+            return Collections.unmodifiableSet(mLookupKeyContactMap.keySet());
+        }
+
+        /** Returns the contacts of an account. */
+        @NonNull
+        Collection<Contact> getContacts(@Nullable String accountName) {
+            Map<String, Contact> subMap = mLookupKeyContactMap.get(accountName);
+            return subMap == null
+                    ? Collections.emptyList()
+                    : Collections.unmodifiableCollection(subMap.values());
+        }
+
+        /** Adds a contact to an account, returns the contact it replaces if any. */
+        @Nullable
+        Contact put(@Nullable String accountName, @NonNull Contact contact) {
+            Contact oldContact = getSubMapForWrite(accountName).put(contact.getLookupKey(),
+                    contact);
+            if (oldContact != null) {
+                removeFromIndexes(oldContact);
+            }
+            List<Contact> sameKeyContacts = getLookupKeyIndexForWrite().get(
+                    contact.getLookupKey());
+            List<Contact> contacts = sameKeyContacts == null
+                    ? new ArrayList<>(1) : new ArrayList<>(sameKeyContacts);
+            contacts.add(contact);
+            mLookupKeyIndex.put(contact.getLookupKey(), contacts);
+            for (PhoneNumber phoneNumber : contact.getNumbers()) {
+                getPhoneNumberIndexForWrite().put(phoneNumber.getI18nPhoneNumberWrapper(),
+                        contact);
+            }
+            getSearchIndexForWrite().put(contact);
+            return oldContact;
+        }
+
+        /** Removes a contact from an account, returns it if it was there. */
+        @Nullable
+        Contact remove(@Nullable String accountName, @NonNull String lookupKey) {
+            if (getContacts(accountName).isEmpty()) {
+                return null;
+            }
+            Contact oldContact = getSubMapForWrite(accountName).remove(lookupKey);
+            if (oldContact != null) {
+                removeFromIndexes(oldContact);
+            }
+            return oldContact;
+        }
+
+        /** Returns the accounts whose contacts changed so far. */
+        @NonNull
+        Set<String> getAffectedAccounts() {
+            return Collections.unmodifiableSet(mAffectedAccounts);
+        }
+
+        /** Builds the new state. The contacts of the affected accounts are sorted again. */
+        @NonNull
+        PhoneBookState build() {
+            if (mAffectedAccounts.isEmpty()) {
+                return mState;
+            }
+            Map<String, List<Contact>> accountContactsMap =
+                    new HashMap<>(mState.mAccountContactsMap);
+            Map<String, List<Contact>> sortedByFirstNameMap =
+                    new HashMap<>(mState.mSortedByFirstNameMap);
+            Map<String, List<Contact>> sortedByLastNameMap =
+                    new HashMap<>(mState.mSortedByLastNameMap);
+            for (String accountName : mAffectedAccounts) {
+                Map<String, Contact> subMap = mLookupKeyContactMap.get(accountName);
+                if (subMap.isEmpty()) {
+                    mLookupKeyContactMap.remove(accountName);
+                    accountContactsMap.remove(accountName);
+                    sortedByFirstNameMap.remove(accountName);
+                    sortedByLastNameMap.remove(accountName);
+                } else {
+                    mLookupKeyContactMap.put(accountName, Collections.unmodifiableMap(subMap));
+                    List<Contact> contacts = Collections.unmodifiableList(
+                            new ArrayList<>(subMap.values()));
+                    accountContactsMap.put(accountName, contacts);
+                    sortedByFirstNameMap.put(accountName, sort(contacts, true));
+                    sortedByLastNameMap.put(accountName, sort(contacts, false));
+                }
+            }
+            return new PhoneBookState(Collections.unmodifiableMap(mLookupKeyContactMap),
+                    mLookupKeyIndex == null ? mState.mLookupKeyIndex
+                            : Collections.unmodifiableMap(mLookupKeyIndex),
+                    Collections.unmodifiableMap(accountContactsMap),
+                    Collections.unmodifiableMap(sortedByFirstNameMap),
+                    Collections.unmodifiableMap(sortedByLastNameMap),
+                    mPhoneNumberIndex == null ? mState.mPhoneNumberIndex : mPhoneNumberIndex,
+                    mSearchIndex == null ? mState.mSearchIndex : mSearchIndex);
+        }
+
+        private Map<String, Contact> getSubMapForWrite(@Nullable String accountName) {
+            if (mAffectedAccounts.add(accountName)) {
+                Map<String, Contact> subMap = mLookupKeyContactMap.get(accountName);
+                // Keep the order ContactLoader kept from the cursor, sorted by display name.
+                mLookupKeyContactMap.put(accountName,
+                        subMap == null ? new LinkedHashMap<>() : new LinkedHashMap<>(subMap));
+            }
+            return mLookupKeyContactMap.get(accountName);
+        }
+
+        private Map<String, List<Contact>> getLookupKeyIndexForWrite() {
+            if (mLookupKeyIndex == null) {
+                mLookupKeyIndex = new HashMap<>(mState.mLookupKeyIndex);
+            }
+            return mLookupKeyIndex;
+        }
+
+        private PhoneNumberIndex<Contact> getPhoneNumberIndexForWrite() {
+            if (mPhoneNumberIndex == null) {
+                mPhoneNumberIndex = new PhoneNumberIndex<>(mState.mPhoneNumberIndex);
+            }
+            return mPhoneNumberIndex;
+        }
+
+        private ContactSearchIndex getSearchIndexForWrite() {
+            if (mSearchIndex == null) {
+                mSearchIndex = new ContactSearchIndex(mState.mSearchIndex);
+            }
+            return mSearchIndex;
+        }
+
+        private void removeFromIndexes(Contact contact) {
+            // The lists of the original state are shared, replace them instead of modifying them.
+            List<Contact> contacts = getLookupKeyIndexForWrite().get(contact.getLookupKey());
+            if (contacts != null) {
+                contacts = new ArrayList<>(contacts);
+                contacts.remove(contact);
+                if (contacts.isEmpty()) {
+                    mLookupKeyIndex.remove(contact.getLookupKey());
+                } else {
+                    mLookupKeyIndex.put(contact.getLookupKey(), contacts);
+                }
+            }
+            for (PhoneNumber phoneNumber : contact.getNumbers()) {
+                getPhoneNumberIndexForWrite().remove(phoneNumber.getI18nPhoneNumberWrapper(),
+                        contact);
+            }
+            getSearchIndexForWrite().remove(contact);
+        }
+    }
+}
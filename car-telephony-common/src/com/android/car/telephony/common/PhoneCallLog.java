@@ -24,7 +24,7 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
 
@@ -71,26 +71,35 @@ public class PhoneCallLog {
     private String mPhoneNumberString;
     private I18nPhoneNumberWrapper mI18nPhoneNumberWrapper;
     private String mAccountName;
-    private List<Record> mCallRecords = new ArrayList<>();
+    /**
+     * The records, from most recent to least recent call end time. They are stored as arrays
+     * instead of {@link Record} objects, as long call histories are held in memory.
+     */
+    private long[] mCallEndTimestamps = new long[1];
+    private int[] mCallTypes = new int[1];
+    private int mCallRecordCount;
 
     /**
      * Creates a {@link PhoneCallLog} from a {@link Cursor}.
      */
     public static PhoneCallLog fromCursor(Context context, Cursor cursor) {
-        int idColumn = cursor.getColumnIndex(CallLog.Calls._ID);
-        int numberColumn = cursor.getColumnIndex(CallLog.Calls.NUMBER);
-        int dateColumn = cursor.getColumnIndex(CallLog.Calls.DATE);
-        int callTypeColumn = cursor.getColumnIndex(CallLog.Calls.TYPE);
-        int accountNameColumn = cursor.getColumnIndex(CallLog.Calls.PHONE_ACCOUNT_ID);
+        return fromCursor(context, new ProjectionBinder(cursor));
+    }
 
+    /**
+     * Creates a {@link PhoneCallLog} from the current row of a cursor. Loading all the rows of a
+     * cursor with the same {@link ProjectionBinder} resolves the column indices only once.
+     */
+    static PhoneCallLog fromCursor(Context context, ProjectionBinder binder) {
         PhoneCallLog phoneCallLog = new PhoneCallLog();
-        phoneCallLog.mId = cursor.getLong(idColumn);
-        phoneCallLog.mPhoneNumberString = cursor.getString(numberColumn);
+        phoneCallLog.mId = binder.getLong(CallLog.Calls._ID);
+        phoneCallLog.mPhoneNumberString = binder.getString(CallLog.Calls.NUMBER);
         phoneCallLog.mI18nPhoneNumberWrapper = I18nPhoneNumberWrapper.Factory.INSTANCE.get(context,
                 phoneCallLog.mPhoneNumberString);
-        Record record = new Record(cursor.getLong(dateColumn), cursor.getInt(callTypeColumn));
-        phoneCallLog.mCallRecords.add(record);
-        phoneCallLog.mAccountName = cursor.getString(accountNameColumn);
+        phoneCallLog.mCallEndTimestamps[0] = binder.getLong(CallLog.Calls.DATE);
+        phoneCallLog.mCallTypes[0] = binder.getInt(CallLog.Calls.TYPE);
+        phoneCallLog.mCallRecordCount = 1;
+        phoneCallLog.mAccountName = binder.getString(CallLog.Calls.PHONE_ACCOUNT_ID);
         return phoneCallLog;
     }
 
@@ -117,18 +126,47 @@ public class PhoneCallLog {
      * records.
      */
     public long getLastCallEndTimestamp() {
-        if (!mCallRecords.isEmpty()) {
-            return mCallRecords.get(0).getCallEndTimestamp();
+        if (mCallRecordCount > 0) {
+            return mCallEndTimestamps[0];
         }
         return -1;
     }
 
+    /** Returns the number of records from the phone number. */
+    public int getCallRecordCount() {
+        return mCallRecordCount;
+    }
+
+    /**
+     * Returns the call end timestamp of the record at the given index, records being sorted from
+     * most recent to least recent call end time.
+     */
+    public long getCallEndTimestamp(int index) {
+        checkRecordIndex(index);
+        return mCallEndTimestamps[index];
+    }
+
+    /**
+     * Returns the call type of the record at the given index, records being sorted from most
+     * recent to least recent call end time.
+     *
+     * @see CallLog.Calls#TYPE
+     */
+    public int getCallType(int index) {
+        checkRecordIndex(index);
+        return mCallTypes[index];
+    }
+
     /**
      * Returns a copy of records from the phone number. Logs are sorted from most recent to least
      * recent call end time.
      */
     public List<Record> getAllCallRecords() {
-        return new ArrayList<>(mCallRecords);
+        List<Record> records = new ArrayList<>(mCallRecordCount);
+        for (int i = 0; i < mCallRecordCount; i++) {
+            records.add(new Record(mCallEndTimestamps[i], mCallTypes[i]));
+        }
+        return records;
     }
 
     /**
@@ -137,13 +175,59 @@ public class PhoneCallLog {
      */
     public boolean merge(@NonNull PhoneCallLog phoneCallLog) {
         if (equals(phoneCallLog)) {
-            mCallRecords.addAll(phoneCallLog.mCallRecords);
-            Collections.sort(mCallRecords);
+            mergeRecords(phoneCallLog);
             return true;
         }
         return false;
     }
 
+    /** Merges the sorted records of the other call log into the sorted records of this one. */
+    private void mergeRecords(PhoneCallLog phoneCallLog) {
+        int count = mCallRecordCount + phoneCallLog.mCallRecordCount;
+        long[] timestamps = mCallEndTimestamps;
+        int[] types = mCallTypes;
+        if (count > timestamps.length) {
+            // Grow geometrically, call logs are usually merged one record at a time.
+            int capacity = Math.max(count, timestamps.length * 2);
+            timestamps = new long[capacity];
+            types = new int[capacity];
+        }
+
+        // Merge from the end so it can be done in place.
+        int i = mCallRecordCount - 1;
+        int j = phoneCallLog.mCallRecordCount - 1;
+        for (int k = count - 1; k >= 0; k--) {
+            if (j < 0 || (i >= 0
+                    && mCallEndTimestamps[i] < phoneCallLog.mCallEndTimestamps[j])) {
+                timestamps[k] = mCallEndTimestamps[i];
+                types[k] = mCallTypes[i];
+                i--;
+            } else {
+                timestamps[k] = phoneCallLog.mCallEndTimestamps[j];
+                types[k] = phoneCallLog.mCallTypes[j];
+                j--;
+            }
+        }
+        mCallEndTimestamps = timestamps;
+        mCallTypes = types;
+        mCallRecordCount = count;
+    }
+
+    /** Releases the unused capacity of the record arrays. */
+    void trimToSize() {
+        if (mCallEndTimestamps.length > mCallRecordCount) {
+            mCallEndTimestamps = Arrays.copyOf(mCallEndTimestamps, mCallRecordCount);
+            mCallTypes = Arrays.copyOf(mCallTypes, mCallRecordCount);
+        }
+    }
+
+    private void checkRecordIndex(int index) {
+        if (index < 0 || index >= mCallRecordCount) {
+            throw new IndexOutOfBoundsException(
+                    "Index: " + index + ", record count: " + mCallRecordCount);
+        }
+    }
+
     @Override
     public boolean equals(Object object) {
         if (object instanceof PhoneCallLog) {
@@ -173,7 +257,7 @@ public class PhoneCallLog {
         sb.append("PhoneNumber: ");
         sb.append(TelecomUtils.piiLog(mPhoneNumberString));
         sb.append(" CallLog: ");
-        sb.append(mCallRecords.size());
+        sb.append(mCallRecordCount);
         sb.append(" Account: ");
         sb.append(mAccountName);
         return sb.toString();
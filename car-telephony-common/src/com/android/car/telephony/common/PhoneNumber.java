@@ -27,6 +27,9 @@ import android.provider.ContactsContract.CommonDataKinds.Phone;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 /**
@@ -52,29 +55,23 @@ public class PhoneNumber implements Parcelable {
     private boolean mIsFavorite;
 
     static PhoneNumber fromCursor(Context context, Cursor cursor) {
-        int typeColumn = cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.TYPE);
-        int labelColumn = cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.LABEL);
-        int numberColumn = cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone.NUMBER);
-        int rawDataIdColumn = cursor.getColumnIndex(ContactsContract.CommonDataKinds.Phone._ID);
-        int dataVersionColumn = cursor.getColumnIndex(
-                ContactsContract.CommonDataKinds.Phone.DATA_VERSION);
+        return fromCursor(context, new ProjectionBinder(cursor));
+    }
+
+    static PhoneNumber fromCursor(Context context, ProjectionBinder binder) {
         // IS_PRIMARY means primary entry of the raw contact and IS_SUPER_PRIMARY means primary
         // entry of the aggregated contact. It is guaranteed that only one data entry is super
         // primary.
-        int isPrimaryColumn = cursor.getColumnIndex(
-                ContactsContract.CommonDataKinds.Phone.IS_SUPER_PRIMARY);
-        int accountNameColumn = cursor.getColumnIndex(ContactsContract.RawContacts.ACCOUNT_NAME);
-        int accountTypeColumn = cursor.getColumnIndex(ContactsContract.RawContacts.ACCOUNT_TYPE);
         return PhoneNumber.newInstance(
                 context,
-                cursor.getString(numberColumn),
-                cursor.getInt(typeColumn),
-                cursor.getString(labelColumn),
-                cursor.getInt(isPrimaryColumn) > 0,
-                cursor.getLong(rawDataIdColumn),
-                cursor.getString(accountNameColumn),
-                cursor.getString(accountTypeColumn),
-                cursor.getInt(dataVersionColumn));
+                binder.getString(ContactsContract.CommonDataKinds.Phone.NUMBER),
+                binder.getInt(ContactsContract.CommonDataKinds.Phone.TYPE),
+                binder.getString(ContactsContract.CommonDataKinds.Phone.LABEL),
+                binder.getInt(ContactsContract.CommonDataKinds.Phone.IS_SUPER_PRIMARY) > 0,
+                binder.getLong(ContactsContract.CommonDataKinds.Phone._ID),
+                binder.getString(ContactsContract.RawContacts.ACCOUNT_NAME),
+                binder.getString(ContactsContract.RawContacts.ACCOUNT_TYPE),
+                binder.getInt(ContactsContract.CommonDataKinds.Phone.DATA_VERSION));
     }
 
     /**
@@ -235,33 +232,83 @@ public class PhoneNumber implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
+        CompactParcels.writeVersion(dest);
+        writeFieldsToParcel(dest, null);
+    }
+
+    /**
+     * Writes this phone number to a parcel without a version, inside a versioned parcelable.
+     *
+     * @param contactAccountName the account name of the contact this phone number is written
+     *                           with, not written again if it is the same.
+     */
+    void writeFieldsToParcel(Parcel dest, @Nullable String contactAccountName) {
+        mI18nPhoneNumber.writeFieldsToParcel(dest);
         dest.writeInt(mType);
         dest.writeString(mLabel);
-        dest.writeParcelable(mI18nPhoneNumber, flags);
         dest.writeBoolean(mIsPrimary);
         dest.writeLong(mId);
-        dest.writeString(mAccountName);
+        boolean isContactAccount = mAccountName.equals(contactAccountName);
+        dest.writeBoolean(isContactAccount);
+        if (!isContactAccount) {
+            dest.writeString(mAccountName);
+        }
         dest.writeString(mAccountType);
         dest.writeInt(mDataVersion);
         dest.writeBoolean(mIsFavorite);
     }
 
+    /** Reads a phone number written by {@link #writeFieldsToParcel}. */
+    static PhoneNumber readFieldsFromParcel(Parcel source, @Nullable String contactAccountName) {
+        I18nPhoneNumberWrapper i18nPhoneNumberWrapper =
+                I18nPhoneNumberWrapper.readFieldsFromParcel(source);
+        int type = source.readInt();
+        String label = source.readString();
+        boolean isPrimary = source.readBoolean();
+        long id = source.readLong();
+        String accountName = source.readBoolean() ? contactAccountName : source.readString();
+        String accountType = source.readString();
+        int dataVersion = source.readInt();
+        PhoneNumber phoneNumber = new PhoneNumber(i18nPhoneNumberWrapper, type, label,
+                isPrimary, id, accountName, accountType, dataVersion);
+        phoneNumber.setIsFavorite(source.readBoolean());
+        return phoneNumber;
+    }
+
+    /** Writes this phone number to a {@link PhoneBookSnapshotStore snapshot}. */
+    void writeToSnapshot(DataOutputStream out) throws IOException {
+        mI18nPhoneNumber.writeToSnapshot(out);
+        out.writeInt(mType);
+        PhoneBookSnapshotStore.writeString(out, mLabel);
+        out.writeBoolean(mIsPrimary);
+        out.writeLong(mId);
+        PhoneBookSnapshotStore.writeString(out, mAccountName);
+        PhoneBookSnapshotStore.writeString(out, mAccountType);
+        out.writeInt(mDataVersion);
+        out.writeBoolean(mIsFavorite);
+    }
+
+    /** Reads a phone number written by {@link #writeToSnapshot}. */
+    static PhoneNumber readFromSnapshot(ByteBuffer in) {
+        I18nPhoneNumberWrapper i18nPhoneNumberWrapper = I18nPhoneNumberWrapper.readFromSnapshot(in);
+        int type = in.getInt();
+        String label = PhoneBookSnapshotStore.readString(in);
+        boolean isPrimary = in.get() != 0;
+        long id = in.getLong();
+        String accountName = PhoneBookSnapshotStore.readString(in);
+        String accountType = PhoneBookSnapshotStore.readString(in);
+        int dataVersion = in.getInt();
+        PhoneNumber phoneNumber = new PhoneNumber(i18nPhoneNumberWrapper, type, label, isPrimary,
+                id, accountName, accountType, dataVersion);
+        phoneNumber.setIsFavorite(in.get() != 0);
+        return phoneNumber;
+    }
+
     public static Creator<PhoneNumber> CREATOR = new Creator<PhoneNumber>() {
         @Override
         public PhoneNumber createFromParcel(Parcel source) {
-            int type = source.readInt();
-            String label = source.readString();
-            I18nPhoneNumberWrapper i18nPhoneNumberWrapper = source.readParcelable(
-                    I18nPhoneNumberWrapper.class.getClassLoader());
-            boolean isPrimary = source.readBoolean();
-            long id = source.readLong();
-            String accountName = source.readString();
-            String accountType = source.readString();
-            int dataVersion = source.readInt();
-            PhoneNumber phoneNumber = new PhoneNumber(i18nPhoneNumberWrapper, type, label,
-                    isPrimary, id, accountName, accountType, dataVersion);
-            phoneNumber.setIsFavorite(source.readBoolean());
-            return phoneNumber;
+            CompactParcels.readVersion(source, "PhoneNumber");
+            return readFieldsFromParcel(source, null);
         }
 
         @Override
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.telephony.CarrierConfigManager;
+import android.telephony.PhoneNumberUtils;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.telephony.emergency.EmergencyNumber;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.content.ContextCompat;
+
+import com.android.car.apps.common.log.L;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Classifies phone numbers as voicemail, emergency or own numbers.
+ *
+ * <p>The numbers of every class are read once from the telephony services and kept in hash sets,
+ * so classifying a number only normalizes it and probes the sets. They are read again after the
+ * subscriptions or the carrier config changed.
+ */
+class PhoneNumberClassifier {
+    private static final String TAG = "CD.PhoneNumberClassifier";
+    /**
+     * Used when the emergency numbers can't be read from the telephony services, which is common
+     * on head units without a SIM. Only the numbers which are emergency numbers in every region.
+     */
+    private static final Set<String> DEFAULT_EMERGENCY_NUMBERS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList("112", "911")));
+
+    /** Reads the numbers to classify. Replaced by a fake in tests. */
+    interface Source {
+        /** Returns true if the numbers can be read, false if they have to be read again later. */
+        boolean hasPhoneStatePermission();
+
+        /** Returns the voicemail number of the default subscription. */
+        @Nullable
+        String getDefaultVoicemailNumber();
+
+        /** Returns the voicemail numbers of all the active subscriptions. */
+        @NonNull
+        Set<String> getVoicemailNumbers();
+
+        /** Returns the emergency numbers of all the active subscriptions. */
+        @NonNull
+        Set<String> getEmergencyNumbers();
+
+        /** Returns the numbers of all the active subscriptions. */
+        @NonNull
+        Set<String> getOwnNumbers();
+    }
+
+    private static PhoneNumberClassifier sInstance;
+
+    private final Source mSource;
+    private volatile Snapshot mSnapshot;
+
+    /** Returns the classifier of the application. */
+    static PhoneNumberClassifier get(Context context) {
+        synchronized (PhoneNumberClassifier.class) {
+            if (sInstance == null) {
+                Context appContext = context.getApplicationContext();
+                sInstance = new PhoneNumberClassifier(appContext, new TelephonySource(appContext));
+            }
+            return sInstance;
+        }
+    }
+
+    /** Replaces the classifier of the application, null to restore the default one. */
+    @VisibleForTesting
+    static void setInstanceForTesting(@Nullable PhoneNumberClassifier classifier) {
+        synchronized (PhoneNumberClassifier.class) {
+            sInstance = classifier;
+        }
+    }
+
+    @VisibleForTesting
+    PhoneNumberClassifier(Context context, Source source) {
+        mSource = source;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED);
+        filter.addAction(SubscriptionManager.ACTION_DEFAULT_SUBSCRIPTION_CHANGED);
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                L.d(TAG, "Invalidating numbers on " + intent.getAction());
+                invalidate();
+            }
+        }, filter);
+    }
+
+    /** Returns the voicemail number of the default subscription. */
+    @Nullable
+    String getVoicemailNumber() {
+        return getSnapshot().mDefaultVoicemailNumber;
+    }
+
+    /** Returns true if the number is the voicemail number of a subscription. */
+    boolean isVoicemailNumber(@Nullable String number) {
+        return contains(getSnapshot().mVoicemailNumbers, number);
+    }
+
+    /** Returns true if the number is an emergency number. */
+    boolean isEmergencyNumber(@Nullable String number) {
+        return contains(getSnapshot().mEmergencyNumbers, number);
+    }
+
+    /** Returns true if the number is the number of a subscription of this device. */
+    boolean isOwnNumber(@Nullable String number) {
+        return contains(getSnapshot().mOwnNumbers, number);
+    }
+
+    /** Drops the numbers, they are read again on the next classification. */
+    void invalidate() {
+        mSnapshot = null;
+    }
+
+    private static boolean contains(Set<String> numbers, @Nullable String number) {
+        return !TextUtils.isEmpty(number) && numbers.contains(normalize(number));
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot snapshot = mSnapshot;
+        // Without the permission, the numbers are read again once it is granted.
+        if (snapshot == null
+                || (!snapshot.mHasPhoneStatePermission && mSource.hasPhoneStatePermission())) {
+            snapshot = new Snapshot(mSource);
+            mSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    @Nullable
+    private static String normalize(@Nullable String number) {
+        return TextUtils.isEmpty(number) ? number : PhoneNumberUtils.normalizeNumber(number);
+    }
+
+    private static Set<String> normalizeAll(Set<String> numbers) {
+        Set<String> normalizedNumbers = new HashSet<>();
+        for (String number : numbers) {
+            if (!TextUtils.isEmpty(number)) {
+                normalizedNumbers.add(normalize(number));
+            }
+        }
+        return normalizedNumbers;
+    }
+
+    private static class Snapshot {
+        private final boolean mHasPhoneStatePermission;
+        @Nullable
+        private final String mDefaultVoicemailNumber;
+        private final Set<String> mVoicemailNumbers;
+        private final Set<String> mEmergencyNumbers;
+        private final Set<String> mOwnNumbers;
+
+        private Snapshot(Source source) {
+            mHasPhoneStatePermission = source.hasPhoneStatePermission();
+            if (mHasPhoneStatePermission) {
+                mDefaultVoicemailNumber = source.getDefaultVoicemailNumber();
+                Set<String> voicemailNumbers = new HashSet<>(source.getVoicemailNumbers());
+                voicemailNumbers.add(mDefaultVoicemailNumber);
+                mVoicemailNumbers = normalizeAll(voicemailNumbers);
+                mEmergencyNumbers = normalizeAll(source.getEmergencyNumbers());
+                mOwnNumbers = normalizeAll(source.getOwnNumbers());
+            } else {
+                mDefaultVoicemailNumber = null;
+                mVoicemailNumbers = Collections.emptySet();
+                mEmergencyNumbers = DEFAULT_EMERGENCY_NUMBERS;
+                mOwnNumbers = Collections.emptySet();
+            }
+        }
+    }
+
+    /** Reads the numbers from {@link TelephonyManager} and {@link SubscriptionManager}. */
+    private static class TelephonySource implements Source {
+        private final Context mContext;
+
+        private TelephonySource(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public boolean hasPhoneStatePermission() {
+            return ContextCompat.checkSelfPermission(mContext,
+                    Manifest.permission.READ_PHONE_STATE) == PackageManager.PERMISSION_GRANTED;
+        }
+
+        @Override
+        public String getDefaultVoicemailNumber() {
+            return TelecomUtils.getTelephonyManager(mContext).getVoiceMailNumber();
+        }
+
+        @Override
+        public Set<String> getVoicemailNumbers() {
+            Set<String> numbers = new HashSet<>();
+            TelephonyManager telephonyManager = TelecomUtils.getTelephonyManager(mContext);
+            for (SubscriptionInfo subscriptionInfo : getActiveSubscriptions()) {
+                numbers.add(telephonyManager.createForSubscriptionId(
+                        subscriptionInfo.getSubscriptionId()).getVoiceMailNumber());
+            }
+            return numbers;
+        }
+
+        @Override
+        public Set<String> getEmergencyNumbers() {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+                return DEFAULT_EMERGENCY_NUMBERS;
+            }
+            Set<String> numbers = new HashSet<>();
+            try {
+                Map<Integer, List<EmergencyNumber>> emergencyNumbers =
+                        TelecomUtils.getTelephonyManager(mContext).getEmergencyNumberList();
+                for (List<EmergencyNumber> subscriptionNumbers : emergencyNumbers.values()) {
+                    for (EmergencyNumber emergencyNumber : subscriptionNumbers) {
+                        numbers.add(emergencyNumber.getNumber());
+                    }
+                }
+            } catch (IllegalStateException | SecurityException e) {
+                L.w(TAG, "Failed to read the emergency numbers: " + e);
+            }
+            return numbers.isEmpty() ? DEFAULT_EMERGENCY_NUMBERS : numbers;
+        }
+
+        @Override
+        public Set<String> getOwnNumbers() {
+            Set<String> numbers = new HashSet<>();
+            for (SubscriptionInfo subscriptionInfo : getActiveSubscriptions()) {
+                numbers.add(subscriptionInfo.getNumber());
+            }
+            return numbers;
+        }
+
+        private List<SubscriptionInfo> getActiveSubscriptions() {
+            SubscriptionManager subscriptionManager = mContext.getSystemService(
+                    SubscriptionManager.class);
+            List<SubscriptionInfo> subscriptions = subscriptionManager == null
+                    ? null : subscriptionManager.getActiveSubscriptionInfoList();
+            return subscriptions == null ? Collections.emptyList() : subscriptions;
+        }
+    }
+}
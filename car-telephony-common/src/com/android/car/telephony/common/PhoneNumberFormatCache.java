@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.telephony.PhoneNumberUtils;
+import android.telephony.TelephonyManager;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import com.android.car.apps.common.log.L;
+
+/**
+ * Keeps the numbers formatted by {@link TelecomUtils#getFormattedNumber}, so the call log and the
+ * in-call UI don't format the same numbers again every time they are bound.
+ *
+ * <p>The numbers are keyed by the country they are formatted for, which is read once from the
+ * locale. Both are dropped when the locale or the network country changes.
+ */
+public class PhoneNumberFormatCache {
+    private static final String TAG = "CD.PhoneNumberFormatCache";
+    private static final int DEFAULT_MAX_SIZE = 256;
+
+    private static PhoneNumberFormatCache sInstance;
+
+    /** Returns the cache of the application. */
+    public static PhoneNumberFormatCache get(@NonNull Context context) {
+        synchronized (PhoneNumberFormatCache.class) {
+            if (sInstance == null) {
+                sInstance = new PhoneNumberFormatCache(context.getApplicationContext(),
+                        DEFAULT_MAX_SIZE);
+            }
+            return sInstance;
+        }
+    }
+
+    private final Context mContext;
+    private final LruCache<String, String> mFormattedNumbers;
+    private volatile String mCountryIso;
+
+    @VisibleForTesting
+    PhoneNumberFormatCache(Context context, int maxSize) {
+        mContext = context;
+        mFormattedNumbers = new LruCache<>(maxSize);
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(TelephonyManager.ACTION_NETWORK_COUNTRY_CHANGED);
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                L.d(TAG, "Invalidating formatted numbers on " + intent.getAction());
+                invalidate();
+            }
+        }, filter);
+    }
+
+    /**
+     * Returns the number formatted for the country of the current locale, or the number itself if
+     * it can't be formatted.
+     */
+    @NonNull
+    String format(@NonNull String number) {
+        String countryIso = getCountryIso();
+        // The country code never contains the separator, so the keys can't collide.
+        String key = countryIso + "/" + number;
+        String formattedNumber = mFormattedNumbers.get(key);
+        if (formattedNumber == null) {
+            L.d(TAG, "PhoneNumberUtils.formatNumber, number: " + TelecomUtils.piiLog(number)
+                    + ", country: " + countryIso);
+            formattedNumber = PhoneNumberUtils.formatNumber(number, countryIso);
+            formattedNumber = TextUtils.isEmpty(formattedNumber) ? number : formattedNumber;
+            mFormattedNumbers.put(key, formattedNumber);
+        }
+        return formattedNumber;
+    }
+
+    /** Drops the formatted numbers and the country they are formatted for. */
+    public void invalidate() {
+        mCountryIso = null;
+        mFormattedNumbers.evictAll();
+    }
+
+    /** Returns the number of formatted numbers found in the cache. */
+    public int getHitCount() {
+        return mFormattedNumbers.hitCount();
+    }
+
+    /** Returns the number of numbers which had to be formatted. */
+    public int getMissCount() {
+        return mFormattedNumbers.missCount();
+    }
+
+    /** Returns the fraction of the numbers found in the cache, 0 if none was requested. */
+    public float getHitRate() {
+        int hitCount = mFormattedNumbers.hitCount();
+        int requestCount = hitCount + mFormattedNumbers.missCount();
+        return requestCount == 0 ? 0 : (float) hitCount / requestCount;
+    }
+
+    @Override
+    public String toString() {
+        return "PhoneNumberFormatCache{size=" + mFormattedNumbers.size() + "/"
+                + mFormattedNumbers.maxSize() + ", hits=" + mFormattedNumbers.hitCount()
+                + ", misses=" + mFormattedNumbers.missCount() + ", evictions="
+                + mFormattedNumbers.evictionCount() + "}";
+    }
+
+    private String getCountryIso() {
+        String countryIso = mCountryIso;
+        if (countryIso == null) {
+            countryIso = TelecomUtils.getCurrentCountryIsoFromLocale(mContext);
+            mCountryIso = countryIso;
+        }
+        return countryIso;
+    }
+}
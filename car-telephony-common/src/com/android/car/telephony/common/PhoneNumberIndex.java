@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Indexes values by phone number.
+ *
+ * <p>Numbers are hashed by their {@link I18nPhoneNumberWrapper#getIndexKey() canonical key}, so a
+ * lookup is a single hash probe and never runs the libphonenumber matcher. If there is no exact
+ * match, numbers sharing the same {@link I18nPhoneNumberWrapper#getSuffixKey() suffix} are
+ * compared, which finds the entry for a number dialed without its area code. The suffix match is
+ * only returned if it is unambiguous.
+ *
+ * <p>This class is not thread safe.
+ *
+ * @param <V> The type of values indexed.
+ */
+class PhoneNumberIndex<V> {
+    private static final class Entry<V> {
+        private final I18nPhoneNumberWrapper mNumber;
+        private final V mValue;
+
+        private Entry(I18nPhoneNumberWrapper number, V value) {
+            mNumber = number;
+            mValue = value;
+        }
+    }
+
+    /** Values by canonical key. The last added value wins when several share the same number. */
+    private final Map<String, List<V>> mKeyMap = new HashMap<>();
+    /** Entries by suffix key, only used when there is no exact match. */
+    private final Map<String, List<Entry<V>>> mSuffixMap = new HashMap<>();
+
+    PhoneNumberIndex() {
+    }
+
+    /** Creates an index of the same values as the given one, which is not modified. */
+    PhoneNumberIndex(@NonNull PhoneNumberIndex<V> other) {
+        for (Map.Entry<String, List<V>> entry : other.mKeyMap.entrySet()) {
+            mKeyMap.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        for (Map.Entry<String, List<Entry<V>>> entry : other.mSuffixMap.entrySet()) {
+            mSuffixMap.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+    }
+
+    /** Adds a value for the given number. */
+    void put(@NonNull I18nPhoneNumberWrapper number, @NonNull V value) {
+        List<V> values = mKeyMap.get(number.getIndexKey());
+        if (values == null) {
+            values = new ArrayList<>(1);
+            mKeyMap.put(number.getIndexKey(), values);
+        }
+        values.add(value);
+
+        List<Entry<V>> entries = mSuffixMap.get(number.getSuffixKey());
+        if (entries == null) {
+            entries = new ArrayList<>(1);
+            mSuffixMap.put(number.getSuffixKey(), entries);
+        }
+        entries.add(new Entry<>(number, value));
+    }
+
+    /** Removes the value for the given number. Other values of the same number are kept. */
+    void remove(@NonNull I18nPhoneNumberWrapper number, @NonNull V value) {
+        List<V> values = mKeyMap.get(number.getIndexKey());
+        if (values != null) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                mKeyMap.remove(number.getIndexKey());
+            }
+        }
+
+        List<Entry<V>> entries = mSuffixMap.get(number.getSuffixKey());
+        if (entries != null) {
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                Entry<V> entry = entries.get(i);
+                if (entry.mValue.equals(value) && entry.mNumber.equals(number)) {
+                    entries.remove(i);
+                    break;
+                }
+            }
+            if (entries.isEmpty()) {
+                mSuffixMap.remove(number.getSuffixKey());
+            }
+        }
+    }
+
+    /**
+     * Returns the value for the given number. Falls back to the value whose number only differs by
+     * its area code or country code if there is exactly one such value.
+     */
+    @Nullable
+    V get(@NonNull I18nPhoneNumberWrapper number) {
+        List<V> values = mKeyMap.get(number.getIndexKey());
+        if (values != null) {
+            return values.get(values.size() - 1);
+        }
+
+        List<Entry<V>> entries = mSuffixMap.get(number.getSuffixKey());
+        if (entries == null) {
+            return null;
+        }
+        V match = null;
+        for (Entry<V> entry : entries) {
+            if (entry.mNumber.isShortMatch(number)) {
+                if (match != null && !match.equals(entry.mValue)) {
+                    // Ambiguous, let the caller fall back to the contacts provider.
+                    return null;
+                }
+                match = entry.mValue;
+            }
+        }
+        return match;
+    }
+
+    /** Removes all the values. */
+    void clear() {
+        mKeyMap.clear();
+        mSuffixMap.clear();
+    }
+
+    /** Returns the number of distinct phone numbers indexed. */
+    int size() {
+        return mKeyMap.size();
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import com.android.car.apps.common.log.L;
+import com.android.car.telephony.common.TelecomUtils.PhoneNumberInfo;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Resolves the {@link PhoneNumberInfo} of phone numbers for {@link
+ * TelecomUtils#getPhoneNumberInfo}.
+ *
+ * <p>Concurrent requests for the same number share a single lookup. Numbers which are not in the
+ * {@link InMemoryPhoneBook} are queued and looked up together with a single query on their
+ * normalized numbers, so a screen requesting dozens of numbers at once doesn't run one {@link
+ * ContactsContract.PhoneLookup} query per number. Only the numbers this query doesn't match, such
+ * as numbers stored without a normalized form, fall back to a {@link
+ * ContactsContract.PhoneLookup} query of their own. Results are kept in a bounded cache which is
+ * cleared whenever contacts change.
+ */
+class PhoneNumberInfoResolver {
+    private static final String TAG = "CD.PhoneNumberInfoResolver";
+    private static final int MAX_CACHE_SIZE = 256;
+    /** Bounded by the number of arguments a SQLite statement accepts. */
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static PhoneNumberInfoResolver sInstance;
+
+    private final Context mContext;
+    private final Object mLock = new Object();
+    /** Guarded by {@link #mLock}. */
+    private final LruCache<String, PhoneNumberInfo> mCache = new LruCache<>(MAX_CACHE_SIZE);
+    /** Lookups in flight by number. Guarded by {@link #mLock}. */
+    private final Map<String, CompletableFuture<PhoneNumberInfo>> mPendingLookups =
+            new HashMap<>();
+    /** Numbers waiting for a batch to look them up. Guarded by {@link #mLock}. */
+    private final Set<String> mQueuedNumbers = new LinkedHashSet<>();
+    /**
+     * Incremented whenever contacts change, so results of lookups started before are not cached.
+     * Guarded by {@link #mLock}.
+     */
+    private int mGeneration;
+    /** Guarded by {@link #mLock}. */
+    private boolean mIsRunningBatches;
+
+    /** Returns the resolver of the application. */
+    static PhoneNumberInfoResolver get(Context context) {
+        synchronized (PhoneNumberInfoResolver.class) {
+            if (sInstance == null) {
+                sInstance = new PhoneNumberInfoResolver(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    @VisibleForTesting
+    PhoneNumberInfoResolver(Context context) {
+        mContext = context;
+
+        mContext.getContentResolver().registerContentObserver(
+                ContactsContract.Contacts.CONTENT_URI, true,
+                new ContentObserver(new Handler(Looper.getMainLooper())) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidate();
+                    }
+                });
+    }
+
+    /** Returns the info of the number, from the cache or from a lookup shared with others. */
+    @NonNull
+    CompletableFuture<PhoneNumberInfo> resolve(@NonNull String number) {
+        CompletableFuture<PhoneNumberInfo> lookup;
+        synchronized (mLock) {
+            PhoneNumberInfo cachedInfo = mCache.get(number);
+            if (cachedInfo != null) {
+                return CompletableFuture.completedFuture(cachedInfo);
+            }
+            CompletableFuture<PhoneNumberInfo> pendingLookup = mPendingLookups.get(number);
+            if (pendingLookup != null) {
+                return pendingLookup;
+            }
+
+            lookup = new CompletableFuture<>();
+            mPendingLookups.put(number, lookup);
+            mQueuedNumbers.add(number);
+            // Requests made while the batches are running are queued for the next batch.
+            if (mIsRunningBatches) {
+                return lookup;
+            }
+            mIsRunningBatches = true;
+        }
+        dispatchBatches();
+        return lookup;
+    }
+
+    /** Drops the cached results. */
+    void invalidate() {
+        synchronized (mLock) {
+            mGeneration++;
+            mCache.evictAll();
+        }
+    }
+
+    /**
+     * Runs the batches in the {@link WorkerExecutor.Priority#INTERACTIVE} lane, since someone is
+     * waiting for the caller id. The lane is fetched every time, as the {@link WorkerExecutor} of
+     * the application is replaced after it is torn down.
+     */
+    private void dispatchBatches() {
+        try {
+            WorkerExecutor.getInstance().getExecutor(WorkerExecutor.Priority.INTERACTIVE)
+                    .execute(this::runBatches);
+            return;
+        } catch (RejectedExecutionException e) {
+            L.w(TAG, "Failed to schedule the lookup of numbers: " + e);
+        }
+
+        // Nothing will run the queued numbers, complete them without a contact.
+        Map<String, CompletableFuture<PhoneNumberInfo>> lookups = new HashMap<>();
+        synchronized (mLock) {
+            for (String number : mQueuedNumbers) {
+                lookups.put(number, mPendingLookups.remove(number));
+            }
+            mQueuedNumbers.clear();
+            mIsRunningBatches = false;
+        }
+        for (Map.Entry<String, CompletableFuture<PhoneNumberInfo>> entry : lookups.entrySet()) {
+            entry.getValue().complete(TelecomUtils.createPhoneNumberInfo(mContext, entry.getKey(),
+                    null, null, null, null, null, null));
+        }
+    }
+
+    @WorkerThread
+    private void runBatches() {
+        while (true) {
+            List<String> numbers = new ArrayList<>();
+            int generation;
+            synchronized (mLock) {
+                for (String number : mQueuedNumbers) {
+                    numbers.add(number);
+                    if (numbers.size() == MAX_BATCH_SIZE) {
+                        break;
+                    }
+                }
+                if (numbers.isEmpty()) {
+                    mIsRunningBatches = false;
+                    return;
+                }
+                mQueuedNumbers.removeAll(numbers);
+                generation = mGeneration;
+            }
+
+            Map<String, PhoneNumberInfo> results;
+            try {
+                results = lookUpNumbers(numbers);
+            } catch (RuntimeException e) {
+                L.w(TAG, "Failed to look up numbers: " + e);
+                results = new HashMap<>();
+                for (String number : numbers) {
+                    results.put(number, TelecomUtils.createPhoneNumberInfo(mContext, number, null,
+                            null, null, null, null, null));
+                }
+            }
+
+            for (String number : numbers) {
+                PhoneNumberInfo phoneNumberInfo = results.get(number);
+                CompletableFuture<PhoneNumberInfo> lookup;
+                synchronized (mLock) {
+                    lookup = mPendingLookups.remove(number);
+                    if (generation == mGeneration) {
+                        mCache.put(number, phoneNumberInfo);
+                    }
+                }
+                lookup.complete(phoneNumberInfo);
+            }
+        }
+    }
+
+    /** Looks up the numbers in the phone book first, then in the contacts provider. */
+    @WorkerThread
+    private Map<String, PhoneNumberInfo> lookUpNumbers(List<String> numbers) {
+        Map<String, PhoneNumberInfo> results = new HashMap<>();
+        if (!TelecomUtils.hasContactsPermission(mContext)) {
+            for (String number : numbers) {
+                results.put(number, TelecomUtils.createPhoneNumberInfo(mContext, number, null,
+                        null, null, null, null, null));
+            }
+            return results;
+        }
+
+        // Numbers missing from the phone book by their normalized number.
+        String countryIso = TelecomUtils.getCurrentCountryIso(mContext);
+        Map<String, List<String>> missingNumbers = new HashMap<>();
+        for (String number : numbers) {
+            PhoneNumberInfo phoneNumberInfo = TelecomUtils.lookupNumberInPhoneBook(mContext,
+                    number);
+            if (phoneNumberInfo != null) {
+                results.put(number, phoneNumberInfo);
+                continue;
+            }
+            String normalizedNumber = PhoneNumberUtils.formatNumberToE164(number, countryIso);
+            if (normalizedNumber == null) {
+                // The number can't be matched on its normalized form, use the fuzzy lookup.
+                results.put(number, TelecomUtils.lookupNumberInProvider(mContext, number));
+                continue;
+            }
+            List<String> sameNumbers = missingNumbers.get(normalizedNumber);
+            if (sameNumbers == null) {
+                sameNumbers = new ArrayList<>(1);
+                missingNumbers.put(normalizedNumber, sameNumbers);
+            }
+            sameNumbers.add(number);
+        }
+        if (missingNumbers.isEmpty()) {
+            return results;
+        }
+
+        L.d(TAG, "Looking up " + missingNumbers.size() + " numbers in one query.");
+        StringBuilder selection = new StringBuilder(Phone.NORMALIZED_NUMBER).append(" IN (");
+        String[] selectionArgs = missingNumbers.keySet().toArray(new String[0]);
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+        try (Cursor cursor = mContext.getContentResolver().query(
+                Phone.CONTENT_URI,
+                new String[]{
+                        Phone.NORMALIZED_NUMBER,
+                        Phone.DISPLAY_NAME,
+                        Phone.DISPLAY_NAME_ALTERNATIVE,
+                        Phone.PHOTO_URI,
+                        Phone.TYPE,
+                        Phone.LABEL,
+                        Phone.LOOKUP_KEY,
+                },
+                selection.toString(), selectionArgs, null)) {
+            while (cursor != null && cursor.moveToNext()) {
+                List<String> sameNumbers = missingNumbers.remove(cursor.getString(0));
+                if (sameNumbers == null) {
+                    // Several contacts have this number, the first one wins.
+                    continue;
+                }
+                String name = cursor.getString(1);
+                String nameAlt = cursor.getString(2);
+                String photoUriString = cursor.getString(3);
+                CharSequence typeLabel = Phone.getTypeLabel(mContext.getResources(),
+                        cursor.getInt(4), cursor.getString(5));
+                for (String number : sameNumbers) {
+                    results.put(number, TelecomUtils.createPhoneNumberInfo(
+                            mContext,
+                            number,
+                            name,
+                            nameAlt,
+                            TelecomUtils.getInitials(name, nameAlt),
+                            TextUtils.isEmpty(photoUriString) ? null : Uri.parse(photoUriString),
+                            typeLabel,
+                            cursor.getString(6)));
+                }
+            }
+        }
+
+        // Contacts may have these numbers without a normalized number, for instance numbers
+        // stored without their country code or synced over PBAP. PhoneLookup matches them loosely.
+        for (List<String> sameNumbers : missingNumbers.values()) {
+            for (String number : sameNumbers) {
+                results.put(number, TelecomUtils.lookupNumberInProvider(mContext, number));
+            }
+        }
+        return results;
+    }
+}
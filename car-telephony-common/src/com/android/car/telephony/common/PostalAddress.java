@@ -28,6 +28,10 @@ import androidx.annotation.Nullable;
 import com.android.car.apps.common.NavigationUtils;
 import com.android.car.apps.common.log.L;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * Encapsulates data about an address entry. Typically loaded from the local Address store.
  */
@@ -55,17 +59,16 @@ public class PostalAddress implements Parcelable {
      * Parses a PostalAddress entry for a Cursor loaded from the Address Database.
      */
     public static PostalAddress fromCursor(Cursor cursor) {
-        int formattedAddressColumn = cursor.getColumnIndex(
-                ContactsContract.CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS);
-        int addressTypeColumn = cursor.getColumnIndex(
-                ContactsContract.CommonDataKinds.StructuredPostal.TYPE);
-        int labelColumn = cursor.getColumnIndex(
-                ContactsContract.CommonDataKinds.StructuredPostal.LABEL);
+        return fromCursor(new ProjectionBinder(cursor));
+    }
 
+    static PostalAddress fromCursor(ProjectionBinder binder) {
         PostalAddress postalAddress = new PostalAddress();
-        postalAddress.mFormattedAddress = cursor.getString(formattedAddressColumn);
-        postalAddress.mType = cursor.getInt(addressTypeColumn);
-        postalAddress.mLabel = cursor.getString(labelColumn);
+        postalAddress.mFormattedAddress = binder.getString(
+                ContactsContract.CommonDataKinds.StructuredPostal.FORMATTED_ADDRESS);
+        postalAddress.mType = binder.getInt(ContactsContract.CommonDataKinds.StructuredPostal.TYPE);
+        postalAddress.mLabel = binder.getString(
+                ContactsContract.CommonDataKinds.StructuredPostal.LABEL);
 
         return postalAddress;
     }
@@ -128,22 +131,50 @@ public class PostalAddress implements Parcelable {
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
+        CompactParcels.writeVersion(dest);
+        writeFieldsToParcel(dest);
+    }
+
+    /** Writes this address to a parcel without a version, inside a versioned parcelable. */
+    void writeFieldsToParcel(Parcel dest) {
         dest.writeInt(mType);
         dest.writeString(mLabel);
         dest.writeString(mFormattedAddress);
     }
 
+    /** Reads an address written by {@link #writeFieldsToParcel}. */
+    static PostalAddress readFieldsFromParcel(Parcel source) {
+        PostalAddress postalAddress = new PostalAddress();
+        postalAddress.mType = source.readInt();
+        postalAddress.mLabel = source.readString();
+        postalAddress.mFormattedAddress = source.readString();
+        return postalAddress;
+    }
+
+    /** Writes this address to a {@link PhoneBookSnapshotStore snapshot}. */
+    void writeToSnapshot(DataOutputStream out) throws IOException {
+        out.writeInt(mType);
+        PhoneBookSnapshotStore.writeString(out, mLabel);
+        PhoneBookSnapshotStore.writeString(out, mFormattedAddress);
+    }
+
+    /** Reads an address written by {@link #writeToSnapshot}. */
+    static PostalAddress readFromSnapshot(ByteBuffer in) {
+        PostalAddress postalAddress = new PostalAddress();
+        postalAddress.mType = in.getInt();
+        postalAddress.mLabel = PhoneBookSnapshotStore.readString(in);
+        postalAddress.mFormattedAddress = PhoneBookSnapshotStore.readString(in);
+        return postalAddress;
+    }
+
     /**
      * Create {@link PostalAddress} object from saved parcelable.
      */
     public static Creator<PostalAddress> CREATOR = new Creator<PostalAddress>() {
         @Override
         public PostalAddress createFromParcel(Parcel source) {
-            PostalAddress postalAddress = new PostalAddress();
-            postalAddress.mType = source.readInt();
-            postalAddress.mLabel = source.readString();
-            postalAddress.mFormattedAddress = source.readString();
-            return postalAddress;
+            CompactParcels.readVersion(source, "PostalAddress");
+            return readFieldsFromParcel(source);
         }
 
         @Override
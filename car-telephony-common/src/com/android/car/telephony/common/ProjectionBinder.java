@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the columns of a cursor by name, resolving the index of every column only once.
+ *
+ * <p>{@link Cursor#getColumnIndex(String)} compares the name with every column of the
+ * projection. The entity factories read a dozen columns per row, so they share one binder for all
+ * the rows of a cursor instead. A column missing from the projection reads as null or 0.
+ *
+ * <p>This class is not thread safe.
+ */
+class ProjectionBinder {
+    private final Cursor mCursor;
+    private final Map<String, Integer> mColumnIndices = new HashMap<>();
+
+    ProjectionBinder(@NonNull Cursor cursor) {
+        mCursor = cursor;
+    }
+
+    /** Returns the cursor, positioned at the row being read. */
+    @NonNull
+    Cursor getCursor() {
+        return mCursor;
+    }
+
+    /** Returns the index of the column, -1 if it is not in the projection. */
+    int getColumnIndex(@NonNull String columnName) {
+        Integer columnIndex = mColumnIndices.get(columnName);
+        if (columnIndex == null) {
+            columnIndex = mCursor.getColumnIndex(columnName);
+            mColumnIndices.put(columnName, columnIndex);
+        }
+        return columnIndex;
+    }
+
+    /** Returns true if the column is in the projection. */
+    boolean hasColumn(@NonNull String columnName) {
+        return getColumnIndex(columnName) >= 0;
+    }
+
+    @Nullable
+    String getString(@NonNull String columnName) {
+        int columnIndex = getColumnIndex(columnName);
+        return columnIndex < 0 ? null : mCursor.getString(columnIndex);
+    }
+
+    long getLong(@NonNull String columnName) {
+        int columnIndex = getColumnIndex(columnName);
+        return columnIndex < 0 ? 0 : mCursor.getLong(columnIndex);
+    }
+
+    int getInt(@NonNull String columnName) {
+        int columnIndex = getColumnIndex(columnName);
+        return columnIndex < 0 ? 0 : mCursor.getInt(columnIndex);
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+/**
+ * Decides when {@link ObservableAsyncQuery} queries again after the observed data changed.
+ *
+ * <p>Syncs like PBAP notify changes in bursts. Instead of restarting the query for every
+ * notification, the query can wait until no change has been notified for {@code debounceMs}, but
+ * never longer than {@code maxLatencyMs} after the first change. Changes notified while a query is
+ * running can also be coalesced into a single query started once it completes.
+ */
+public class RequeryPolicy {
+    /** Queries again as soon as a change is notified, cancelling the running query. */
+    public static final RequeryPolicy IMMEDIATE = new RequeryPolicy(0, 0, false);
+
+    /** Used by {@link ObservableAsyncQuery} to wait for the changes to settle. */
+    final long mDebounceMs;
+    /** Used by {@link ObservableAsyncQuery} to bound the delay after the first change. */
+    final long mMaxLatencyMs;
+    /** Used by {@link ObservableAsyncQuery} to let a running query complete. */
+    final boolean mCoalesceWhileInFlight;
+
+    /**
+     * @param debounceMs            the time without any change to wait for before querying again.
+     * @param maxLatencyMs          the maximum time between a change and the next query, even if
+     *                              changes keep being notified. Ignored if it is shorter than the
+     *                              debounce window.
+     * @param coalesceWhileInFlight if true, a running query is not cancelled by a change. The
+     *                              changes notified meanwhile trigger a single query once it
+     *                              completes.
+     */
+    public RequeryPolicy(long debounceMs, long maxLatencyMs, boolean coalesceWhileInFlight) {
+        mDebounceMs = debounceMs;
+        mMaxLatencyMs = Math.max(debounceMs, maxLatencyMs);
+        mCoalesceWhileInFlight = coalesceWhileInFlight;
+    }
+}
@@ -17,24 +17,27 @@
 package com.android.car.telephony.common;
 
 import android.Manifest;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.graphics.drawable.Icon;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.provider.CallLog;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.PhoneLookup;
 import android.provider.Settings;
 import android.telecom.Call;
-import android.telephony.PhoneNumberUtils;
 import android.telephony.TelephonyManager;
 import android.text.BidiFormatter;
 import android.text.TextDirectionHeuristics;
@@ -45,7 +48,6 @@ import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
 import androidx.core.content.ContextCompat;
 import androidx.core.graphics.drawable.RoundedBitmapDrawable;
-import androidx.core.graphics.drawable.RoundedBitmapDrawableFactory;
 
 import com.android.car.apps.common.LetterTileDrawable;
 import com.android.car.apps.common.log.L;
@@ -57,6 +59,8 @@ import com.google.i18n.phonenumbers.PhoneNumberUtil;
 import com.google.i18n.phonenumbers.Phonenumber;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CompletableFuture;
@@ -77,21 +81,18 @@ public class TelecomUtils {
      */
     public static final Integer SORT_BY_LAST_NAME = 2;
 
-    private static String sVoicemailNumber;
     private static TelephonyManager sTelephonyManager;
 
     /**
      * Get the voicemail number.
      */
     public static String getVoicemailNumber(Context context) {
-        if (sVoicemailNumber == null) {
-            sVoicemailNumber = getTelephonyManager(context).getVoiceMailNumber();
-        }
-        return sVoicemailNumber;
+        return PhoneNumberClassifier.get(context).getVoicemailNumber();
     }
 
     /**
-     * Returns {@code true} if the given number is a voice mail number.
+     * Returns {@code true} if the given number is the voice mail number of an active subscription.
+     * The voice mail numbers are cached until the subscriptions or the carrier config change.
      *
      * @see TelephonyManager#getVoiceMailNumber()
      */
@@ -99,13 +100,33 @@ public class TelecomUtils {
         if (TextUtils.isEmpty(number)) {
             return false;
         }
+        return PhoneNumberClassifier.get(context).isVoicemailNumber(number);
+    }
 
-        if (ContextCompat.checkSelfPermission(context, Manifest.permission.READ_PHONE_STATE)
-                != PackageManager.PERMISSION_GRANTED) {
+    /**
+     * Returns {@code true} if the given number is an emergency number. The emergency numbers are
+     * cached until the subscriptions or the carrier config change.
+     *
+     * @see TelephonyManager#getEmergencyNumberList()
+     */
+    public static boolean isEmergencyNumber(Context context, String number) {
+        if (TextUtils.isEmpty(number)) {
             return false;
         }
+        return PhoneNumberClassifier.get(context).isEmergencyNumber(number);
+    }
 
-        return number.equals(getVoicemailNumber(context));
+    /**
+     * Returns {@code true} if the given number is the number of an active subscription of this
+     * device.
+     *
+     * @see android.telephony.SubscriptionInfo#getNumber()
+     */
+    public static boolean isOwnNumber(Context context, String number) {
+        if (TextUtils.isEmpty(number)) {
+            return false;
+        }
+        return PhoneNumberClassifier.get(context).isOwnNumber(number);
     }
 
     /**
@@ -121,7 +142,10 @@ public class TelecomUtils {
     }
 
     /**
-     * Format a number as a phone number.
+     * Format a number as a phone number. The formatted numbers are cached until the locale or the
+     * network country changes.
+     *
+     * @see PhoneNumberFormatCache
      */
     public static String getFormattedNumber(Context context, String number) {
         L.d(TAG, "getFormattedNumber: " + piiLog(number));
@@ -129,12 +153,7 @@ public class TelecomUtils {
             return "";
         }
 
-        String countryIso = getCurrentCountryIsoFromLocale(context);
-        L.d(TAG, "PhoneNumberUtils.formatNumber, number: " + piiLog(number)
-                + ", country: " + countryIso);
-
-        String formattedNumber = PhoneNumberUtils.formatNumber(number, countryIso);
-        formattedNumber = TextUtils.isEmpty(formattedNumber) ? number : formattedNumber;
+        String formattedNumber = PhoneNumberFormatCache.get(context).format(number);
         L.d(TAG, "getFormattedNumber, result: " + piiLog(formattedNumber));
 
         return formattedNumber;
@@ -152,11 +171,11 @@ public class TelecomUtils {
         return countryIso;
     }
 
-    private static String getCurrentCountryIso(Context context) {
+    static String getCurrentCountryIso(Context context) {
         return getCurrentCountryIso(context, Locale.getDefault());
     }
 
-    private static String getCurrentCountryIsoFromLocale(Context context) {
+    static String getCurrentCountryIsoFromLocale(Context context) {
         String countryIso;
         countryIso = context.getResources().getConfiguration().getLocales().get(0).getCountry();
 
@@ -273,48 +292,60 @@ public class TelecomUtils {
                     null));
         }
 
-        return CompletableFuture.supplyAsync(() -> lookupNumberInBackground(context, number));
+        return PhoneNumberInfoResolver.get(context).resolve(number);
     }
 
     /** Lookup phone number info in background. */
     @WorkerThread
     public static PhoneNumberInfo lookupNumberInBackground(Context context, String number) {
-        if (ContextCompat.checkSelfPermission(context, Manifest.permission.READ_CONTACTS)
-                != PackageManager.PERMISSION_GRANTED) {
-            String readableNumber = getReadableNumber(context, number);
-            return new PhoneNumberInfo(number, readableNumber, readableNumber, null, null, null,
-                    null);
-        }
-
-        if (InMemoryPhoneBook.isInitialized()) {
-            Contact contact = InMemoryPhoneBook.get().lookupContactEntry(number);
-            if (contact != null) {
-                String name = contact.getDisplayName();
-                String nameAlt = contact.getDisplayNameAlt();
-                if (TextUtils.isEmpty(name)) {
-                    name = getReadableNumber(context, number);
-                }
-                if (TextUtils.isEmpty(nameAlt)) {
-                    nameAlt = name;
-                }
-
-                PhoneNumber phoneNumber = contact.getPhoneNumber(context, number);
-                CharSequence typeLabel = phoneNumber == null ? "" : phoneNumber.getReadableLabel(
-                        context.getResources());
-
-                return new PhoneNumberInfo(
-                        number,
-                        name,
-                        nameAlt,
-                        contact.getInitials(),
-                        contact.getAvatarUri(),
-                        typeLabel.toString(),
-                        contact.getLookupKey());
-            }
-        } else {
-          L.d(TAG, "InMemoryPhoneBook not initialized.");
+        if (!hasContactsPermission(context)) {
+            return createPhoneNumberInfo(context, number, null, null, null, null, null, null);
         }
 
+        PhoneNumberInfo phoneNumberInfo = lookupNumberInPhoneBook(context, number);
+        if (phoneNumberInfo != null) {
+            return phoneNumberInfo;
+        }
+        return lookupNumberInProvider(context, number);
+    }
+
+    static boolean hasContactsPermission(Context context) {
+        return ContextCompat.checkSelfPermission(context, Manifest.permission.READ_CONTACTS)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * Looks up the number in the {@link InMemoryPhoneBook}. Returns null if it is not initialized
+     * or if no contact has the number.
+     */
+    @Nullable
+    static PhoneNumberInfo lookupNumberInPhoneBook(Context context, String number) {
+        if (!InMemoryPhoneBook.isInitialized()) {
+            L.d(TAG, "InMemoryPhoneBook not initialized.");
+            return null;
+        }
+        Contact contact = InMemoryPhoneBook.get().lookupContactEntry(number);
+        if (contact == null) {
+            return null;
+        }
+
+        PhoneNumber phoneNumber = contact.getPhoneNumber(context, number);
+        CharSequence typeLabel = phoneNumber == null ? "" : phoneNumber.getReadableLabel(
+                context.getResources());
+        return createPhoneNumberInfo(
+                context,
+                number,
+                contact.getDisplayName(),
+                contact.getDisplayNameAlt(),
+                contact.getInitials(),
+                contact.getAvatarUri(),
+                typeLabel,
+                contact.getLookupKey());
+    }
+
+    /** Looks up the number with a {@link PhoneLookup} query. */
+    @WorkerThread
+    static PhoneNumberInfo lookupNumberInProvider(Context context, String number) {
         String name = null;
         String nameAlt = null;
         String initials = null;
@@ -356,20 +387,37 @@ public class TelecomUtils {
             }
         }
 
+        return createPhoneNumberInfo(
+                context,
+                number,
+                name,
+                nameAlt,
+                initials,
+                TextUtils.isEmpty(photoUriString) ? null : Uri.parse(photoUriString),
+                typeLabel,
+                lookupKey);
+    }
+
+    /**
+     * Creates the {@link PhoneNumberInfo} of a number, falling back to the readable number if
+     * there is no name.
+     */
+    static PhoneNumberInfo createPhoneNumberInfo(Context context, String number,
+            @Nullable String name, @Nullable String nameAlt, @Nullable String initials,
+            @Nullable Uri avatarUri, @Nullable CharSequence typeLabel, @Nullable String lookupKey) {
         if (TextUtils.isEmpty(name)) {
             name = getReadableNumber(context, number);
         }
         if (TextUtils.isEmpty(nameAlt)) {
             nameAlt = name;
         }
-
         return new PhoneNumberInfo(
                 number,
                 name,
                 nameAlt,
                 initials,
-                TextUtils.isEmpty(photoUriString) ? null : Uri.parse(photoUriString),
-                typeLabel.toString(),
+                avatarUri,
+                typeLabel == null ? null : typeLabel.toString(),
                 lookupKey);
     }
 
@@ -492,14 +540,41 @@ public class TelecomUtils {
             return;
         }
 
-        LetterTileDrawable letterTileDrawable = createLetterTile(context, initials, identifier);
+        Drawable letterTile = getLetterTileForView(context, icon, initials, identifier);
+        if (avatarUri == null) {
+            // Nothing to load, don't start a request which would only fail to the letter tile.
+            Glide.with(context).clear(icon);
+            icon.setImageDrawable(letterTile);
+            return;
+        }
 
         Glide.with(context)
                 .load(avatarUri)
-                .apply(new RequestOptions().centerCrop().error(letterTileDrawable))
+                .apply(ContactAvatarCache.AVATAR_REQUEST_OPTIONS)
+                .apply(RequestOptions.errorOf(letterTile))
                 .into(icon);
     }
 
+    /**
+     * Returns the letter tile shown by the view. It is taken from the {@link ContactAvatarCache},
+     * rendered at the width and height of the view, when they are known. Otherwise a {@link
+     * LetterTileDrawable} is created.
+     */
+    private static Drawable getLetterTileForView(Context context, ImageView icon,
+            @Nullable String initials, @Nullable String identifier) {
+        int width = icon.getWidth();
+        int height = icon.getHeight();
+        if ((width <= 0 || height <= 0) && icon.getLayoutParams() != null) {
+            width = icon.getLayoutParams().width;
+            height = icon.getLayoutParams().height;
+        }
+        if (width <= 0 || height <= 0) {
+            return createLetterTile(context, initials, identifier);
+        }
+        return new BitmapDrawable(context.getResources(), ContactAvatarCache.get(context)
+                .getRectangularLetterTile(context, initials, identifier, width, height));
+    }
+
     /**
      * Create a {@link LetterTileDrawable} for the given initials.
      *
@@ -545,7 +620,8 @@ public class TelecomUtils {
      * valid, it will mark all new missed call log as read.
      */
     public static void markCallLogAsRead(Context context, String phoneNumberString) {
-        markCallLogAsRead(context, CallLog.Calls.NUMBER, phoneNumberString);
+        markCallLogAsRead(context, CallLog.Calls.NUMBER, TextUtils.isEmpty(phoneNumberString)
+                ? Collections.emptyList() : Collections.singletonList(phoneNumberString));
     }
 
     /**
@@ -553,16 +629,54 @@ public class TelecomUtils {
      * valid, it will mark all new missed call log as read.
      */
     public static void markCallLogAsRead(Context context, long callLogId) {
-        markCallLogAsRead(context, CallLog.Calls._ID,
-                callLogId < 0 ? null : String.valueOf(callLogId));
+        markCallLogAsRead(context, CallLog.Calls._ID, callLogId < 0
+                ? Collections.emptyList() : Collections.singletonList(String.valueOf(callLogId)));
+    }
+
+    /**
+     * Marks the missed call logs matching any of the given phone numbers as read, in a single
+     * batch. The observers of the call log are notified once for the whole batch. Does nothing if
+     * none of the phone numbers is valid.
+     */
+    @WorkerThread
+    public static void markCallLogsAsReadByNumbers(Context context,
+            Collection<String> phoneNumbers) {
+        List<String> selectionArgs = new ArrayList<>(phoneNumbers.size());
+        for (String phoneNumber : phoneNumbers) {
+            if (!TextUtils.isEmpty(phoneNumber)) {
+                selectionArgs.add(phoneNumber);
+            }
+        }
+        if (!selectionArgs.isEmpty()) {
+            markCallLogAsRead(context, CallLog.Calls.NUMBER, selectionArgs);
+        }
     }
 
     /**
-     * Mark missed call log matching given column name and selection argument as read. If the column
-     * name or the selection argument is not valid, mark all new missed call log as read.
+     * Marks the missed call logs with any of the given ids as read, in a single batch. The
+     * observers of the call log are notified once for the whole batch. Does nothing if none of the
+     * ids is valid.
+     */
+    @WorkerThread
+    public static void markCallLogsAsRead(Context context, Collection<Long> callLogIds) {
+        List<String> selectionArgs = new ArrayList<>(callLogIds.size());
+        for (long callLogId : callLogIds) {
+            if (callLogId >= 0) {
+                selectionArgs.add(String.valueOf(callLogId));
+            }
+        }
+        if (!selectionArgs.isEmpty()) {
+            markCallLogAsRead(context, CallLog.Calls._ID, selectionArgs);
+        }
+    }
+
+    /**
+     * Mark missed call log matching given column name and any of the selection arguments as read,
+     * with one update per selection argument applied as a single batch. If there is no selection
+     * argument, mark all new missed call log as read.
      */
     private static void markCallLogAsRead(Context context, String columnName,
-            String selectionArg) {
+            List<String> selectionArgs) {
         if (context.checkSelfPermission(Manifest.permission.WRITE_CALL_LOG)
                 != PackageManager.PERMISSION_GRANTED) {
             L.w(TAG, "Missing WRITE_CALL_LOG permission; not marking missed calls as read.");
@@ -572,30 +686,36 @@ public class TelecomUtils {
         contentValues.put(CallLog.Calls.NEW, 0);
         contentValues.put(CallLog.Calls.IS_READ, 1);
 
-        List<String> selectionArgs = new ArrayList<>();
         StringBuilder where = new StringBuilder();
         where.append(CallLog.Calls.NEW);
         where.append(" = 1 AND ");
         where.append(CallLog.Calls.TYPE);
         where.append(" = ?");
-        selectionArgs.add(Integer.toString(CallLog.Calls.MISSED_TYPE));
-        if (!TextUtils.isEmpty(columnName) && !TextUtils.isEmpty(selectionArg)) {
+        String missedType = Integer.toString(CallLog.Calls.MISSED_TYPE);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        if (selectionArgs.isEmpty()) {
+            operations.add(ContentProviderOperation.newUpdate(CallLog.Calls.CONTENT_URI)
+                    .withValues(contentValues)
+                    .withSelection(where.toString(), new String[]{missedType})
+                    .build());
+        } else {
             where.append(" AND ");
             where.append(columnName);
             where.append(" = ?");
-            selectionArgs.add(selectionArg);
+            for (String selectionArg : selectionArgs) {
+                operations.add(ContentProviderOperation.newUpdate(CallLog.Calls.CONTENT_URI)
+                        .withValues(contentValues)
+                        .withSelection(where.toString(), new String[]{missedType, selectionArg})
+                        .build());
+            }
         }
-        String[] selectionArgsArray = new String[0];
         try {
             ContentResolver contentResolver = context.getContentResolver();
-            contentResolver.update(
-                    CallLog.Calls.CONTENT_URI,
-                    contentValues,
-                    where.toString(),
-                    selectionArgs.toArray(selectionArgsArray));
+            contentResolver.applyBatch(CallLog.AUTHORITY, operations);
             // #update doesn't notify change any more. Notify change to rerun query from database.
             contentResolver.notifyChange(CallLog.Calls.CONTENT_URI, null);
-        } catch (IllegalArgumentException e) {
+        } catch (IllegalArgumentException | OperationApplicationException | RemoteException e) {
             L.e(TAG, "markCallLogAsRead failed", e);
         }
     }
@@ -621,30 +741,30 @@ public class TelecomUtils {
 
     /**
      * Creates a Letter Tile Icon that will display the given initials. If the initials are null,
-     * then an avatar anonymous icon will be drawn.
+     * then an avatar anonymous icon will be drawn. The bitmap of the icon is shared through the
+     * {@link ContactAvatarCache}.
      **/
     public static Icon createLetterTile(Context context, @Nullable String initials,
             String identifier, int avatarSize, float cornerRadiusPercent) {
-        LetterTileDrawable letterTileDrawable = TelecomUtils.createLetterTile(context, initials,
-                identifier);
-        RoundedBitmapDrawable roundedBitmapDrawable = RoundedBitmapDrawableFactory.create(
-                context.getResources(), letterTileDrawable.toBitmap(avatarSize));
-        return createFromRoundedBitmapDrawable(roundedBitmapDrawable, avatarSize,
-                cornerRadiusPercent);
+        return Icon.createWithBitmap(ContactAvatarCache.get(context).getLetterTile(context,
+                initials, identifier, avatarSize, cornerRadiusPercent));
     }
 
     /** Creates an Icon based on the given roundedBitmapDrawable. **/
     public static Icon createFromRoundedBitmapDrawable(RoundedBitmapDrawable roundedBitmapDrawable,
             int avatarSize, float cornerRadiusPercent) {
-        float radius = avatarSize * cornerRadiusPercent;
-        roundedBitmapDrawable.setCornerRadius(radius);
-
-        final Bitmap result = Bitmap.createBitmap(avatarSize, avatarSize,
-                Bitmap.Config.ARGB_8888);
-        final Canvas canvas = new Canvas(result);
-        roundedBitmapDrawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
-        roundedBitmapDrawable.draw(canvas);
-        return Icon.createWithBitmap(result);
+        return Icon.createWithBitmap(ContactAvatarCache.render(roundedBitmapDrawable, avatarSize,
+                cornerRadiusPercent));
+    }
+
+    /**
+     * Creates a rounded Icon from the photo of the contact with the given lookup key. The bitmap
+     * of the icon is shared through the {@link ContactAvatarCache}.
+     */
+    public static Icon createRoundedPhoto(Context context, @Nullable String lookupKey,
+            Bitmap photo, int avatarSize, float cornerRadiusPercent) {
+        return Icon.createWithBitmap(ContactAvatarCache.get(context).getRoundedPhoto(context,
+                lookupKey, photo, avatarSize, cornerRadiusPercent));
     }
 
     /**
@@ -16,38 +16,360 @@
 
 package com.android.car.telephony.common;
 
+import android.os.Process;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * WorkerExecutor is a singleton tied to the application to provide {@link ExecutorService} for
  * Dialer to run tasks in background.
+ *
+ * <p>The work is split into lanes by {@link Priority}, each running its tasks one at a time in
+ * submission order on a thread of its own, so a long running bulk task never delays the work the
+ * user is waiting for. Tasks can be submitted with a tag to cancel them together, and every lane
+ * keeps track of its queue depth and of how long its tasks waited and ran.
  */
 public class WorkerExecutor {
+    private static final String TAG = "CD.WorkerExecutor";
+
+    /** The lanes work is run in. */
+    public enum Priority {
+        /** Work the user is waiting for, such as a caller id lookup. */
+        INTERACTIVE(Process.THREAD_PRIORITY_DEFAULT),
+        /** Work backing what is on screen, such as the queries and pages of the call log. */
+        NORMAL(Process.THREAD_PRIORITY_DEFAULT),
+        /** Long running work nobody waits for, such as the sync of the phone book. */
+        BULK(Process.THREAD_PRIORITY_BACKGROUND);
+
+        private final int mThreadPriority;
+
+        Priority(int threadPriority) {
+            mThreadPriority = threadPriority;
+        }
+    }
+
+    /** The time source of the metrics. Replaced by a fake in tests. */
+    @VisibleForTesting
+    interface Clock {
+        /** Returns the current time in milliseconds. */
+        long uptimeMillis();
+    }
+
+    /** Creates the executor running the tasks of a lane. Replaced by a fake in tests. */
+    @VisibleForTesting
+    interface LaneFactory {
+        /** Returns an executor running its tasks one at a time in submission order. */
+        ExecutorService create(Priority priority);
+    }
+
     private static WorkerExecutor sWorkerExecutor;
 
-    private ExecutorService mSingleThreadExecutor;
+    private final Clock mClock;
+    private final Map<Priority, Lane> mLanes = new EnumMap<>(Priority.class);
+    private final Map<Object, Set<Task<?>>> mTaggedTasks = new HashMap<>();
 
     /** Returns the singleton WorkerExecutor for the application. */
     public static WorkerExecutor getInstance() {
-        if (sWorkerExecutor == null) {
-            sWorkerExecutor = new WorkerExecutor();
+        synchronized (WorkerExecutor.class) {
+            if (sWorkerExecutor == null) {
+                sWorkerExecutor = new WorkerExecutor(SystemClock::uptimeMillis,
+                        WorkerExecutor::createThreadExecutor);
+            }
+            return sWorkerExecutor;
         }
-        return sWorkerExecutor;
     }
 
-    private WorkerExecutor() {
-        mSingleThreadExecutor = Executors.newSingleThreadExecutor();
+    @VisibleForTesting
+    WorkerExecutor(Clock clock, LaneFactory laneFactory) {
+        mClock = clock;
+        for (Priority priority : Priority.values()) {
+            mLanes.put(priority, new Lane(laneFactory.create(priority)));
+        }
     }
 
-    /** Returns the single thread executor. */
+    /** Returns the single thread executor, running the {@link Priority#NORMAL} work. */
     public ExecutorService getSingleThreadExecutor() {
-        return mSingleThreadExecutor;
+        return getExecutor(Priority.NORMAL);
+    }
+
+    /**
+     * Returns the executor of a lane. It runs its tasks one at a time in submission order, and
+     * counts them in the metrics of the lane.
+     */
+    public ExecutorService getExecutor(@NonNull Priority priority) {
+        return mLanes.get(priority);
+    }
+
+    /**
+     * Submits a task to a lane.
+     *
+     * @param tag identifies the task in {@link #cancel}, null if it is never cancelled by tag.
+     */
+    public Future<?> submit(@NonNull Priority priority, @Nullable Object tag,
+            @NonNull Runnable runnable) {
+        return submit(priority, tag, Executors.callable(runnable));
+    }
+
+    /**
+     * Submits a task to a lane.
+     *
+     * @param tag identifies the task in {@link #cancel}, null if it is never cancelled by tag.
+     */
+    public <T> Future<T> submit(@NonNull Priority priority, @Nullable Object tag,
+            @NonNull Callable<T> callable) {
+        Task<T> task = new Task<>(mLanes.get(priority), tag, callable);
+        if (tag != null) {
+            synchronized (mTaggedTasks) {
+                Set<Task<?>> tasks = mTaggedTasks.get(tag);
+                if (tasks == null) {
+                    tasks = new HashSet<>();
+                    mTaggedTasks.put(tag, tasks);
+                }
+                tasks.add(task);
+            }
+        }
+        task.mLane.enqueue(task);
+        return task;
+    }
+
+    /**
+     * Cancels the unfinished tasks submitted with the given tag. The tasks which haven't started
+     * are dropped, the running ones are interrupted only if {@code mayInterruptIfRunning}.
+     *
+     * @return the number of tasks cancelled.
+     */
+    public int cancel(@NonNull Object tag, boolean mayInterruptIfRunning) {
+        List<Task<?>> tasks;
+        synchronized (mTaggedTasks) {
+            Set<Task<?>> taggedTasks = mTaggedTasks.remove(tag);
+            if (taggedTasks == null) {
+                return 0;
+            }
+            tasks = new ArrayList<>(taggedTasks);
+        }
+        int cancelledCount = 0;
+        for (Task<?> task : tasks) {
+            if (task.cancel(mayInterruptIfRunning)) {
+                cancelledCount++;
+            }
+        }
+        return cancelledCount;
+    }
+
+    /** Returns the number of tasks of a lane which haven't started and haven't been cancelled. */
+    public int getQueueDepth(@NonNull Priority priority) {
+        return mLanes.get(priority).mQueueDepth.get();
+    }
+
+    /** Returns the number of tasks of a lane which ran to completion, successfully or not. */
+    public long getCompletedTaskCount(@NonNull Priority priority) {
+        return mLanes.get(priority).mCompletedCount.get();
+    }
+
+    /** Returns how long the tasks of a lane waited to start on average, in milliseconds. */
+    public long getAverageWaitMillis(@NonNull Priority priority) {
+        Lane lane = mLanes.get(priority);
+        return average(lane.mTotalWaitMillis.get(), lane.mStartedCount.get());
+    }
+
+    /** Returns the longest a task of a lane waited to start, in milliseconds. */
+    public long getMaxWaitMillis(@NonNull Priority priority) {
+        return mLanes.get(priority).mMaxWaitMillis.get();
+    }
+
+    /** Returns how long the tasks of a lane ran on average, in milliseconds. */
+    public long getAverageRunMillis(@NonNull Priority priority) {
+        Lane lane = mLanes.get(priority);
+        return average(lane.mTotalRunMillis.get(), lane.mCompletedCount.get());
     }
 
     /** Tears down the singleton WorkerExecutor for the application */
     public void tearDown() {
-        mSingleThreadExecutor.shutdown();
-        sWorkerExecutor = null;
+        for (Lane lane : mLanes.values()) {
+            lane.shutdown();
+        }
+        synchronized (WorkerExecutor.class) {
+            if (sWorkerExecutor == this) {
+                sWorkerExecutor = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("WorkerExecutor{");
+        for (Priority priority : Priority.values()) {
+            if (priority.ordinal() > 0) {
+                builder.append(", ");
+            }
+            builder.append(priority).append("={queued=").append(getQueueDepth(priority))
+                    .append(", completed=").append(getCompletedTaskCount(priority))
+                    .append(", avgWaitMs=").append(getAverageWaitMillis(priority))
+                    .append(", maxWaitMs=").append(getMaxWaitMillis(priority))
+                    .append(", avgRunMs=").append(getAverageRunMillis(priority)).append("}");
+        }
+        return builder.append("}").toString();
+    }
+
+    private static long average(long total, long count) {
+        return count == 0 ? 0 : total / count;
+    }
+
+    private static ExecutorService createThreadExecutor(Priority priority) {
+        String name = TAG + "-" + priority.name().toLowerCase(Locale.ROOT);
+        return Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+            Process.setThreadPriority(priority.mThreadPriority);
+            runnable.run();
+        }, name));
+    }
+
+    private void untrack(Task<?> task) {
+        synchronized (mTaggedTasks) {
+            Set<Task<?>> tasks = mTaggedTasks.get(task.mTag);
+            if (tasks != null && tasks.remove(task) && tasks.isEmpty()) {
+                mTaggedTasks.remove(task.mTag);
+            }
+        }
+    }
+
+    /** Runs the tasks of a {@link Priority} and keeps their metrics. */
+    private class Lane extends AbstractExecutorService {
+        private final ExecutorService mDelegate;
+        private final AtomicInteger mQueueDepth = new AtomicInteger();
+        private final AtomicLong mStartedCount = new AtomicLong();
+        private final AtomicLong mCompletedCount = new AtomicLong();
+        private final AtomicLong mTotalWaitMillis = new AtomicLong();
+        private final AtomicLong mMaxWaitMillis = new AtomicLong();
+        private final AtomicLong mTotalRunMillis = new AtomicLong();
+
+        private Lane(ExecutorService delegate) {
+            mDelegate = delegate;
+        }
+
+        private void enqueue(Task<?> task) {
+            task.mEnqueueTime = mClock.uptimeMillis();
+            mQueueDepth.incrementAndGet();
+            try {
+                mDelegate.execute(task);
+            } catch (RejectedExecutionException e) {
+                task.cancel(false);
+                throw e;
+            }
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+            return new Task<>(this, null, Executors.callable(runnable, value));
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+            return new Task<>(this, null, callable);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            enqueue(command instanceof Task && ((Task<?>) command).mLane == this
+                    ? (Task<?>) command : new Task<>(this, null, Executors.callable(command)));
+        }
+
+        @Override
+        public void shutdown() {
+            mDelegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return mDelegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return mDelegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return mDelegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return mDelegate.awaitTermination(timeout, unit);
+        }
+    }
+
+    /** A task of a {@link Lane}, counted in its queue depth until it starts or is cancelled. */
+    private class Task<T> extends FutureTask<T> {
+        private final Lane mLane;
+        @Nullable
+        private final Object mTag;
+        private final AtomicBoolean mIsDequeued = new AtomicBoolean();
+        private long mEnqueueTime;
+
+        private Task(Lane lane, @Nullable Object tag, Callable<T> callable) {
+            super(callable);
+            mLane = lane;
+            mTag = tag;
+        }
+
+        @Override
+        public void run() {
+            if (!dequeue()) {
+                // Cancelled before it started.
+                return;
+            }
+            long startTime = mClock.uptimeMillis();
+            long waitMillis = startTime - mEnqueueTime;
+            mLane.mStartedCount.incrementAndGet();
+            mLane.mTotalWaitMillis.addAndGet(waitMillis);
+            mLane.mMaxWaitMillis.accumulateAndGet(waitMillis, Math::max);
+
+            super.run();
+
+            mLane.mTotalRunMillis.addAndGet(mClock.uptimeMillis() - startTime);
+            mLane.mCompletedCount.incrementAndGet();
+        }
+
+        @Override
+        protected void done() {
+            dequeue();
+            if (mTag != null) {
+                untrack(this);
+            }
+        }
+
+        /** Removes the task from the queue depth, returns false if it already was. */
+        private boolean dequeue() {
+            if (mIsDequeued.compareAndSet(false, true)) {
+                mLane.mQueueDepth.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
     }
 }
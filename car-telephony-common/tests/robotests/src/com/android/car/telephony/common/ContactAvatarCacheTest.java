@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+public class ContactAvatarCacheTest {
+
+    private static final int SIZE = 64;
+    private static final float RADIUS = 0.5f;
+    /** Lookup keys may contain slashes. */
+    private static final String LOOKUP_KEY = "0r1-2/3";
+    private static final String OTHER_LOOKUP_KEY = "0r4";
+
+    private ContactAvatarCache mCache;
+    private Bitmap mPhoto;
+    private Bitmap mNewPhoto;
+
+    @Before
+    public void setUp() {
+        mCache = new ContactAvatarCache(application, 1024 * 1024);
+        mPhoto = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mNewPhoto = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+    }
+
+    @Test
+    public void getRoundedPhoto_sameLookupKey_returnsCachedPhoto() {
+        Bitmap first = mCache.getRoundedPhoto(application, LOOKUP_KEY, mPhoto, SIZE, RADIUS);
+
+        assertThat(mCache.getRoundedPhoto(application, LOOKUP_KEY, mNewPhoto, SIZE, RADIUS))
+                .isSameAs(first);
+    }
+
+    @Test
+    public void getRectangularLetterTile_isRenderedAtWidthAndHeight() {
+        Bitmap tile = mCache.getRectangularLetterTile(application, "A", LOOKUP_KEY, SIZE, SIZE / 2);
+
+        assertThat(tile.getWidth()).isEqualTo(SIZE);
+        assertThat(tile.getHeight()).isEqualTo(SIZE / 2);
+        assertThat(mCache.getRectangularLetterTile(application, "A", LOOKUP_KEY, SIZE, SIZE / 2))
+                .isSameAs(tile);
+        assertThat(mCache.getRectangularLetterTile(application, "A", LOOKUP_KEY, SIZE / 2, SIZE))
+                .isNotSameAs(tile);
+    }
+
+    @Test
+    public void removePhotos_rendersNewPhotoOfChangedContactOnly() {
+        Bitmap first = mCache.getRoundedPhoto(application, LOOKUP_KEY, mPhoto, SIZE, RADIUS);
+        Bitmap other = mCache.getRoundedPhoto(application, OTHER_LOOKUP_KEY, mPhoto, SIZE,
+                RADIUS);
+
+        mCache.removePhotos(Arrays.asList(LOOKUP_KEY));
+
+        assertThat(mCache.getRoundedPhoto(application, LOOKUP_KEY, mNewPhoto, SIZE, RADIUS))
+                .isNotSameAs(first);
+        assertThat(mCache.getRoundedPhoto(application, OTHER_LOOKUP_KEY, mNewPhoto, SIZE,
+                RADIUS)).isSameAs(other);
+    }
+
+    @Test
+    public void removeAllPhotos_keepsLetterTiles() {
+        Bitmap tile = mCache.getLetterTile(application, "A", LOOKUP_KEY, SIZE, RADIUS);
+        Bitmap photo = mCache.getRoundedPhoto(application, LOOKUP_KEY, mPhoto, SIZE, RADIUS);
+
+        mCache.removeAllPhotos();
+
+        assertThat(mCache.getLetterTile(application, "A", LOOKUP_KEY, SIZE, RADIUS))
+                .isSameAs(tile);
+        assertThat(mCache.getRoundedPhoto(application, LOOKUP_KEY, mNewPhoto, SIZE, RADIUS))
+                .isNotSameAs(photo);
+    }
+}
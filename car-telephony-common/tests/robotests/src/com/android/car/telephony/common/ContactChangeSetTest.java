@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+
+import android.database.MatrixCursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class ContactChangeSetTest {
+
+    private static final String ACCOUNT = "account";
+    private static final String OTHER_ACCOUNT = "other account";
+
+    private Contact mContact;
+    private Contact mUpdatedContact;
+    private Contact mOtherContact;
+
+    @Before
+    public void setUp() {
+        mContact = createContact(ACCOUNT, "lookup", 1);
+        mUpdatedContact = createContact(ACCOUNT, "lookup", 2);
+        mOtherContact = createContact(OTHER_ACCOUNT, "other", 3);
+    }
+
+    @Test
+    public void merge_keepsRemovedContactsAndAffectedAccounts() {
+        ContactChangeSet first = createDelta(Collections.emptyList(), Collections.emptyList(),
+                Arrays.asList(mOtherContact));
+        ContactChangeSet second = createDelta(Collections.emptyList(),
+                Arrays.asList(mUpdatedContact), Collections.emptyList());
+
+        ContactChangeSet merged = first.merge(second);
+
+        assertThat(merged.isFullReload()).isFalse();
+        assertThat(merged.getRemovedContacts()).containsExactly(mOtherContact);
+        assertThat(merged.getUpdatedContacts()).containsExactly(mUpdatedContact);
+        assertThat(merged.getAffectedAccounts()).containsExactly(ACCOUNT, OTHER_ACCOUNT);
+    }
+
+    @Test
+    public void merge_addedThenUpdated_reportsLatestInstanceAsAdded() {
+        ContactChangeSet merged = createDelta(Arrays.asList(mContact), Collections.emptyList(),
+                Collections.emptyList()).merge(createDelta(Collections.emptyList(),
+                Arrays.asList(mUpdatedContact), Collections.emptyList()));
+
+        assertThat(merged.getAddedContacts()).hasSize(1);
+        assertThat(merged.getAddedContacts().get(0)).isSameAs(mUpdatedContact);
+        assertThat(merged.getUpdatedContacts()).isEmpty();
+    }
+
+    @Test
+    public void merge_addedThenRemoved_reportsNothing() {
+        ContactChangeSet merged = createDelta(Arrays.asList(mContact), Collections.emptyList(),
+                Collections.emptyList()).merge(createDelta(Collections.emptyList(),
+                Collections.emptyList(), Arrays.asList(mContact)));
+
+        assertThat(merged.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void merge_removedThenAdded_reportsUpdate() {
+        ContactChangeSet merged = createDelta(Collections.emptyList(), Collections.emptyList(),
+                Arrays.asList(mContact)).merge(createDelta(Arrays.asList(mUpdatedContact),
+                Collections.emptyList(), Collections.emptyList()));
+
+        assertThat(merged.getUpdatedContacts()).containsExactly(mUpdatedContact);
+        assertThat(merged.getAddedContacts()).isEmpty();
+        assertThat(merged.getRemovedContacts()).isEmpty();
+    }
+
+    @Test
+    public void merge_fullReloadThenDelta_staysFullReload() {
+        ContactChangeSet full = new ContactChangeSet(true, Arrays.asList(mContact, mOtherContact),
+                Collections.emptyList(), Collections.emptyList(),
+                new HashSet<>(Arrays.asList(ACCOUNT, OTHER_ACCOUNT)));
+
+        ContactChangeSet merged = full.merge(createDelta(Collections.emptyList(),
+                Arrays.asList(mUpdatedContact), Arrays.asList(mOtherContact)));
+
+        assertThat(merged.isFullReload()).isTrue();
+        assertThat(merged.getAddedContacts()).hasSize(1);
+        assertThat(merged.getAddedContacts().get(0)).isSameAs(mUpdatedContact);
+        assertThat(merged.getUpdatedContacts()).isEmpty();
+        assertThat(merged.getRemovedContacts()).isEmpty();
+    }
+
+    @Test
+    public void merge_deltaThenFullReload_keepsEarlierAffectedAccounts() {
+        ContactChangeSet delta = createDelta(Collections.emptyList(), Collections.emptyList(),
+                Arrays.asList(mOtherContact));
+        ContactChangeSet full = new ContactChangeSet(true, Arrays.asList(mContact),
+                Collections.emptyList(), Collections.emptyList(),
+                new HashSet<>(Arrays.asList(ACCOUNT)));
+
+        ContactChangeSet merged = delta.merge(full);
+
+        assertThat(merged.isFullReload()).isTrue();
+        assertThat(merged.getAddedContacts()).containsExactly(mContact);
+        assertThat(merged.getAffectedAccounts()).containsExactly(ACCOUNT, OTHER_ACCOUNT);
+    }
+
+    private static ContactChangeSet createDelta(List<Contact> added, List<Contact> updated,
+            List<Contact> removed) {
+        HashSet<String> accounts = new HashSet<>();
+        for (List<Contact> contacts : Arrays.asList(added, updated, removed)) {
+            for (Contact contact : contacts) {
+                accounts.add(contact.getAccountName());
+            }
+        }
+        return new ContactChangeSet(false, added, updated, removed, accounts);
+    }
+
+    private static Contact createContact(String account, String lookupKey, long id) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                ContactsContract.RawContacts.ACCOUNT_NAME,
+                ContactsContract.Data.LOOKUP_KEY,
+                ContactsContract.Data.MIMETYPE,
+                ContactsContract.Data.DISPLAY_NAME,
+                ContactsContract.RawContacts.CONTACT_ID,
+                Phone.NUMBER});
+        cursor.addRow(new Object[]{account, lookupKey, Phone.CONTENT_ITEM_TYPE,
+                "Contact " + id, id, "+1 650-253-000" + id});
+        cursor.moveToFirst();
+        return Contact.fromCursor(application, cursor);
+    }
+}
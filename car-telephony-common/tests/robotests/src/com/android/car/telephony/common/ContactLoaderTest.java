@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+public class ContactLoaderTest {
+
+    private static final String ACCOUNT = "account";
+    private static final String OTHER_ACCOUNT = "other account";
+    /** More than a single task assembles, in more rows than are ever loaded sequentially. */
+    private static final int CONTACT_COUNT = 600;
+
+    @Before
+    public void setUp() {
+        Locale.setDefault(Locale.US);
+    }
+
+    @Test
+    public void load_parallelAndSequential_loadSameContactsInSameOrder() throws IOException {
+        Map<String, Map<String, Contact>> sequentialContacts = new LinkedHashMap<>();
+        Map<String, Map<String, Contact>> parallelContacts = new LinkedHashMap<>();
+
+        long sequentialTimestamp = new ContactLoader(application, 1)
+                .load(createCursor(), sequentialContacts);
+        long parallelTimestamp = new ContactLoader(application, 4)
+                .load(createCursor(), parallelContacts);
+
+        assertThat(parallelTimestamp).isEqualTo(sequentialTimestamp);
+        assertThat(sequentialTimestamp).isEqualTo(CONTACT_COUNT - 1);
+        assertThat(new ArrayList<>(parallelContacts.keySet()))
+                .containsExactly(ACCOUNT, OTHER_ACCOUNT).inOrder();
+        for (String account : sequentialContacts.keySet()) {
+            Map<String, Contact> expected = sequentialContacts.get(account);
+            Map<String, Contact> actual = parallelContacts.get(account);
+            assertThat(new ArrayList<>(actual.keySet()))
+                    .containsExactlyElementsIn(expected.keySet()).inOrder();
+            for (String lookupKey : expected.keySet()) {
+                assertThat(toBytes(actual.get(lookupKey)))
+                        .isEqualTo(toBytes(expected.get(lookupKey)));
+            }
+        }
+        Contact contact = parallelContacts.get(ACCOUNT).get("lookup0");
+        assertThat(contact.getNumbers()).hasSize(2);
+        assertThat(contact.getPostalAddresses()).hasSize(1);
+        assertThat(contact.getGivenName()).isEqualTo("Given0");
+    }
+
+    @Test
+    public void load_afterShutdown_loadsSequentially() {
+        ContactLoader loader = new ContactLoader(application, 4);
+        loader.shutdown();
+        Map<String, Map<String, Contact>> contacts = new LinkedHashMap<>();
+
+        loader.load(createCursor(), contacts);
+
+        assertThat(contacts.get(ACCOUNT)).hasSize(CONTACT_COUNT / 2);
+        assertThat(contacts.get(OTHER_ACCOUNT)).hasSize(CONTACT_COUNT / 2);
+    }
+
+    /**
+     * Creates the rows of the contacts sorted by display name. The rows of a contact are not
+     * next to each other, like the rows of contacts with several raw contacts.
+     */
+    private static Cursor createCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                ContactsContract.RawContacts.CONTACT_ID,
+                ContactsContract.Data.RAW_CONTACT_ID,
+                ContactsContract.RawContacts.ACCOUNT_NAME,
+                ContactsContract.Data.LOOKUP_KEY,
+                ContactsContract.Data.MIMETYPE,
+                ContactsContract.Data.DISPLAY_NAME,
+                Phone._ID,
+                Phone.NUMBER,
+                Phone.TYPE,
+                Phone.IS_SUPER_PRIMARY,
+                StructuredName.GIVEN_NAME,
+                StructuredName.FAMILY_NAME,
+                StructuredPostal.FORMATTED_ADDRESS,
+                ContactsContract.Data.CONTACT_LAST_UPDATED_TIMESTAMP});
+        for (int i = 0; i < CONTACT_COUNT; i++) {
+            addRow(cursor, i, StructuredName.CONTENT_ITEM_TYPE, null);
+            addRow(cursor, i, Phone.CONTENT_ITEM_TYPE, String.format("+1 650-253-%04d", i));
+        }
+        for (int i = 0; i < CONTACT_COUNT; i++) {
+            addRow(cursor, i, Phone.CONTENT_ITEM_TYPE, String.format("+1 408-555-%04d", i));
+            addRow(cursor, i, StructuredPostal.CONTENT_ITEM_TYPE, null);
+        }
+        return cursor;
+    }
+
+    private static void addRow(MatrixCursor cursor, int id, String mimeType, String number) {
+        cursor.addRow(new Object[]{
+                id,
+                id,
+                id % 2 == 0 ? ACCOUNT : OTHER_ACCOUNT,
+                "lookup" + id,
+                mimeType,
+                String.format("Contact %04d", id),
+                cursor.getCount(),
+                number,
+                Phone.TYPE_MOBILE,
+                number != null && number.startsWith("+1 408") ? 1 : 0,
+                "Given" + id,
+                "Family" + id,
+                id + " Main Street",
+                (long) id});
+    }
+
+    private static byte[] toBytes(Contact contact) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        contact.writeToSnapshot(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assert.assertThrows;
+import static org.robolectric.RuntimeEnvironment.application;
+
+import android.database.MatrixCursor;
+import android.os.BadParcelableException;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.CommonDataKinds.StructuredName;
+import android.provider.ContactsContract.CommonDataKinds.StructuredPostal;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+public class ContactParcelTest {
+
+    private static final String ACCOUNT = "account";
+    private static final String LOOKUP_KEY = "lookup";
+    private static final String[] COLUMNS = new String[]{
+            ContactsContract.RawContacts.ACCOUNT_NAME,
+            ContactsContract.RawContacts.ACCOUNT_TYPE,
+            ContactsContract.Data.LOOKUP_KEY,
+            ContactsContract.Data.MIMETYPE,
+            ContactsContract.Data.DISPLAY_NAME,
+            ContactsContract.RawContacts.CONTACT_ID,
+            ContactsContract.Data.PHOTO_URI,
+            Phone.STARRED,
+            Phone.IS_SUPER_PRIMARY,
+            // Phone.NUMBER, StructuredPostal.FORMATTED_ADDRESS.
+            ContactsContract.Data.DATA1,
+            // Phone.TYPE, StructuredName.GIVEN_NAME, StructuredPostal.TYPE.
+            ContactsContract.Data.DATA2};
+
+    private Contact mContact;
+
+    @Before
+    public void setUp() {
+        Locale.setDefault(Locale.US);
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        cursor.addRow(new Object[]{ACCOUNT, "type", LOOKUP_KEY, StructuredName.CONTENT_ITEM_TYPE,
+                "Jane Doe", 1, "content://photo/1", 1, 0, null, "Jane"});
+        cursor.addRow(new Object[]{ACCOUNT, "type", LOOKUP_KEY, Phone.CONTENT_ITEM_TYPE,
+                "Jane Doe", 1, "content://photo/1", 1, 0, "+1 650-253-0000", Phone.TYPE_MOBILE});
+        cursor.addRow(new Object[]{ACCOUNT, "type", LOOKUP_KEY, Phone.CONTENT_ITEM_TYPE,
+                "Jane Doe", 1, "content://photo/1", 1, 1, "*86", Phone.TYPE_OTHER});
+        cursor.addRow(new Object[]{ACCOUNT, "type", LOOKUP_KEY, StructuredPostal.CONTENT_ITEM_TYPE,
+                "Jane Doe", 1, "content://photo/1", 1, 0, "1 Main St",
+                StructuredPostal.TYPE_HOME});
+        while (cursor.moveToNext()) {
+            mContact = Contact.fromCursor(application, cursor, mContact);
+        }
+    }
+
+    @Test
+    public void contact_roundTrip() {
+        Contact contact = roundTrip(mContact, Contact.CREATOR);
+
+        assertThat(contact).isEqualTo(mContact);
+        assertThat(contact.getId()).isEqualTo(1);
+        assertThat(contact.getAccountName()).isEqualTo(ACCOUNT);
+        assertThat(contact.getDisplayName()).isEqualTo("Jane Doe");
+        assertThat(contact.getGivenName()).isEqualTo("Jane");
+        assertThat(contact.getAvatarUri()).isEqualTo(mContact.getAvatarUri());
+        assertThat(contact.isStarred()).isTrue();
+        assertThat(contact.getNumbers()).containsExactlyElementsIn(mContact.getNumbers()).inOrder();
+        assertThat(contact.getPrimaryPhoneNumber()).isSameAs(contact.getNumbers().get(1));
+        assertThat(contact.getPostalAddresses()).hasSize(1);
+        assertThat(contact.getPostalAddresses().get(0).getFormattedAddress())
+                .isEqualTo("1 Main St");
+    }
+
+    @Test
+    public void phoneNumber_roundTrip() {
+        for (PhoneNumber expected : mContact.getNumbers()) {
+            PhoneNumber phoneNumber = roundTrip(expected, PhoneNumber.CREATOR);
+
+            assertThat(phoneNumber).isEqualTo(expected);
+            assertThat(phoneNumber.getNumber()).isEqualTo(expected.getNumber());
+            assertThat(phoneNumber.getRawNumber()).isEqualTo(expected.getRawNumber());
+            assertThat(phoneNumber.getType()).isEqualTo(expected.getType());
+            assertThat(phoneNumber.isPrimary()).isEqualTo(expected.isPrimary());
+            assertThat(phoneNumber.getAccountName()).isEqualTo(ACCOUNT);
+            assertThat(phoneNumber.getAccountType()).isEqualTo("type");
+        }
+    }
+
+    @Test
+    public void i18nPhoneNumberWrapper_roundTrip_keepsIndexKey() {
+        for (String rawNumber : new String[]{"+1 650-253-0000 ext. 12", "+39 06 1234 5678",
+                "*86"}) {
+            I18nPhoneNumberWrapper expected = I18nPhoneNumberWrapper.Factory.INSTANCE.get(
+                    application, rawNumber);
+            I18nPhoneNumberWrapper number = roundTrip(expected,
+                    I18nPhoneNumberWrapper.CREATOR);
+
+            assertThat(number).isEqualTo(expected);
+            assertThat(number.getNumber()).isEqualTo(expected.getNumber());
+            assertThat(number.getIndexKey()).isEqualTo(expected.getIndexKey());
+        }
+    }
+
+    @Test
+    public void unsupportedVersion_throws() {
+        Parcel parcel = Parcel.obtain();
+        try {
+            mContact.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            parcel.writeInt(CompactParcels.VERSION + 1);
+            parcel.setDataPosition(0);
+
+            assertThrows(BadParcelableException.class,
+                    () -> Contact.CREATOR.createFromParcel(parcel));
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static <T extends Parcelable> T roundTrip(T value, Parcelable.Creator<T> creator) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            value.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            T result = creator.createFromParcel(parcel);
+            assertThat(parcel.dataAvail()).isEqualTo(0);
+            return result;
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+
+import android.database.MatrixCursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+public class ContactSearchIndexTest {
+
+    private static final String ACCOUNT = "account";
+    private static final int MAX_RESULTS = 10;
+
+    private Contact mAlice;
+    private Contact mAlicia;
+    private Contact mBob;
+    private Contact mJose;
+    private ContactSearchIndex mIndex;
+
+    @Before
+    public void setUp() {
+        Locale.setDefault(Locale.US);
+        mAlice = createContact("alice", "Alice Smith", "Smith, Alice", false, "+1 650-253-0001");
+        mAlicia = createContact("alicia", "Alicia Keys", "Keys, Alicia", true, "+1 212-555-0003");
+        mBob = createContact("bob", "Bob Alison", "Alison, Bob", false, "+1 617-555-0004");
+        mJose = createContact("jose", "José Müller", "Müller, José", false, "+1 408-555-0002");
+        mIndex = new ContactSearchIndex();
+        mIndex.putAll(Arrays.asList(mAlice, mAlicia, mBob, mJose));
+    }
+
+    @Test
+    public void search_ignoresAccentsAndCase() {
+        assertThat(mIndex.search("jose", MAX_RESULTS, null)).containsExactly(mJose);
+        assertThat(mIndex.search("MUL", MAX_RESULTS, null)).containsExactly(mJose);
+        assertThat(mIndex.search("Müller", MAX_RESULTS, null)).containsExactly(mJose);
+    }
+
+    @Test
+    public void search_t9Digits_matchNames() {
+        // A-L-I-C-E.
+        assertThat(mIndex.search("25423", MAX_RESULTS, null)).containsExactly(mAlice);
+        // B-O-B.
+        assertThat(mIndex.search("262", MAX_RESULTS, null)).containsExactly(mBob);
+    }
+
+    @Test
+    public void search_dialableQuery_matchesFormattedNumbers() {
+        assertThat(mIndex.search("(650) 253-0001", MAX_RESULTS, null)).containsExactly(mAlice);
+        assertThat(mIndex.search("+1 650", MAX_RESULTS, null)).containsExactly(mAlice);
+        assertThat(mIndex.search("650.253", MAX_RESULTS, null)).containsExactly(mAlice);
+    }
+
+    @Test
+    public void search_nationalNumber_matchesInternationalNumber() {
+        assertThat(mIndex.search("4085550002", MAX_RESULTS, null)).containsExactly(mJose);
+        assertThat(mIndex.search("408", MAX_RESULTS, null)).containsExactly(mJose);
+    }
+
+    @Test
+    public void search_severalWords_returnsContactsMatchingAll() {
+        assertThat(mIndex.search("smith alice", MAX_RESULTS, null)).containsExactly(mAlice);
+        assertThat(mIndex.search("ali keys", MAX_RESULTS, null)).containsExactly(mAlicia);
+        assertThat(mIndex.search("ali bob", MAX_RESULTS, null)).containsExactly(mBob);
+        assertThat(mIndex.search("alice keys", MAX_RESULTS, null)).isEmpty();
+    }
+
+    @Test
+    public void search_ordersBestMatchesFirst() {
+        // First names before other words, and starred contacts first among equal matches.
+        assertThat(mIndex.search("ali", MAX_RESULTS, null))
+                .containsExactly(mAlicia, mAlice, mBob).inOrder();
+        // A whole word before a prefix.
+        assertThat(mIndex.search("alice", MAX_RESULTS, null)).containsExactly(mAlice);
+        assertThat(mIndex.search("alic", MAX_RESULTS, null))
+                .containsExactly(mAlicia, mAlice).inOrder();
+    }
+
+    @Test
+    public void search_keepsTopResultsOnly() {
+        assertThat(mIndex.search("ali", 2, null)).containsExactly(mAlicia, mAlice).inOrder();
+        assertThat(mIndex.search("ali", 0, null)).isEmpty();
+    }
+
+    @Test
+    public void search_accountFilter() {
+        Contact otherAccountAlice = createContact("other account", "alice", "Alice Smith",
+                "Smith, Alice", false, "+1 650-253-0001");
+        mIndex.put(otherAccountAlice);
+
+        assertThat(mIndex.search("alice", MAX_RESULTS, null))
+                .containsExactly(mAlice, otherAccountAlice);
+        assertThat(mIndex.search("alice", MAX_RESULTS, ACCOUNT::equals)).containsExactly(mAlice);
+    }
+
+    @Test
+    public void put_sameLookupKey_replacesContact() {
+        Contact newAlice = createContact("alice", "Alice Jones", "Jones, Alice", false,
+                "+1 650-253-0005");
+
+        mIndex.put(newAlice);
+
+        assertThat(mIndex.size()).isEqualTo(4);
+        assertThat(mIndex.search("smith", MAX_RESULTS, null)).isEmpty();
+        assertThat(mIndex.search("6502530001", MAX_RESULTS, null)).isEmpty();
+        assertThat(mIndex.search("jones", MAX_RESULTS, null)).hasSize(1);
+        assertThat(mIndex.search("jones", MAX_RESULTS, null).get(0)).isSameAs(newAlice);
+    }
+
+    @Test
+    public void remove_dropsAllWordsOfContact() {
+        mIndex.remove(mAlice);
+
+        assertThat(mIndex.size()).isEqualTo(3);
+        assertThat(mIndex.search("smith", MAX_RESULTS, null)).isEmpty();
+        assertThat(mIndex.search("25423", MAX_RESULTS, null)).isEmpty();
+        assertThat(mIndex.search("ali", MAX_RESULTS, null)).containsExactly(mAlicia, mBob);
+    }
+
+    @Test
+    public void copy_isNotModifiedByOriginal() {
+        ContactSearchIndex copy = new ContactSearchIndex(mIndex);
+
+        mIndex.remove(mJose);
+
+        assertThat(copy.search("jose", MAX_RESULTS, null)).containsExactly(mJose);
+        assertThat(mIndex.search("jose", MAX_RESULTS, null)).isEmpty();
+    }
+
+    private static Contact createContact(String lookupKey, String name, String nameAlt,
+            boolean isStarred, String number) {
+        return createContact(ACCOUNT, lookupKey, name, nameAlt, isStarred, number);
+    }
+
+    private static Contact createContact(String account, String lookupKey, String name,
+            String nameAlt, boolean isStarred, String number) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                ContactsContract.RawContacts.ACCOUNT_NAME,
+                ContactsContract.Data.LOOKUP_KEY,
+                ContactsContract.Data.MIMETYPE,
+                ContactsContract.Data.DISPLAY_NAME,
+                ContactsContract.RawContacts.DISPLAY_NAME_ALTERNATIVE,
+                ContactsContract.RawContacts.SORT_KEY_PRIMARY,
+                Phone.STARRED,
+                Phone.NUMBER});
+        cursor.addRow(new Object[]{account, lookupKey, Phone.CONTENT_ITEM_TYPE, name, nameAlt,
+                name, isStarred ? 1 : 0, number});
+        cursor.moveToFirst();
+        return Contact.fromCursor(application, cursor);
+    }
+}
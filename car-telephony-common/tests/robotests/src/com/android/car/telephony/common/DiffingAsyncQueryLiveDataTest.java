@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class DiffingAsyncQueryLiveDataTest {
+
+    private static final String INSERTED = "inserted";
+    private static final String CHANGED = "changed";
+
+    private FakeLiveData mLiveData;
+
+    @Before
+    public void setUp() {
+        mLiveData = new FakeLiveData();
+    }
+
+    @Test
+    public void firstResult_hasNoUpdates() {
+        DiffingAsyncQueryLiveData.Result<Row> result = publish(createCursor(1, 1, 2, 2));
+
+        assertThat(result.getUpdates()).isEmpty();
+        assertThat(result.isBasedOn(null)).isFalse();
+        assertThat(mLiveData.getValue()).isSameAs(result);
+    }
+
+    @Test
+    public void overlappingCursors_updatesTurnOldListIntoNewList() {
+        DiffingAsyncQueryLiveData.Result<Row> first = publish(createCursor(1, 1, 2, 2, 3, 3, 4, 4));
+
+        // Removes 1, inserts 5 and changes the content of 4.
+        DiffingAsyncQueryLiveData.Result<Row> second = publish(
+                createCursor(2, 2, 3, 3, 5, 5, 4, 40));
+
+        assertThat(second.isBasedOn(first.getList())).isTrue();
+        List<String> list = toIds(first.getList());
+        second.dispatchUpdatesTo(new ApplyingCallback(list));
+        assertThat(list).containsExactly("2", "3", INSERTED, CHANGED).inOrder();
+        assertThat(second.getList().get(0)).isSameAs(first.getList().get(1));
+        assertThat(second.getList().get(1)).isSameAs(first.getList().get(2));
+        assertThat(second.getList().get(3)).isNotSameAs(first.getList().get(3));
+        assertThat(second.getList().get(3).mContentHash).isEqualTo(40);
+    }
+
+    @Test
+    public void movedRow_isDispatchedAsMove() {
+        DiffingAsyncQueryLiveData.Result<Row> first = publish(createCursor(1, 1, 2, 2, 3, 3));
+
+        DiffingAsyncQueryLiveData.Result<Row> second = publish(createCursor(3, 3, 1, 1, 2, 2));
+
+        List<String> list = toIds(first.getList());
+        second.dispatchUpdatesTo(new ApplyingCallback(list));
+        assertThat(list).containsExactly("3", "1", "2").inOrder();
+        assertThat(mLiveData.mCreatedCount).isEqualTo(3);
+    }
+
+    @Test
+    public void supersededResult_doesNotBecomeBaseline() {
+        DiffingAsyncQueryLiveData.Result<Row> first = publish(createCursor(1, 1, 2, 2));
+        DiffingAsyncQueryLiveData.Result<Row> superseded = mLiveData.convertToEntity(
+                createCursor(1, 1, 2, 2, 3, 3));
+        mLiveData.onEntityConverted(superseded, false);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        DiffingAsyncQueryLiveData.Result<Row> third = publish(createCursor(2, 2, 4, 4));
+
+        assertThat(mLiveData.getValue()).isSameAs(third);
+        assertThat(third.isBasedOn(first.getList())).isTrue();
+        assertThat(third.isBasedOn(superseded.getList())).isFalse();
+        List<String> list = toIds(first.getList());
+        third.dispatchUpdatesTo(new ApplyingCallback(list));
+        assertThat(list).containsExactly("2", INSERTED).inOrder();
+    }
+
+    @Test
+    public void nullResult_resetsBaseline() {
+        publish(createCursor(1, 1));
+        mLiveData.onEntityConverted(null, true);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        DiffingAsyncQueryLiveData.Result<Row> result = publish(createCursor(1, 1));
+
+        assertThat(result.getUpdates()).isEmpty();
+        assertThat(result.isBasedOn(null)).isFalse();
+    }
+
+    /** Converts the cursor and delivers the result like a query would. */
+    private DiffingAsyncQueryLiveData.Result<Row> publish(Cursor cursor) {
+        DiffingAsyncQueryLiveData.Result<Row> result = mLiveData.convertToEntity(cursor);
+        mLiveData.onEntityConverted(result, true);
+        shadowOf(Looper.getMainLooper()).idle();
+        return result;
+    }
+
+    /** Creates a cursor of rows given as pairs of stable id and content hash. */
+    private static Cursor createCursor(int... idsAndHashes) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "hash"});
+        for (int i = 0; i < idsAndHashes.length; i += 2) {
+            cursor.addRow(new Object[]{idsAndHashes[i], idsAndHashes[i + 1]});
+        }
+        return cursor;
+    }
+
+    private static List<String> toIds(List<Row> rows) {
+        List<String> ids = new ArrayList<>();
+        for (Row row : rows) {
+            ids.add(String.valueOf(row.mId));
+        }
+        return ids;
+    }
+
+    private static class Row {
+        private final long mId;
+        private final int mContentHash;
+
+        private Row(long id, int contentHash) {
+            mId = id;
+            mContentHash = contentHash;
+        }
+    }
+
+    private static class FakeLiveData extends DiffingAsyncQueryLiveData<Row> {
+        private int mCreatedCount;
+
+        private FakeLiveData() {
+            super(application, () -> null);
+        }
+
+        @Override
+        protected long getStableId(@NonNull Cursor cursor) {
+            return cursor.getLong(0);
+        }
+
+        @Override
+        protected int getContentHash(@NonNull Cursor cursor) {
+            return cursor.getInt(1);
+        }
+
+        @Override
+        protected Row createEntity(@NonNull Cursor cursor) {
+            mCreatedCount++;
+            return new Row(cursor.getLong(0), cursor.getInt(1));
+        }
+    }
+
+    /** Applies the updates to a list of ids, marking inserted and changed positions. */
+    private static class ApplyingCallback implements ListUpdateCallback {
+        private final List<String> mList;
+
+        private ApplyingCallback(List<String> list) {
+            mList = list;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mList.addAll(position, Collections.nCopies(count, INSERTED));
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mList.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mList.add(toPosition, mList.remove(fromPosition));
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            for (int i = position; i < position + count; i++) {
+                mList.set(i, CHANGED);
+            }
+        }
+    }
+}
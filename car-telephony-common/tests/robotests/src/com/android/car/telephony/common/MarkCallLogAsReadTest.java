@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.CallLog;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+public class MarkCallLogAsReadTest {
+
+    private static final String MISSED_TYPE = Integer.toString(CallLog.Calls.MISSED_TYPE);
+
+    private FakeCallLogProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(FakeCallLogProvider.class,
+                CallLog.AUTHORITY);
+        shadowOf(application).grantPermissions(Manifest.permission.WRITE_CALL_LOG);
+    }
+
+    @Test
+    public void markCallLogsAsRead_appliesSingleBatch() {
+        TelecomUtils.markCallLogsAsRead(application, Arrays.asList(1L, 2L, -1L, 3L));
+
+        assertThat(mProvider.mBatchCount).isEqualTo(1);
+        assertThat(mProvider.mUpdateSelectionArgs).containsExactly(
+                Arrays.asList(MISSED_TYPE, "1"),
+                Arrays.asList(MISSED_TYPE, "2"),
+                Arrays.asList(MISSED_TYPE, "3")).inOrder();
+        assertThat(getNotifiedUriCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void markCallLogsAsReadByNumbers_skipsEmptyNumbers() {
+        TelecomUtils.markCallLogsAsReadByNumbers(application,
+                Arrays.asList("6502530000", "", "6502530001"));
+
+        assertThat(mProvider.mBatchCount).isEqualTo(1);
+        assertThat(mProvider.mUpdateSelectionArgs).containsExactly(
+                Arrays.asList(MISSED_TYPE, "6502530000"),
+                Arrays.asList(MISSED_TYPE, "6502530001")).inOrder();
+        assertThat(getNotifiedUriCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void markCallLogsAsRead_noValidId_doesNothing() {
+        TelecomUtils.markCallLogsAsRead(application, Arrays.asList(-1L));
+
+        assertThat(mProvider.mBatchCount).isEqualTo(0);
+        assertThat(getNotifiedUriCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void markCallLogAsRead_invalidNumber_marksAllMissedCalls() {
+        TelecomUtils.markCallLogAsRead(application, "");
+
+        assertThat(mProvider.mBatchCount).isEqualTo(1);
+        assertThat(mProvider.mUpdateSelectionArgs).containsExactly(Arrays.asList(MISSED_TYPE));
+    }
+
+    @Test
+    public void markCallLogsAsRead_withoutPermission_doesNothing() {
+        shadowOf(application).denyPermissions(Manifest.permission.WRITE_CALL_LOG);
+
+        TelecomUtils.markCallLogsAsRead(application, Arrays.asList(1L, 2L));
+
+        assertThat(mProvider.mBatchCount).isEqualTo(0);
+    }
+
+    private static int getNotifiedUriCount() {
+        return shadowOf(application.getContentResolver()).getNotifiedUris().size();
+    }
+
+    /** Records the batches and the updates applied to the call log. */
+    public static class FakeCallLogProvider extends ContentProvider {
+        private int mBatchCount;
+        private final List<List<String>> mUpdateSelectionArgs = new ArrayList<>();
+
+        @Override
+        public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                throws OperationApplicationException {
+            mBatchCount++;
+            return super.applyBatch(operations);
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            assertThat(uri).isEqualTo(CallLog.Calls.CONTENT_URI);
+            assertThat(values.getAsInteger(CallLog.Calls.IS_READ)).isEqualTo(1);
+            mUpdateSelectionArgs.add(Arrays.asList(selectionArgs));
+            return 1;
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
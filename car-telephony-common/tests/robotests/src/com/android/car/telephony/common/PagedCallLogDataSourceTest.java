@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Looper;
+import android.provider.CallLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class PagedCallLogDataSourceTest {
+
+    private static final int PAGE_SIZE = 2;
+    private static final String NUMBER_A = "+1 650-253-0001";
+    private static final String NUMBER_B = "+1 650-253-0002";
+    private static final String NUMBER_C = "+1 650-253-0003";
+    private static final String NUMBER_D = "+1 650-253-0004";
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private FakeCallLogProvider mProvider;
+    private RecordingCallback mCallback;
+    private PagedCallLogDataSource mDataSource;
+
+    @Before
+    public void setUp() {
+        Locale.setDefault(Locale.US);
+        mProvider = Robolectric.setupContentProvider(FakeCallLogProvider.class,
+                CallLog.AUTHORITY);
+        shadowOf(application).grantPermissions(Manifest.permission.READ_CALL_LOG);
+        // Page 0 is A and the 4 calls of B, which span two chunks of rows. Page 1 is C and D.
+        mProvider.setNumbers(NUMBER_A, NUMBER_B, NUMBER_B, NUMBER_B, NUMBER_B, NUMBER_C,
+                NUMBER_C, NUMBER_D);
+        mCallback = new RecordingCallback();
+    }
+
+    @After
+    public void tearDown() {
+        if (mDataSource != null) {
+            mDataSource.close();
+        }
+    }
+
+    @Test
+    public void loadPage_groupsCallsAcrossChunksAndPages() throws Exception {
+        mDataSource = createDataSource(5);
+
+        mDataSource.loadPage(0);
+        runPendingLoads();
+        mDataSource.loadPage(1);
+        runPendingLoads();
+
+        assertCallLog(mDataSource.getItem(0), NUMBER_A, 1);
+        assertCallLog(mDataSource.getItem(1), NUMBER_B, 4);
+        assertCallLog(mDataSource.getItem(2), NUMBER_C, 2);
+        assertCallLog(mDataSource.getItem(3), NUMBER_D, 1);
+        assertThat(mDataSource.getItemCount()).isEqualTo(4);
+        // Page 1 starts with the first call of C, where page 0 stopped.
+        assertThat(mProvider.mOffsets).containsExactly(0, 4, 5).inOrder();
+        assertThat(mCallback.mLoadedPages).containsExactly(0, 1).inOrder();
+    }
+
+    @Test
+    public void loadPage_pastLastPage_reachesEnd() throws Exception {
+        mDataSource = createDataSource(5);
+
+        for (int page = 0; page < 3; page++) {
+            mDataSource.loadPage(page);
+            runPendingLoads();
+        }
+
+        assertThat(mDataSource.isEndReached()).isTrue();
+        assertThat(mDataSource.getItemCount()).isEqualTo(4);
+        assertThat(mDataSource.getItem(4)).isNull();
+    }
+
+    @Test
+    public void getItem_evictedPage_isReloadedFromItsFirstRow() throws Exception {
+        mDataSource = createDataSource(1);
+        mDataSource.loadPage(0);
+        runPendingLoads();
+        mDataSource.loadPage(1);
+        runPendingLoads();
+        mProvider.mOffsets.clear();
+
+        // Only page 1 is kept in memory.
+        assertThat(mDataSource.getItem(0)).isNull();
+        runPendingLoads();
+
+        assertCallLog(mDataSource.getItem(1), NUMBER_B, 4);
+        assertThat(mProvider.mOffsets).containsExactly(0, 4).inOrder();
+        mProvider.mOffsets.clear();
+
+        assertThat(mDataSource.getItem(2)).isNull();
+        runPendingLoads();
+
+        assertCallLog(mDataSource.getItem(2), NUMBER_C, 2);
+        // Page 1 is read again from its first row, without reading page 0 again.
+        assertThat(mProvider.mOffsets).containsExactly(5);
+        assertThat(mCallback.mLoadedPages).containsExactly(0, 1, 0, 1).inOrder();
+    }
+
+    @Test
+    public void callLogChange_dropsPagesAndLoadsNewCalls() throws Exception {
+        mDataSource = createDataSource(5);
+        mDataSource.loadPage(0);
+        runPendingLoads();
+        assertCallLog(mDataSource.getItem(0), NUMBER_A, 1);
+
+        mProvider.setNumbers(NUMBER_D, NUMBER_A, NUMBER_B, NUMBER_B, NUMBER_B, NUMBER_B,
+                NUMBER_C, NUMBER_C, NUMBER_D);
+        application.getContentResolver().notifyChange(CallLog.Calls.CONTENT_URI, null);
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertThat(mCallback.mInvalidatedCount).isEqualTo(1);
+        assertThat(mDataSource.getItemCount()).isEqualTo(0);
+        assertThat(mDataSource.isEndReached()).isFalse();
+        assertThat(mDataSource.getItem(0)).isNull();
+        runPendingLoads();
+
+        assertCallLog(mDataSource.getItem(0), NUMBER_D, 1);
+        assertCallLog(mDataSource.getItem(1), NUMBER_A, 1);
+    }
+
+    @Test
+    public void close_stopsObservingCallLog() throws Exception {
+        mDataSource = createDataSource(5);
+        mDataSource.loadPage(0);
+        runPendingLoads();
+
+        mDataSource.close();
+        application.getContentResolver().notifyChange(CallLog.Calls.CONTENT_URI, null);
+        shadowOf(Looper.getMainLooper()).idle();
+        mDataSource.loadPage(0);
+        runPendingLoads();
+
+        assertThat(mCallback.mInvalidatedCount).isEqualTo(0);
+        assertThat(mDataSource.getItemCount()).isEqualTo(0);
+    }
+
+    private PagedCallLogDataSource createDataSource(int maxPagesInMemory) {
+        return new PagedCallLogDataSource(application, null, null, PAGE_SIZE, maxPagesInMemory,
+                mCallback);
+    }
+
+    /** Waits for the reads queued on the worker lane, then delivers their pages. */
+    private static void runPendingLoads() throws Exception {
+        WorkerExecutor.getInstance().getExecutor(WorkerExecutor.Priority.NORMAL)
+                .submit(() -> { }).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        shadowOf(Looper.getMainLooper()).idle();
+    }
+
+    private static void assertCallLog(PhoneCallLog callLog, String number, int recordCount) {
+        assertThat(callLog).isNotNull();
+        assertThat(callLog.getPhoneNumberString()).isEqualTo(number);
+        assertThat(callLog.getCallRecordCount()).isEqualTo(recordCount);
+        for (int i = 1; i < recordCount; i++) {
+            assertThat(callLog.getCallEndTimestamp(i))
+                    .isLessThan(callLog.getCallEndTimestamp(i - 1));
+        }
+    }
+
+    private static class RecordingCallback implements PagedCallLogDataSource.Callback {
+        private final List<Integer> mLoadedPages = new ArrayList<>();
+        private int mInvalidatedCount;
+
+        @Override
+        public void onPageLoaded(int page, int count) {
+            mLoadedPages.add(page);
+        }
+
+        @Override
+        public void onInvalidated() {
+            mInvalidatedCount++;
+        }
+    }
+
+    /**
+     * Serves calls from the given numbers, most recent first, honoring the limit and offset of
+     * the queries.
+     */
+    public static class FakeCallLogProvider extends ContentProvider {
+        private final List<Integer> mOffsets = new ArrayList<>();
+        private volatile List<String> mNumbers = new ArrayList<>();
+
+        private void setNumbers(String... numbers) {
+            mNumbers = Arrays.asList(numbers);
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            int limit = Integer.parseInt(uri.getQueryParameter(CallLog.Calls.LIMIT_PARAM_KEY));
+            int offset = Integer.parseInt(uri.getQueryParameter(CallLog.Calls.OFFSET_PARAM_KEY));
+            synchronized (mOffsets) {
+                mOffsets.add(offset);
+            }
+            List<String> numbers = mNumbers;
+            MatrixCursor cursor = new MatrixCursor(projection);
+            for (int row = offset; row < Math.min(numbers.size(), offset + limit); row++) {
+                Object[] values = new Object[projection.length];
+                for (int i = 0; i < projection.length; i++) {
+                    switch (projection[i]) {
+                        case CallLog.Calls._ID:
+                            values[i] = numbers.size() - row;
+                            break;
+                        case CallLog.Calls.NUMBER:
+                            values[i] = numbers.get(row);
+                            break;
+                        case CallLog.Calls.DATE:
+                            values[i] = 1000L * (numbers.size() - row);
+                            break;
+                        case CallLog.Calls.TYPE:
+                            values[i] = CallLog.Calls.INCOMING_TYPE;
+                            break;
+                        default:
+                            values[i] = null;
+                    }
+                }
+                cursor.addRow(values);
+            }
+            return cursor;
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
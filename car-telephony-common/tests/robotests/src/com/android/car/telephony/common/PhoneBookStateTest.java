@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+
+import android.database.MatrixCursor;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(RobolectricTestRunner.class)
+public class PhoneBookStateTest {
+
+    private static final String ACCOUNT = "account";
+    private static final String OTHER_ACCOUNT = "other account";
+    private static final String LOOKUP_KEY = "lookup";
+    private static final String OTHER_LOOKUP_KEY = "other";
+    private static final int VERSION_COUNT = 8;
+    private static final int SYNC_COUNT = 500;
+    private static final int READER_COUNT = 4;
+
+    private final List<Contact> mVersions = new ArrayList<>();
+    private Contact mOtherContact;
+
+    @Before
+    public void setUp() {
+        Locale.setDefault(Locale.US);
+        for (int i = 0; i < VERSION_COUNT; i++) {
+            mVersions.add(createContact(LOOKUP_KEY, i, "+1 650-253-000" + i));
+        }
+        mOtherContact = createContact(OTHER_LOOKUP_KEY, 100, "+1 650-253-0100");
+    }
+
+    @Test
+    public void edit_doesNotModifyOriginalState() {
+        PhoneBookState state = PhoneBookState.create(Collections.singletonMap(ACCOUNT,
+                Collections.singletonMap(LOOKUP_KEY, mVersions.get(0))));
+
+        PhoneBookState.Editor editor = state.edit();
+        editor.put(ACCOUNT, mVersions.get(1));
+        editor.put(ACCOUNT, mOtherContact);
+        PhoneBookState newState = editor.build();
+
+        assertThat(state.getByLookupKey(LOOKUP_KEY, ACCOUNT)).isSameAs(mVersions.get(0));
+        assertThat(state.getByPhoneNumber(getNumber(mVersions.get(0))))
+                .isSameAs(mVersions.get(0));
+        assertThat(state.getByPhoneNumber(getNumber(mVersions.get(1)))).isNull();
+        assertThat(state.getByLookupKey(OTHER_LOOKUP_KEY, ACCOUNT)).isNull();
+        assertThat(state.getAccountContacts(ACCOUNT)).hasSize(1);
+
+        assertThat(newState.getByLookupKey(LOOKUP_KEY, ACCOUNT)).isSameAs(mVersions.get(1));
+        assertThat(newState.getByPhoneNumber(getNumber(mVersions.get(0)))).isNull();
+        assertThat(newState.getByPhoneNumber(getNumber(mVersions.get(1))))
+                .isSameAs(mVersions.get(1));
+        assertThat(newState.getAccountContacts(ACCOUNT)).hasSize(2);
+        assertThat(newState.getSearchIndex().search("6502530100", 10, null))
+                .containsExactly(mOtherContact);
+    }
+
+    @Test
+    public void remove_lastContact_dropsAccount() {
+        PhoneBookState state = PhoneBookState.create(Collections.singletonMap(ACCOUNT,
+                Collections.singletonMap(OTHER_LOOKUP_KEY, mOtherContact)));
+
+        PhoneBookState.Editor editor = state.edit();
+        assertThat(editor.remove(ACCOUNT, OTHER_LOOKUP_KEY)).isSameAs(mOtherContact);
+        PhoneBookState newState = editor.build();
+
+        assertThat(editor.getAffectedAccounts()).containsExactly(ACCOUNT);
+        assertThat(newState.getAccountContacts(ACCOUNT)).isNull();
+        assertThat(newState.getSortedContacts(ACCOUNT, true)).isNull();
+        assertThat(newState.getByPhoneNumber(getNumber(mOtherContact))).isNull();
+        assertThat(state.getAccountContacts(ACCOUNT)).containsExactly(mOtherContact);
+    }
+
+    @Test
+    public void getByLookupKeys_allAccounts() {
+        Contact otherAccountContact = createContact(OTHER_ACCOUNT, LOOKUP_KEY, 200,
+                "+1 650-253-0200");
+        PhoneBookState.Editor editor = PhoneBookState.EMPTY.edit();
+        editor.put(ACCOUNT, mVersions.get(0));
+        editor.put(ACCOUNT, mOtherContact);
+        editor.put(OTHER_ACCOUNT, otherAccountContact);
+        PhoneBookState state = editor.build();
+
+        Map<String, List<Contact>> results = state.getByLookupKeys(
+                Arrays.asList(LOOKUP_KEY, OTHER_LOOKUP_KEY, "missing"));
+        assertThat(results.keySet()).containsExactly(LOOKUP_KEY, OTHER_LOOKUP_KEY);
+        assertThat(results.get(LOOKUP_KEY)).containsExactly(mVersions.get(0),
+                otherAccountContact);
+        assertThat(results.get(OTHER_LOOKUP_KEY)).containsExactly(mOtherContact);
+        assertThat(state.getByLookupKeys(Arrays.asList(LOOKUP_KEY, OTHER_LOOKUP_KEY),
+                OTHER_ACCOUNT)).containsExactly(LOOKUP_KEY, otherAccountContact);
+
+        editor = state.edit();
+        editor.remove(ACCOUNT, LOOKUP_KEY);
+        PhoneBookState newState = editor.build();
+
+        assertThat(newState.getByLookupKey(LOOKUP_KEY)).containsExactly(otherAccountContact);
+        assertThat(state.getByLookupKey(LOOKUP_KEY)).containsExactly(mVersions.get(0),
+                otherAccountContact);
+    }
+
+    @Test
+    public void concurrentSyncs_readersSeeConsistentStates() throws Exception {
+        AtomicReference<PhoneBookState> published = new AtomicReference<>(
+                PhoneBookState.create(Collections.singletonMap(ACCOUNT,
+                        Collections.singletonMap(LOOKUP_KEY, mVersions.get(0)))));
+        AtomicBoolean isSyncing = new AtomicBoolean(true);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch readersDone = new CountDownLatch(READER_COUNT);
+
+        for (int i = 0; i < READER_COUNT; i++) {
+            new Thread(() -> {
+                try {
+                    while (isSyncing.get() && failure.get() == null) {
+                        assertConsistent(published.get());
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    readersDone.countDown();
+                }
+            }).start();
+        }
+
+        for (int i = 1; i <= SYNC_COUNT && failure.get() == null; i++) {
+            PhoneBookState.Editor editor = published.get().edit();
+            editor.put(ACCOUNT, mVersions.get(i % VERSION_COUNT));
+            if (i % 2 == 0) {
+                editor.put(ACCOUNT, mOtherContact);
+            } else {
+                editor.remove(ACCOUNT, OTHER_LOOKUP_KEY);
+            }
+            published.set(editor.build());
+        }
+        isSyncing.set(false);
+
+        assertThat(readersDone.await(10, TimeUnit.SECONDS)).isTrue();
+        if (failure.get() != null) {
+            throw new AssertionError("Inconsistent state", failure.get());
+        }
+        assertConsistent(published.get());
+    }
+
+    /** Checks that the indexes of a state all agree on the contact with {@link #LOOKUP_KEY}. */
+    private void assertConsistent(PhoneBookState state) {
+        Contact contact = state.getByLookupKey(LOOKUP_KEY, ACCOUNT);
+        assertThat(contact).isNotNull();
+        for (Contact version : mVersions) {
+            assertThat(state.getByPhoneNumber(getNumber(version)))
+                    .isSameAs(version == contact ? contact : null);
+        }
+        assertThat(containsSame(state.getAccountContacts(ACCOUNT), contact)).isTrue();
+        assertThat(containsSame(state.getSortedContacts(ACCOUNT, true), contact)).isTrue();
+        assertThat(containsSame(state.getSortedContacts(ACCOUNT, false), contact)).isTrue();
+
+        boolean hasOther = state.getByLookupKey(OTHER_LOOKUP_KEY, ACCOUNT) != null;
+        assertThat(state.getAccountContacts(ACCOUNT)).hasSize(hasOther ? 2 : 1);
+        assertThat(state.getByPhoneNumber(getNumber(mOtherContact)) != null).isEqualTo(hasOther);
+        assertThat(state.getByLookupKey(LOOKUP_KEY)).containsExactly(contact);
+    }
+
+    private static boolean containsSame(List<Contact> contacts, Contact contact) {
+        for (Contact c : contacts) {
+            if (c == contact) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static I18nPhoneNumberWrapper getNumber(Contact contact) {
+        return contact.getNumbers().get(0).getI18nPhoneNumberWrapper();
+    }
+
+    private static Contact createContact(String lookupKey, long id, String number) {
+        return createContact(ACCOUNT, lookupKey, id, number);
+    }
+
+    private static Contact createContact(String account, String lookupKey, long id,
+            String number) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                ContactsContract.RawContacts.ACCOUNT_NAME,
+                ContactsContract.Data.LOOKUP_KEY,
+                ContactsContract.Data.MIMETYPE,
+                ContactsContract.Data.DISPLAY_NAME,
+                ContactsContract.RawContacts.CONTACT_ID,
+                Phone.NUMBER});
+        cursor.addRow(new Object[]{account, lookupKey, Phone.CONTENT_ITEM_TYPE,
+                "Contact " + id, id, number});
+        cursor.moveToFirst();
+        return Contact.fromCursor(application, cursor);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Intent;
+import android.os.Looper;
+import android.telephony.CarrierConfigManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+public class PhoneNumberClassifierTest {
+
+    private static final String VOICEMAIL_NUMBER = "+16502530000";
+    private static final String OTHER_VOICEMAIL_NUMBER = "*86";
+    private static final String OWN_NUMBER = "+16502530001";
+
+    private FakeSource mSource;
+    private PhoneNumberClassifier mClassifier;
+
+    @Before
+    public void setUp() {
+        mSource = new FakeSource();
+        mClassifier = new PhoneNumberClassifier(application, mSource);
+        PhoneNumberClassifier.setInstanceForTesting(mClassifier);
+    }
+
+    @After
+    public void tearDown() {
+        PhoneNumberClassifier.setInstanceForTesting(null);
+    }
+
+    @Test
+    public void isVoicemailNumber_matchesFormattedNumbers() {
+        assertThat(TelecomUtils.isVoicemailNumber(application, "+1 650-253-0000")).isTrue();
+        assertThat(TelecomUtils.isVoicemailNumber(application, OTHER_VOICEMAIL_NUMBER)).isTrue();
+        assertThat(TelecomUtils.isVoicemailNumber(application, OWN_NUMBER)).isFalse();
+        assertThat(TelecomUtils.getVoicemailNumber(application)).isEqualTo(VOICEMAIL_NUMBER);
+    }
+
+    @Test
+    public void isEmergencyNumber() {
+        assertThat(TelecomUtils.isEmergencyNumber(application, "112")).isTrue();
+        assertThat(TelecomUtils.isEmergencyNumber(application, VOICEMAIL_NUMBER)).isFalse();
+    }
+
+    @Test
+    public void isOwnNumber() {
+        assertThat(TelecomUtils.isOwnNumber(application, "+1 (650) 253-0001")).isTrue();
+        assertThat(TelecomUtils.isOwnNumber(application, VOICEMAIL_NUMBER)).isFalse();
+    }
+
+    @Test
+    public void numbersAreReadOnce() {
+        mClassifier.isVoicemailNumber(VOICEMAIL_NUMBER);
+        mClassifier.isEmergencyNumber(VOICEMAIL_NUMBER);
+        mClassifier.isOwnNumber(VOICEMAIL_NUMBER);
+
+        assertThat(mSource.mReadCount).isEqualTo(1);
+    }
+
+    @Test
+    public void carrierConfigChanged_readsNumbersAgain() {
+        mClassifier.isVoicemailNumber(VOICEMAIL_NUMBER);
+        mSource.mOwnNumbers = Collections.singleton(VOICEMAIL_NUMBER);
+
+        application.sendBroadcast(new Intent(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED));
+        shadowOf(Looper.getMainLooper()).idle();
+
+        assertThat(mClassifier.isOwnNumber(VOICEMAIL_NUMBER)).isTrue();
+        assertThat(mSource.mReadCount).isEqualTo(2);
+    }
+
+    @Test
+    public void noPermission_readsNumbersOnceGranted() {
+        mSource.mHasPermission = false;
+        assertThat(mClassifier.isVoicemailNumber(VOICEMAIL_NUMBER)).isFalse();
+        assertThat(mClassifier.isEmergencyNumber("911")).isTrue();
+
+        mSource.mHasPermission = true;
+
+        assertThat(mClassifier.isVoicemailNumber(VOICEMAIL_NUMBER)).isTrue();
+    }
+
+    @Test
+    public void noPermission_onlyTreatsUniversalNumbersAsEmergency() {
+        mSource.mHasPermission = false;
+
+        assertThat(mClassifier.isEmergencyNumber("112")).isTrue();
+        assertThat(mClassifier.isEmergencyNumber("911")).isTrue();
+        assertThat(mClassifier.isEmergencyNumber("000")).isFalse();
+        assertThat(mClassifier.isEmergencyNumber("110")).isFalse();
+        assertThat(mClassifier.isEmergencyNumber("119")).isFalse();
+    }
+
+    private static class FakeSource implements PhoneNumberClassifier.Source {
+        private boolean mHasPermission = true;
+        private Set<String> mOwnNumbers = Collections.singleton(OWN_NUMBER);
+        private int mReadCount;
+
+        @Override
+        public boolean hasPhoneStatePermission() {
+            return mHasPermission;
+        }
+
+        @Override
+        public String getDefaultVoicemailNumber() {
+            mReadCount++;
+            return VOICEMAIL_NUMBER;
+        }
+
+        @Override
+        public Set<String> getVoicemailNumbers() {
+            return new HashSet<>(Collections.singleton(OTHER_VOICEMAIL_NUMBER));
+        }
+
+        @Override
+        public Set<String> getEmergencyNumbers() {
+            return new HashSet<>(Collections.singleton("112"));
+        }
+
+        @Override
+        public Set<String> getOwnNumbers() {
+            return mOwnNumbers;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Intent;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(qualifiers = "en-rUS")
+public class PhoneNumberFormatCacheTest {
+
+    private static final String NUMBER = "6502530000";
+
+    private PhoneNumberFormatCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new PhoneNumberFormatCache(application, 16);
+    }
+
+    @Test
+    public void format_sameNumber_isFormattedOnce() {
+        String formattedNumber = mCache.format(NUMBER);
+
+        assertThat(mCache.format(NUMBER)).isEqualTo(formattedNumber);
+        assertThat(mCache.getMissCount()).isEqualTo(1);
+        assertThat(mCache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void localeChanged_formatsNumberAgain() {
+        mCache.format(NUMBER);
+
+        application.sendBroadcast(new Intent(Intent.ACTION_LOCALE_CHANGED));
+        shadowOf(Looper.getMainLooper()).idle();
+        mCache.format(NUMBER);
+
+        assertThat(mCache.getMissCount()).isEqualTo(2);
+        assertThat(mCache.getHitCount()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Locale;
+
+@RunWith(RobolectricTestRunner.class)
+public class PhoneNumberIndexTest {
+
+    private static final String NUMBER = "+1 650-253-0000";
+    private static final String NUMBER_NATIONAL = "(650) 253-0000";
+    private static final String NUMBER_WITHOUT_AREA_CODE = "253-0000";
+    private static final String OTHER_NUMBER = "+1 650-253-0001";
+    private static final String INVALID_NUMBER = "*86";
+
+    private PhoneNumberIndex<String> mIndex;
+
+    @Before
+    public void setUp() {
+        Locale.setDefault(Locale.US);
+        mIndex = new PhoneNumberIndex<>();
+    }
+
+    @Test
+    public void get_differentFormats_sameKey() {
+        I18nPhoneNumberWrapper number = wrap(NUMBER);
+        I18nPhoneNumberWrapper national = wrap(NUMBER_NATIONAL);
+
+        assertThat(number).isEqualTo(national);
+        assertThat(number.hashCode()).isEqualTo(national.hashCode());
+        assertThat(number.getIndexKey()).isEqualTo(national.getIndexKey());
+    }
+
+    @Test
+    public void get_exactMatch() {
+        mIndex.put(wrap(NUMBER), "contact");
+        mIndex.put(wrap(OTHER_NUMBER), "other");
+
+        assertThat(mIndex.get(wrap(NUMBER_NATIONAL))).isEqualTo("contact");
+        assertThat(mIndex.get(wrap(OTHER_NUMBER))).isEqualTo("other");
+    }
+
+    @Test
+    public void get_invalidNumber_matchesRawNumber() {
+        mIndex.put(wrap(INVALID_NUMBER), "voicemail");
+
+        assertThat(mIndex.get(wrap(INVALID_NUMBER))).isEqualTo("voicemail");
+    }
+
+    @Test
+    public void get_missingAreaCode_fallsBackToSuffix() {
+        mIndex.put(wrap(NUMBER), "contact");
+
+        assertThat(mIndex.get(wrap(NUMBER_WITHOUT_AREA_CODE))).isEqualTo("contact");
+    }
+
+    @Test
+    public void get_ambiguousSuffix_returnsNull() {
+        mIndex.put(wrap(NUMBER), "contact");
+        mIndex.put(wrap("+1 408-253-0000"), "other");
+
+        assertThat(mIndex.get(wrap(NUMBER_WITHOUT_AREA_CODE))).isNull();
+    }
+
+    @Test
+    public void remove_keepsOtherValuesOfSameNumber() {
+        mIndex.put(wrap(NUMBER), "contact");
+        mIndex.put(wrap(NUMBER_NATIONAL), "other");
+
+        mIndex.remove(wrap(NUMBER_NATIONAL), "other");
+
+        assertThat(mIndex.get(wrap(NUMBER))).isEqualTo("contact");
+        mIndex.remove(wrap(NUMBER), "contact");
+        assertThat(mIndex.get(wrap(NUMBER))).isNull();
+        assertThat(mIndex.size()).isEqualTo(0);
+    }
+
+    private static I18nPhoneNumberWrapper wrap(String number) {
+        return I18nPhoneNumberWrapper.Factory.INSTANCE.get(application, number);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.robolectric.RuntimeEnvironment.application;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.PhoneLookup;
+import android.telephony.PhoneNumberUtils;
+
+import com.android.car.telephony.common.TelecomUtils.PhoneNumberInfo;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class PhoneNumberInfoResolverTest {
+
+    private static final String NAME = "Alice";
+    private static final String LOOKUP_KEY = "lookup";
+    /** Stored without a country code, the provider has no normalized number for it. */
+    private static final String STORED_NUMBER = "650-253-0000";
+    private static final String INCOMING_NUMBER = "+16502530000";
+    private static final String UNKNOWN_NUMBER = "+16502539999";
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private FakeContactsProvider mProvider;
+    private PhoneNumberInfoResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mProvider = Robolectric.setupContentProvider(FakeContactsProvider.class,
+                ContactsContract.AUTHORITY);
+        shadowOf(application).grantPermissions(Manifest.permission.READ_CONTACTS);
+        mResolver = new PhoneNumberInfoResolver(application);
+    }
+
+    @Test
+    public void resolve_nullNormalizedNumber_fallsBackToPhoneLookup() throws Exception {
+        PhoneNumberInfo info = mResolver.resolve(INCOMING_NUMBER)
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertThat(info.getDisplayName()).isEqualTo(NAME);
+        assertThat(info.getLookupKey()).isEqualTo(LOOKUP_KEY);
+        assertThat(mProvider.mNormalizedNumberQueryCount).isEqualTo(1);
+        assertThat(mProvider.mPhoneLookupQueryCount).isEqualTo(1);
+    }
+
+    @Test
+    public void resolve_unknownNumber_hasNoLookupKey() throws Exception {
+        PhoneNumberInfo info = mResolver.resolve(UNKNOWN_NUMBER)
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertThat(info.getLookupKey()).isNull();
+        assertThat(info.getDisplayName()).isNotEqualTo(NAME);
+    }
+
+    @Test
+    public void resolve_afterWorkerExecutorTearDown_runsInNewExecutor() throws Exception {
+        mResolver.resolve(UNKNOWN_NUMBER).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        WorkerExecutor.getInstance().tearDown();
+        PhoneNumberInfo info = mResolver.resolve(INCOMING_NUMBER)
+                .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        assertThat(info.getLookupKey()).isEqualTo(LOOKUP_KEY);
+    }
+
+    /**
+     * Holds a single contact whose phone number has a null {@link Phone#NORMALIZED_NUMBER}, and
+     * matches {@link PhoneLookup} queries loosely like the contacts provider.
+     */
+    public static class FakeContactsProvider extends ContentProvider {
+        private int mNormalizedNumberQueryCount;
+        private int mPhoneLookupQueryCount;
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            MatrixCursor cursor = new MatrixCursor(projection);
+            if (uri.toString().startsWith(PhoneLookup.CONTENT_FILTER_URI.toString())) {
+                mPhoneLookupQueryCount++;
+                if (PhoneNumberUtils.compare(uri.getLastPathSegment(), STORED_NUMBER)) {
+                    addContactRow(cursor, projection);
+                }
+            } else if (uri.equals(Phone.CONTENT_URI)) {
+                mNormalizedNumberQueryCount++;
+                // The only contact has no normalized number, it never matches.
+                assertThat(selection).startsWith(Phone.NORMALIZED_NUMBER + " IN (");
+                assertThat(Arrays.asList(selectionArgs)).doesNotContain(null);
+            }
+            return cursor;
+        }
+
+        private static void addContactRow(MatrixCursor cursor, String[] projection) {
+            Object[] row = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                switch (projection[i]) {
+                    case PhoneLookup.DISPLAY_NAME:
+                    case PhoneLookup.DISPLAY_NAME_ALTERNATIVE:
+                        row[i] = NAME;
+                        break;
+                    case PhoneLookup.TYPE:
+                        row[i] = Phone.TYPE_MOBILE;
+                        break;
+                    case PhoneLookup.LOOKUP_KEY:
+                        row[i] = LOOKUP_KEY;
+                        break;
+                    default:
+                        row[i] = null;
+                }
+            }
+            cursor.addRow(row);
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.telephony.common;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.car.telephony.common.WorkerExecutor.Priority;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+public class WorkerExecutorTest {
+
+    private final Map<Priority, FakeLaneExecutor> mLaneExecutors = new EnumMap<>(Priority.class);
+    private final List<String> mRunTasks = new ArrayList<>();
+    private long mTime;
+    private WorkerExecutor mWorkerExecutor;
+
+    @Before
+    public void setUp() {
+        mWorkerExecutor = new WorkerExecutor(() -> mTime, priority -> {
+            FakeLaneExecutor executor = new FakeLaneExecutor();
+            mLaneExecutors.put(priority, executor);
+            return executor;
+        });
+    }
+
+    @Test
+    public void submit_runsLanesIndependently() {
+        mWorkerExecutor.submit(Priority.BULK, null, () -> mRunTasks.add("sync"));
+        Future<?> lookup = mWorkerExecutor.submit(Priority.INTERACTIVE, null,
+                () -> mRunTasks.add("lookup"));
+
+        mLaneExecutors.get(Priority.INTERACTIVE).runAll();
+
+        assertThat(lookup.isDone()).isTrue();
+        assertThat(mRunTasks).containsExactly("lookup");
+        assertThat(mWorkerExecutor.getQueueDepth(Priority.BULK)).isEqualTo(1);
+        assertThat(mWorkerExecutor.getQueueDepth(Priority.INTERACTIVE)).isEqualTo(0);
+    }
+
+    @Test
+    public void cancel_dropsPendingTasksWithTag() {
+        Future<?> first = mWorkerExecutor.submit(Priority.NORMAL, "a", () -> mRunTasks.add("a1"));
+        Future<?> second = mWorkerExecutor.submit(Priority.NORMAL, "a", () -> mRunTasks.add("a2"));
+        Future<?> other = mWorkerExecutor.submit(Priority.NORMAL, "b", () -> mRunTasks.add("b"));
+        assertThat(mWorkerExecutor.getQueueDepth(Priority.NORMAL)).isEqualTo(3);
+
+        assertThat(mWorkerExecutor.cancel("a", false)).isEqualTo(2);
+        assertThat(mWorkerExecutor.getQueueDepth(Priority.NORMAL)).isEqualTo(1);
+
+        mLaneExecutors.get(Priority.NORMAL).runAll();
+
+        assertThat(first.isCancelled()).isTrue();
+        assertThat(second.isCancelled()).isTrue();
+        assertThat(other.isDone()).isTrue();
+        assertThat(mRunTasks).containsExactly("b");
+        assertThat(mWorkerExecutor.getCompletedTaskCount(Priority.NORMAL)).isEqualTo(1);
+        assertThat(mWorkerExecutor.cancel("a", false)).isEqualTo(0);
+        assertThat(mWorkerExecutor.cancel("b", false)).isEqualTo(0);
+    }
+
+    @Test
+    public void metrics_measureWaitAndRunTimes() {
+        mWorkerExecutor.submit(Priority.NORMAL, null, () -> mTime += 5);
+        mTime += 10;
+        mWorkerExecutor.submit(Priority.NORMAL, null, () -> mTime += 15);
+        mTime += 20;
+
+        mLaneExecutors.get(Priority.NORMAL).runAll();
+
+        // Waits of 30 and 25 ms, runs of 5 and 15 ms.
+        assertThat(mWorkerExecutor.getCompletedTaskCount(Priority.NORMAL)).isEqualTo(2);
+        assertThat(mWorkerExecutor.getMaxWaitMillis(Priority.NORMAL)).isEqualTo(30);
+        assertThat(mWorkerExecutor.getAverageWaitMillis(Priority.NORMAL)).isEqualTo(27);
+        assertThat(mWorkerExecutor.getAverageRunMillis(Priority.NORMAL)).isEqualTo(10);
+        assertThat(mWorkerExecutor.getCompletedTaskCount(Priority.BULK)).isEqualTo(0);
+    }
+
+    @Test
+    public void getSingleThreadExecutor_countsTasksInNormalLane() {
+        mWorkerExecutor.getSingleThreadExecutor().execute(() -> mRunTasks.add("execute"));
+        Future<?> submitted = mWorkerExecutor.getSingleThreadExecutor().submit(
+                () -> mRunTasks.add("submit"));
+        assertThat(mWorkerExecutor.getQueueDepth(Priority.NORMAL)).isEqualTo(2);
+
+        mLaneExecutors.get(Priority.NORMAL).runAll();
+
+        assertThat(submitted.isDone()).isTrue();
+        assertThat(mRunTasks).containsExactly("execute", "submit").inOrder();
+        assertThat(mWorkerExecutor.getCompletedTaskCount(Priority.NORMAL)).isEqualTo(2);
+    }
+
+    /** Runs its tasks only when asked to, on the calling thread. */
+    private static class FakeLaneExecutor extends AbstractExecutorService {
+        private final Queue<Runnable> mTasks = new ArrayDeque<>();
+        private boolean mIsShutdown;
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.poll().run();
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        @Override
+        public void shutdown() {
+            mIsShutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            mIsShutdown = true;
+            List<Runnable> tasks = new ArrayList<>(mTasks);
+            mTasks.clear();
+            return tasks;
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return mIsShutdown;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return mIsShutdown && mTasks.isEmpty();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return isTerminated();
+        }
+    }
+}